@@ -43,6 +43,9 @@ public class AgentManager {
 	 */
 	protected static void initInstance() {
 		getInstance().addAgent(new NotifyUsersAboutPraiseAgent());
+		getInstance().addAgent(new RebuildLeaderboardAgent());
+		getInstance().addAgent(new FlushPraiseAgent());
+		getInstance().addAgent(new NotifyModeratorsAgent());
 	}
 
 	/**
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.agents;
+
+import org.wahlzeit.model.PraiseCounter;
+
+/**
+ * Flushes the pending praise of the instance serving the cron request, so votes counted by an instance that gets no
+ * further requests are not only kept in memory.
+ */
+public class FlushPraiseAgent extends Agent {
+
+	public static final String NAME = "flushPraise";
+
+	public FlushPraiseAgent() {
+		initialize(NAME);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void doRun() {
+		PraiseCounter.getInstance().flush();
+	}
+
+}
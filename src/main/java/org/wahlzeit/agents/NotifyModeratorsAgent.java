@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.agents;
+
+import com.google.apphosting.api.ApiProxy;
+import org.wahlzeit.model.LanguageConfigs;
+import org.wahlzeit.model.PhotoCaseManager;
+import org.wahlzeit.services.Language;
+import org.wahlzeit.services.LogBuilder;
+
+import java.util.logging.Logger;
+
+/**
+ * An agent class to notify moderators about flags that came in within the notification interval of their case and
+ * were not followed by another flag, which would have notified them.
+ */
+public class NotifyModeratorsAgent extends Agent {
+
+	public static final String NAME = "notifyModerators";
+
+	private static final Logger log = Logger.getLogger(NotifyModeratorsAgent.class.getName());
+
+	public NotifyModeratorsAgent() {
+		initialize(NAME);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void doRun() {
+		int noNotifiedCases = PhotoCaseManager.getInstance().notifyModeratorsAboutDueCases(
+				LanguageConfigs.get(Language.ENGLISH), getSiteUrl());
+		log.config(LogBuilder.createSystemMessage().addAction("notify moderators")
+				.addParameter("number of cases", noNotifiedCases).toString());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected String getSiteUrl() {
+		String appId = ApiProxy.getCurrentEnvironment().getAppId();
+		appId = appId.substring(2); // app id is given as "s~appid"
+		return "https://" + appId + ".appspot.com/";
+	}
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.agents;
+
+import org.wahlzeit.model.PhotoLeaderboard;
+import org.wahlzeit.model.PraiseCounter;
+import org.wahlzeit.services.LogBuilder;
+
+import java.util.logging.Logger;
+
+/**
+ * An agent class to rebuild the photo leaderboard when it can no longer tell its top photos for sure. It also reads
+ * the votes other instances counted, so the leaderboard of this instance reflects them.
+ */
+public class RebuildLeaderboardAgent extends Agent {
+
+	public static final String NAME = "rebuildLeaderboard";
+
+	private static final Logger log = Logger.getLogger(RebuildLeaderboardAgent.class.getName());
+
+	public RebuildLeaderboardAgent() {
+		initialize(NAME);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void doRun() {
+		PraiseCounter.getInstance().refreshAll();
+		PhotoLeaderboard leaderboard = PhotoLeaderboard.getInstance();
+		if (leaderboard.isStale()) {
+			long startTime = System.currentTimeMillis();
+			leaderboard.rebuild();
+			log.info(LogBuilder.createSystemMessage().addAction("rebuild leaderboard")
+					.addParameter("duration in ms", System.currentTimeMillis() - startTime).toString());
+		}
+	}
+
+}
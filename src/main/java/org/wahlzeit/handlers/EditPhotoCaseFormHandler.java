@@ -21,10 +21,12 @@
 package org.wahlzeit.handlers;
 
 import org.wahlzeit.model.AccessRights;
+import org.wahlzeit.model.CaseId;
+import org.wahlzeit.model.ModelConfig;
 import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoCase;
 import org.wahlzeit.model.PhotoCaseManager;
-import org.wahlzeit.model.PhotoId;
+import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.model.PhotoStatus;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
@@ -82,28 +84,50 @@ public class EditPhotoCaseFormHandler extends AbstractWebFormHandler {
 	/**
 	 *
 	 */
+	protected boolean isWellFormedPost(UserSession us, Map args) {
+		String id = us.getAsString(args, PhotoCase.ID);
+		try {
+			return Integer.parseInt(id) > 0;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * The case may have been decided meanwhile, e.g. by another moderator or a second submit of the form.
+	 */
 	protected String doHandlePost(UserSession us, Map args) {
 		String id = us.getAndSaveAsString(args, PhotoCase.ID);
 		PhotoCaseManager pcm = PhotoCaseManager.getInstance();
 
-		PhotoCase photoCase = pcm.getPhotoCase(PhotoId.getIdFromString(id));
-		Photo photo = photoCase.getPhoto();
-		PhotoStatus status = photo.getStatus();
-		if (us.isFormType(args, "unflag")) {
-			status = status.asFlagged(false);
-		} else if (us.isFormType(args, "moderate")) {
-			status = status.asModerated(true);
-		} else { // something wrong?
-			return PartUtil.SHOW_PHOTO_CASES_PAGE_NAME;
+		PhotoCase photoCase = pcm.getPhotoCase(new CaseId(Integer.parseInt(id)));
+		if (photoCase == null) {
+			return getCaseIsDecidedPage(us);
 		}
 
-		photo.setStatus(status);
-
-		log.info(LogBuilder.createUserMessage().
-				addAction("EditPhotoCase").
-				addParameter("Photo", photo.getId().asString()).toString());
-
-		photoCase.setDecided();
+		Photo photo = photoCase.getPhoto();
+		synchronized (photoCase) {
+			if (photoCase.wasDecided()) {
+				return getCaseIsDecidedPage(us);
+			}
+
+			PhotoStatus status = photo.getStatus();
+			if (us.isFormType(args, "unflag")) {
+				status = status.asFlagged(false);
+			} else if (us.isFormType(args, "moderate")) {
+				status = status.asModerated(true);
+			} else { // something wrong?
+				return PartUtil.SHOW_PHOTO_CASES_PAGE_NAME;
+			}
+
+			PhotoManager.getInstance().setPhotoStatus(photo, status);
+
+			log.info(LogBuilder.createUserMessage().
+					addAction("EditPhotoCase").
+					addParameter("Photo", photo.getId().asString()).toString());
+
+			photoCase.setDecided();
+		}
 		pcm.removePhotoCase(photoCase);
 
 		log.info(LogBuilder.createUserMessage().
@@ -113,4 +137,13 @@ public class EditPhotoCaseFormHandler extends AbstractWebFormHandler {
 		return PartUtil.SHOW_PHOTO_CASES_PAGE_NAME;
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	protected String getCaseIsDecidedPage(UserSession us) {
+		ModelConfig config = us.getClient().getLanguageConfiguration();
+		us.setTwoLineMessage(config.getPhotoCaseIsDecided(), config.getContinueWithShowPhotoCases());
+		return PartUtil.SHOW_NOTE_PAGE_NAME;
+	}
+
 }
@@ -104,7 +104,7 @@ public class EditUserPhotoFormHandler extends AbstractWebFormHandler {
 		String status = us.getAndSaveAsString(args, Photo.IS_INVISIBLE);
 		boolean isInvisible = (status != null) && status.equals("on");
 		PhotoStatus ps = photo.getStatus().asInvisible(isInvisible);
-		photo.setStatus(ps);
+		PhotoManager.getInstance().setPhotoStatus(photo, ps);
 
 		AsyncTaskExecutor.savePhotoAsync(id);
 
@@ -28,11 +28,9 @@ import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoCase;
 import org.wahlzeit.model.PhotoCaseManager;
 import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.PhotoStatus;
 import org.wahlzeit.model.UserSession;
-import org.wahlzeit.services.EmailAddress;
 import org.wahlzeit.services.LogBuilder;
-import org.wahlzeit.services.mailing.EmailService;
-import org.wahlzeit.services.mailing.EmailServiceManager;
 import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
@@ -101,26 +99,19 @@ public class FlagPhotoFormHandler extends AbstractWebFormHandler {
 		}
 
 		Photo photo = PhotoManager.getInstance().getPhoto(id);
-		photo.setStatus(photo.getStatus().asFlagged(true));
-		AsyncTaskExecutor.savePhotoAsync(id);
+		PhotoStatus flaggedStatus = photo.getStatus().asFlagged(true);
+		if (photo.getStatus() != flaggedStatus) {
+			PhotoManager.getInstance().setPhotoStatus(photo, flaggedStatus);
+			AsyncTaskExecutor.savePhotoAsync(id);
+		}
 
-		PhotoCase photoCase = new PhotoCase(photo);
-		photoCase.setFlagger(flagger);
-		photoCase.setReason(reason);
-		photoCase.setExplanation(explanation);
 		PhotoCaseManager pcm = PhotoCaseManager.getInstance();
-		pcm.addPhotoCase(photoCase);
-
-		EmailService emailService = EmailServiceManager.getDefaultService();
-
-		EmailAddress to = config.getModeratorEmailAddress();
+		PhotoCase photoCase = pcm.flagPhoto(photo, flagger, reason, explanation);
 
-		String emailSubject = "Photo: " + id + " of user: " + photo.getOwnerId() + " got flagged";
-		String emailBody = "Photo: " + us.getSiteUrl() + id + ".html\n\n";
-		emailBody += "Reason: " + reason + "\n\n";
-		emailBody += "Explanation: " + explanation + "\n\n";
-
-		emailService.sendEmailIgnoreException(to, config.getAuditEmailAddress(), emailSubject, emailBody);
+		int noNewFlags = pcm.claimNotification(photoCase);
+		if (noNewFlags > 0) {
+			notifyModerators(us, photoCase, noNewFlags);
+		}
 
 		log.info(LogBuilder.createUserMessage()
 				.addAction("Flag Photo")
@@ -131,4 +122,12 @@ public class FlagPhotoFormHandler extends AbstractWebFormHandler {
 		return PartUtil.SHOW_NOTE_PAGE_NAME;
 	}
 
+	/**
+	 * @methodtype command
+	 */
+	protected void notifyModerators(UserSession us, PhotoCase photoCase, int noNewFlags) {
+		ModelConfig config = us.getClient().getLanguageConfiguration();
+		PhotoCaseManager.getInstance().notifyModerators(photoCase, noNewFlags, config, us.getSiteUrl());
+	}
+
 }
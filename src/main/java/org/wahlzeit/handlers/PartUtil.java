@@ -69,6 +69,9 @@ public interface PartUtil {
 
 	String FILTER_PHOTOS_PAGE_NAME = "filter";
 
+	String SHOW_LEADERBOARD_PAGE_NAME = "leaderboard";
+	String SHOW_LEADERBOARD_PAGE_FILE = "pages/ShowLeaderboardPage";
+
 	String FLAG_PHOTO_PAGE_NAME = "flag";
 	String FLAG_PHOTO_FORM_NAME = "flagPhotoForm";
 	String FLAG_PHOTO_FORM_FILE = "forms/FlagPhotoForm";
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.handlers;
+
+import org.wahlzeit.model.AccessRights;
+import org.wahlzeit.model.ModelConfig;
+import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoLeaderboard;
+import org.wahlzeit.model.UserSession;
+import org.wahlzeit.utils.HtmlUtil;
+import org.wahlzeit.utils.StringUtil;
+import org.wahlzeit.webparts.WebPart;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A handler class for the page that shows the best praised photos, overall or of one tag.
+ */
+public class ShowLeaderboardPageHandler extends AbstractWebPageHandler {
+
+	/**
+	 *
+	 */
+	public static final String TAG = "tag";
+	public static final String PAGE = "page";
+	public static final int PHOTOS_PER_PAGE = 20;
+
+	/**
+	 *
+	 */
+	public ShowLeaderboardPageHandler() {
+		initialize(PartUtil.SHOW_LEADERBOARD_PAGE_FILE, AccessRights.GUEST);
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	protected boolean isWellFormedGet(UserSession us, String link, Map args) {
+		String pageNo = us.getAsString(args, PAGE);
+		return StringUtil.isNullOrEmptyString(pageNo) || pageNo.matches("\\d{1,4}");
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	protected String doHandleGet(UserSession us, String link, Map args) {
+		us.getAndSaveAsString(args, TAG);
+		us.getAndSaveAsString(args, PAGE);
+		return link;
+	}
+
+	/**
+	 *
+	 */
+	protected void makeWebPageBody(UserSession us, WebPart page) {
+		Map args = us.getSavedArgs();
+		ModelConfig config = us.getClient().getLanguageConfiguration();
+
+		String tag = us.getAsString(args, TAG);
+		tag = StringUtil.isNullOrEmptyString(tag) ? null : tag;
+		String pageArg = us.getAsString(args, PAGE);
+		int pageNo = StringUtil.isNullOrEmptyString(pageArg) ? 0 : Integer.parseInt(pageArg);
+		if (tag != null) {
+			page.maskAndAddString(TAG, tag);
+		}
+
+		// one more photo than shown tells whether there is a next page
+		int offset = pageNo * PHOTOS_PER_PAGE;
+		List<Photo> photos = PhotoLeaderboard.getInstance().getTopPhotos(tag, offset, PHOTOS_PER_PAGE + 1);
+		boolean hasNextPage = photos.size() > PHOTOS_PER_PAGE;
+		if (hasNextPage) {
+			photos = photos.subList(0, PHOTOS_PER_PAGE);
+		}
+
+		if (photos.isEmpty()) {
+			page.addString("leaderboard", HtmlUtil.asP(config.getNoLeaderboardPhotos()));
+		} else {
+			StringBuilder rows = new StringBuilder("<table class=\"border\">");
+			int rank = offset;
+			for (Photo photo : photos) {
+				rows.append(makeLeaderboardRow(us, ++rank, photo));
+			}
+			rows.append("</table>");
+			page.addString("leaderboard", rows.toString());
+		}
+		page.addString("leaderboardPages", makePageLinks(us, tag, pageNo, hasNextPage));
+	}
+
+	/**
+	 *
+	 */
+	protected String makeLeaderboardRow(UserSession us, int rank, Photo photo) {
+		ModelConfig config = us.getClient().getLanguageConfiguration();
+		String link = getResourceAsRelativeHtmlPathString(photo.getId().asString());
+		return "<tr><td>" + rank + ".</td><td class=\"thumb\">" + HtmlUtil.asHref(link, getPhotoThumb(us, photo)) +
+				"</td><td><b>" + photo.getPraiseAsString(config) + "</b> (" + photo.getNoVotes() + ")</td></tr>";
+	}
+
+	/**
+	 *
+	 */
+	protected String makePageLinks(UserSession us, String tag, int pageNo, boolean hasNextPage) {
+		ModelConfig config = us.getClient().getLanguageConfiguration();
+		String link = getResourceAsRelativeHtmlPathString(PartUtil.SHOW_LEADERBOARD_PAGE_NAME) + "?";
+		if (tag != null) {
+			link += TAG + "=" + HtmlUtil.maskForWeb(asUrlParameter(tag)) + "&amp;";
+		}
+		link += PAGE + "=";
+
+		String result = "";
+		if (pageNo > 0) {
+			result += HtmlUtil.asHref(link + (pageNo - 1), config.getPreviousPhotosPage());
+		}
+		if (hasNextPage) {
+			result += (result.isEmpty() ? "" : "&nbsp;&#8213;&nbsp;");
+			result += HtmlUtil.asHref(link + (pageNo + 1), config.getNextPhotosPage());
+		}
+		return result.isEmpty() ? result : HtmlUtil.asP(result);
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asUrlParameter(String value) {
+		try {
+			return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+		} catch (UnsupportedEncodingException ex) {
+			// every JVM supports UTF-8
+			throw new IllegalStateException(ex);
+		}
+	}
+
+}
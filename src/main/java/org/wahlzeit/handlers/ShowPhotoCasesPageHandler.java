@@ -29,6 +29,7 @@ import org.wahlzeit.webparts.WebPart;
 import org.wahlzeit.webparts.Writable;
 import org.wahlzeit.webparts.WritableList;
 
+import java.util.List;
 import java.util.Map;
 
 
@@ -37,6 +38,11 @@ import java.util.Map;
  */
 public class ShowPhotoCasesPageHandler extends AbstractWebPageHandler {
 
+	/**
+	 *
+	 */
+	public static final String CURSOR = "cursor";
+
 	/**
 	 *
 	 */
@@ -47,18 +53,44 @@ public class ShowPhotoCasesPageHandler extends AbstractWebPageHandler {
 	/**
 	 *
 	 */
+	@Override
+	protected boolean isWellFormedGet(UserSession us, String link, Map args) {
+		return PhotoCaseManager.isValidCursor(us.getAsString(args, CURSOR));
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	protected String doHandleGet(UserSession us, String link, Map args) {
+		us.getAndSaveAsString(args, CURSOR);
+		return link;
+	}
+
+	/**
+	 * Renders one bounded window of the moderation queue, starting after the saved cursor.
+	 */
 	protected void makeWebPageBody(UserSession us, WebPart page) {
 		Map args = us.getSavedArgs();
 		page.addStringFromArgs(args, UserSession.MESSAGE);
 
 		PhotoCaseManager pcm = PhotoCaseManager.getInstance();
-		PhotoCase[] flaggedCases = pcm.getOpenPhotoCasesByAscendingAge();
-		if (flaggedCases.length != 0) {
+		String cursor = us.getAsString(args, CURSOR);
+		List<PhotoCase> flaggedCases = pcm.getOpenPhotoCasesByAscendingAge(cursor, PhotoCaseManager.DEFAULT_PAGE_SIZE);
+		if (!flaggedCases.isEmpty()) {
 			WritableList openCases = new WritableList();
-			for (int i = 0; i < flaggedCases.length; i++) {
-				openCases.append(makePhotoCaseForm(us, flaggedCases[i]));
+			for (PhotoCase flaggedCase : flaggedCases) {
+				openCases.append(makePhotoCaseForm(us, flaggedCase));
 			}
 			page.addWritable("openCases", openCases);
+
+			String nextCursor = PhotoCaseManager.getCursor(flaggedCases.get(flaggedCases.size() - 1));
+			if (pcm.hasOpenPhotoCasesAfter(nextCursor)) {
+				String link = getResourceAsRelativeHtmlPathString(PartUtil.SHOW_PHOTO_CASES_PAGE_NAME);
+				link += "?" + CURSOR + "=" + nextCursor;
+				String more = us.getClient().getLanguageConfiguration().getMorePhotoCases();
+				page.addString("moreCases", HtmlUtil.asP(HtmlUtil.asHref(link, more)));
+			}
 		} else {
 			page.addString("openCases",
 					HtmlUtil.asP(us.getClient().getLanguageConfiguration().getNoFlaggedPhotoCases()));
@@ -21,20 +21,54 @@
 package org.wahlzeit.handlers;
 
 import org.wahlzeit.model.AccessRights;
+import org.wahlzeit.model.ModelConfig;
 import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoId;
 import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserSession;
+import org.wahlzeit.services.Language;
 import org.wahlzeit.utils.HtmlUtil;
+import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 import org.wahlzeit.webparts.Writable;
 import org.wahlzeit.webparts.WritableList;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * A handler class for a specific web page.
  */
 public class ShowUserHomePageHandler extends AbstractWebPageHandler {
 
+	/**
+	 *
+	 */
+	public static final String PAGE = "page";
+	public static final int PHOTOS_PER_PAGE = 20;
+
+	/**
+	 * Upper bound of the number of rendered photo forms kept for reuse
+	 */
+	public static final int MAX_RENDERED_ROWS = 10000;
+
+	/**
+	 * Rendered photo forms by photo; a form is reused as long as neither the photo nor the language changed
+	 */
+	protected final Map<PhotoId, RenderedRow> renderedRows = Collections.synchronizedMap(
+			new LinkedHashMap<PhotoId, RenderedRow>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<PhotoId, RenderedRow> eldest) {
+					return size() > MAX_RENDERED_ROWS;
+				}
+			});
+
 	/**
 	 *
 	 */
@@ -45,30 +79,98 @@ public class ShowUserHomePageHandler extends AbstractWebPageHandler {
 	/**
 	 *
 	 */
+	@Override
+	protected boolean isWellFormedGet(UserSession us, String link, Map args) {
+		String pageNo = us.getAsString(args, PAGE);
+		return StringUtil.isNullOrEmptyString(pageNo) || pageNo.matches("\\d{1,6}");
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	protected String doHandleGet(UserSession us, String link, Map args) {
+		us.getAndSaveAsString(args, PAGE);
+		return link;
+	}
+
+	/**
+	 * Renders one page of the user's photos from the owner's praise ranking.
+	 */
 	protected void makeWebPageBody(UserSession us, WebPart page) {
 		Writable part = makeUserProfileForm(us);
 		page.addWritable("profile", part);
 
 		User user = (User) us.getClient();
-		Photo[] photos = user.getPhotos();
-		boolean wasEmpty = true;
-		if (photos.length != 0) {
+		String pageArg = us.getAsString(us.getSavedArgs(), PAGE);
+		int pageNo = StringUtil.isNullOrEmptyString(pageArg) ? 0 : Integer.parseInt(pageArg);
+
+		// the user's photos may have been uploaded on another instance
+		PhotoManager photoManager = PhotoManager.getInstance();
+		photoManager.completeOwnerIndex(user.getId(), user.getPhotoIds());
+
+		// one more photo than shown tells whether there is a next page
+		List<Photo> photos = photoManager.getPhotosByPraise(user.getId(), pageNo, PHOTOS_PER_PAGE + 1);
+		boolean hasNextPage = photos.size() > PHOTOS_PER_PAGE;
+		if (hasNextPage) {
+			photos = photos.subList(0, PHOTOS_PER_PAGE);
+		}
+
+		if (!photos.isEmpty()) {
 			WritableList list = new WritableList();
 			for (Photo photo : photos) {
-				// load it from the PhotoManager to make sure the same copy is used
-				photo = PhotoManager.getInstance().getPhotoFromId(photo.getId());
-				if (photo != null && !photo.getStatus().isDeleted()) {
-					part = makeUserPhotoForm(us, photo);
-					list.append(part);
-					wasEmpty = false;
-				}
+				list.append(getUserPhotoForm(us, photo));
 			}
 			page.addWritable("photos", list);
+			page.addString("photoPages", makePageLinks(us, pageNo, hasNextPage));
+		} else if (pageNo > 0) {
+			page.addString("photoPages", makePageLinks(us, pageNo, false));
+		} else {
+			page.addString("photos", HtmlUtil.asP(us.getClient().getLanguageConfiguration().getNoPhotoUploaded()));
 		}
+	}
 
-		if (wasEmpty) {
-			page.addString("photos", HtmlUtil.asP(us.getClient().getLanguageConfiguration().getNoPhotoUploaded()));
+	/**
+	 *
+	 */
+	protected String makePageLinks(UserSession us, int pageNo, boolean hasNextPage) {
+		ModelConfig config = us.getClient().getLanguageConfiguration();
+		String link = getResourceAsRelativeHtmlPathString(PartUtil.SHOW_USER_HOME_PAGE_NAME) + "?" + PAGE + "=";
+
+		String result = "";
+		if (pageNo > 0) {
+			result += HtmlUtil.asHref(link + (pageNo - 1), config.getPreviousPhotosPage());
 		}
+		if (hasNextPage) {
+			result += (result.isEmpty() ? "" : "&nbsp;&#8213;&nbsp;");
+			result += HtmlUtil.asHref(link + (pageNo + 1), config.getNextPhotosPage());
+		}
+		return result.isEmpty() ? result : HtmlUtil.asP(result);
+	}
+
+	/**
+	 * Returns the rendered form of the photo, rendering it only if the photo, its votes or the language changed since.
+	 * Votes do not count as changes of the photo, as they are not saved with it.
+	 */
+	protected Writable getUserPhotoForm(UserSession us, Photo photo) {
+		Language language = us.getClient().getLanguage();
+		RenderedRow row = renderedRows.get(photo.getId());
+		if (row != null && row.changeCount == photo.getChangeCount() && row.noVotes == photo.getNoVotes() &&
+				row.language == language) {
+			return row;
+		}
+
+		StringWriter html = new StringWriter();
+		try {
+			makeUserPhotoForm(us, photo).writeOn(html);
+		} catch (IOException ex) {
+			// a StringWriter does not fail
+			throw new IllegalStateException(ex);
+		}
+
+		row = new RenderedRow(html.toString(), photo.getChangeCount(), photo.getNoVotes(), language);
+		renderedRows.put(photo.getId(), row);
+		return row;
 	}
 
 	/**
@@ -89,4 +191,35 @@ public class ShowUserHomePageHandler extends AbstractWebPageHandler {
 		return handler.makeWebPart(us);
 	}
 
+	/**
+	 * A photo form as rendered for a given state of the photo and language
+	 */
+	protected static class RenderedRow implements Writable {
+
+		/**
+		 *
+		 */
+		protected final String html;
+		protected final int changeCount;
+		protected final int noVotes;
+		protected final Language language;
+
+		/**
+		 *
+		 */
+		protected RenderedRow(String html, int changeCount, int noVotes, Language language) {
+			this.html = html;
+			this.changeCount = changeCount;
+			this.noVotes = noVotes;
+			this.language = language;
+		}
+
+		/**
+		 *
+		 */
+		public void writeOn(Writer writer) throws IOException {
+			writer.write(html);
+		}
+	}
+
 }
@@ -111,7 +111,7 @@ public class ShowUserPhotoFormHandler extends AbstractWebFormHandler {
 					addAction("Select user photo").
 					addParameter("Photo", id).toString());
 		} else if (us.isFormType(args, "delete")) {
-			photo.setStatus(photo.getStatus().asDeleted(true));
+			PhotoManager.getInstance().setPhotoStatus(photo, photo.getStatus().asDeleted(true));
 			PhotoManager.getInstance().savePhoto(photo);
 			if (user.getUserPhoto() == photo) {
 				user.setUserPhoto(null);
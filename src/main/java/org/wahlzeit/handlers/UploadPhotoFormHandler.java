@@ -21,6 +21,7 @@
 package org.wahlzeit.handlers;
 
 import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
 import org.wahlzeit.agents.AsyncTaskExecutor;
 import org.wahlzeit.model.AccessRights;
 import org.wahlzeit.model.ModelConfig;
@@ -30,6 +31,7 @@ import org.wahlzeit.model.Tags;
 import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SpooledUpload;
 import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
@@ -72,11 +74,15 @@ public class UploadPhotoFormHandler extends AbstractWebFormHandler {
 			return PartUtil.UPLOAD_PHOTO_PAGE_NAME;
 		}
 
+		User user = (User) us.getClient();
+		SpooledUpload uploadedFile = user.getUploadedFile();
 		try {
 			PhotoManager pm = PhotoManager.getInstance();
 			String fileName = us.getAsString(args, "fileName");
-			User user = (User) us.getClient();
-			Image uploadedImage = user.getUploadedImage();
+			if (uploadedFile == null) {
+				throw new IllegalArgumentException("no uploaded file");
+			}
+			Image uploadedImage = ImagesServiceFactory.makeImage(uploadedFile.getBytes());
 			Photo photo = pm.createPhoto(fileName, uploadedImage);
 
 			user.addPhoto(photo);
@@ -97,6 +103,9 @@ public class UploadPhotoFormHandler extends AbstractWebFormHandler {
 		} catch (Exception ex) {
 			log.warning(LogBuilder.createSystemMessage().addException("uploading photo failed", ex).toString());
 			us.setMessage(config.getPhotoUploadFailed());
+		} finally {
+			// the renditions are held by the photo now, the spooled file is not needed anymore
+			user.setUploadedFile(null);
 		}
 
 		return PartUtil.UPLOAD_PHOTO_PAGE_NAME;
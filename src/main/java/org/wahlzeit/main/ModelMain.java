@@ -23,17 +23,25 @@ package org.wahlzeit.main;
 import com.google.appengine.api.images.Image;
 import com.google.appengine.api.images.ImagesServiceFactory;
 import org.wahlzeit.model.GlobalsManager;
+import org.wahlzeit.model.ModelSnapshot;
 import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoCaseManager;
+import org.wahlzeit.model.PhotoLeaderboard;
 import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.PhotoUtil;
+import org.wahlzeit.model.PraiseCounter;
 import org.wahlzeit.model.SailboatManager;
 import org.wahlzeit.model.SailboatPhotoFactory;
 import org.wahlzeit.model.SailboatPhotoManager;
 import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserManager;
 import org.wahlzeit.model.persistence.DatastoreAdapter;
+import org.wahlzeit.model.persistence.FileSystemImageStorage;
 import org.wahlzeit.model.persistence.ImageStorage;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.StartupOrchestrator;
+import org.wahlzeit.services.StartupReport;
+import org.wahlzeit.services.WriteBehindQueue;
 
 import java.io.File;
 import java.io.FileFilter;
@@ -49,6 +57,28 @@ public abstract class ModelMain extends AbstractMain {
 
 	private static final Logger log = Logger.getLogger(ModelMain.class.getName());
 
+	/**
+	 * "datastore" (default) or "filesystem" to store images in the photos directory of the SysConfig
+	 */
+	public static final String IMAGE_STORAGE_PROPERTY = "wahlzeit.imageStorage";
+
+	/**
+	 * Names of the startup phases
+	 */
+	public static final String GLOBALS_PHASE = "globals";
+	public static final String SNAPSHOT_PHASE = "snapshot";
+	public static final String USERS_PHASE = "users";
+	public static final String SAILBOAT_PHOTO_FACTORY_PHASE = "sailboatPhotoFactory";
+	public static final String SAILBOATS_PHASE = "sailboats";
+	public static final String SAILBOAT_PHOTOS_PHASE = "sailboatPhotos";
+	public static final String PRAISE_PHASE = "praise";
+	public static final String LEADERBOARD_PHASE = "leaderboard";
+
+	/**
+	 * The snapshot the model is restored from, null if there is none
+	 */
+	protected volatile ModelSnapshot snapshot;
+
 	/**
 	 *
 	 */
@@ -58,30 +88,67 @@ public abstract class ModelMain extends AbstractMain {
 
 		log.config(LogBuilder.createSystemMessage().addAction("load image storage").toString());
 		//GcsAdapter.Builder gcsAdapterBuilder = new GcsAdapter.Builder();
-		ImageStorage.setInstance(new DatastoreAdapter());
+		if ("filesystem".equals(System.getProperty(IMAGE_STORAGE_PROPERTY))) {
+			ImageStorage.setInstance(new FileSystemImageStorage());
+		} else {
+			ImageStorage.setInstance(new DatastoreAdapter());
+		}
 
-		log.config(LogBuilder.createSystemMessage().addAction("load globals").toString());
-		GlobalsManager.getInstance().loadGlobals();
+		log.config(LogBuilder.createSystemMessage().addAction("init write-behind queue").toString());
+		WriteBehindQueue.getInstance();
+		if (WriteBehindQueue.getInstance().isWriteBehind()) {
+			PraiseCounter.getInstance().start();
+		}
 
-		log.config(LogBuilder.createSystemMessage().addAction("load user").toString());
-		UserManager.getInstance().init();
+		StartupOrchestrator orchestrator = new StartupOrchestrator();
+		addStartupPhases(orchestrator);
+		orchestrator.run();
 
-		log.config(LogBuilder.createSystemMessage().addAction("init SailboatPhotoFactory").toString());
-		SailboatPhotoFactory.initialize();
+		log.info(StartupReport.getInstance().asString());
+	}
 
-		log.config(LogBuilder.createSystemMessage().addAction("load SailboatTypes and Sailboats").toString());
-		SailboatManager.getInstance().init();
 
-		log.config(LogBuilder.createSystemMessage().addAction("load SailboatPhotos").toString());
-		SailboatPhotoManager.getInstance().init();
+	/**
+	 * Declares the phases that load the model and what they depend on. Override to add more phases.
+	 */
+	protected void addStartupPhases(StartupOrchestrator orchestrator) {
+		orchestrator.addPhase(GLOBALS_PHASE, () -> GlobalsManager.getInstance().loadGlobals());
+		orchestrator.addPhase(SNAPSHOT_PHASE, () -> snapshot = ModelSnapshot.readConfigured());
+		orchestrator.addPhase(USERS_PHASE, () -> {
+			if (snapshot != null) {
+				snapshot.restoreUsers();
+			} else {
+				UserManager.getInstance().init();
+			}
+		}, GLOBALS_PHASE, SNAPSHOT_PHASE);
+		orchestrator.addPhase(SAILBOAT_PHOTO_FACTORY_PHASE, () -> SailboatPhotoFactory.initialize());
+		orchestrator.addPhase(SAILBOATS_PHASE, () -> {
+			if (snapshot != null) {
+				snapshot.restoreSailboats();
+			} else {
+				SailboatManager.getInstance().init();
+			}
+		}, SNAPSHOT_PHASE);
+		orchestrator.addPhase(SAILBOAT_PHOTOS_PHASE, () -> {
+			if (snapshot != null) {
+				snapshot.restorePhotos();
+			} else {
+				SailboatPhotoManager.getInstance().init();
+			}
+		}, GLOBALS_PHASE, SAILBOAT_PHOTO_FACTORY_PHASE, SAILBOATS_PHASE, SNAPSHOT_PHASE);
+		orchestrator.addPhase(PRAISE_PHASE, () -> PraiseCounter.getInstance().refreshAll(), SAILBOAT_PHOTOS_PHASE);
+		orchestrator.addPhase(LEADERBOARD_PHASE, () -> PhotoLeaderboard.getInstance().rebuild(), PRAISE_PHASE);
 	}
 
-
 	/**
 	 *
 	 */
 	protected void shutDown() throws Exception {
+		PraiseCounter.getInstance().shutDown();
 		saveAll();
+		WriteBehindQueue.getInstance().shutDown();
+		PhotoUtil.shutDown();
+		ModelSnapshot.writeConfigured();
 
 		super.shutDown();
 	}
@@ -91,6 +158,7 @@ public abstract class ModelMain extends AbstractMain {
 	 */
 	public void saveAll() throws IOException {
 		SailboatManager.getInstance().saveAll();
+		PraiseCounter.getInstance().flush();
 		PhotoCaseManager.getInstance().savePhotoCases();
 		PhotoManager.getInstance().savePhotos();
 		UserManager.getInstance().saveClients();
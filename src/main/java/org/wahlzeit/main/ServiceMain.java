@@ -30,7 +30,9 @@ import org.wahlzeit.model.LanguageConfigs;
 import org.wahlzeit.services.ConfigDir;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.StartupOrchestrator;
 import org.wahlzeit.services.SysConfig;
+import org.wahlzeit.services.UploadSpool;
 import org.wahlzeit.webparts.WebPartTemplateService;
 
 import java.io.File;
@@ -46,6 +48,15 @@ public class ServiceMain extends ModelMain {
 
 	private static final String PICTURES_PATH = "pictures";
 
+	/**
+	 * Names of the startup phases
+	 */
+	public static final String TEMPLATES_PHASE = "templates";
+	public static final String HANDLERS_PHASE = "handlers";
+	public static final String LANGUAGES_PHASE = "languages";
+	public static final String DEFAULT_USER_PHASE = "defaultUser";
+	public static final String UPLOAD_SPOOL_PHASE = "uploadSpool";
+
 	/**
 	 *
 	 */
@@ -100,21 +111,25 @@ public class ServiceMain extends ModelMain {
 		log.config(LogBuilder.createSystemMessage().addAction("Start up ModelMain").toString());
 		super.startUp(rootDir);
 
-		log.config(LogBuilder.createSystemMessage().addAction("Configure WebPartTemplateService").toString());
-		configureWebPartTemplateService();
-
-		log.config(LogBuilder.createSystemMessage().addAction("Configure WebPartHandler").toString());
-		configureWebPartHandlers();
-
-		log.config(LogBuilder.createSystemMessage().addAction("Configure LanguageModels").toString());
-		configureLanguageModels();
-
-		log.config(LogBuilder.createSystemMessage().addAction("Add default user with pictures").toString());
-		addDefaultUserWithPictures();
-
 		log.config(LogBuilder.createSystemMessage().addMessage("StartUp complete.").toString());
 	}
 
+	/**
+	 * Configures the web parts while the model is loaded; the default user is added once its photos can be created.
+	 */
+	@Override
+	protected void addStartupPhases(StartupOrchestrator orchestrator) {
+		super.addStartupPhases(orchestrator);
+
+		orchestrator.addPhase(TEMPLATES_PHASE, () -> configureWebPartTemplateService());
+		orchestrator.addPhase(HANDLERS_PHASE, () -> configureWebPartHandlers(), TEMPLATES_PHASE);
+		orchestrator.addPhase(LANGUAGES_PHASE, () -> configureLanguageModels());
+		orchestrator.addPhase(DEFAULT_USER_PHASE, () -> addDefaultUserWithPictures(),
+				USERS_PHASE, SAILBOAT_PHOTOS_PHASE, LANGUAGES_PHASE);
+		// deletes uploads abandoned before the restart
+		orchestrator.addPhase(UPLOAD_SPOOL_PHASE, () -> UploadSpool.getInstance().cleanUp());
+	}
+
 	/**
 	 *
 	 */
@@ -146,6 +161,8 @@ public class ServiceMain extends ModelMain {
 
 		manager.addWebPartHandler(PartUtil.FILTER_PHOTOS_PAGE_NAME, new FilterPhotosPageHandler());
 
+		manager.addWebPartHandler(PartUtil.SHOW_LEADERBOARD_PAGE_NAME, new ShowLeaderboardPageHandler());
+
 		manager.addWebPartHandler(PartUtil.RESET_SESSION_PAGE_NAME, new ResetSessionPageHandler());
 
 		// About and Terms pages
@@ -525,6 +525,27 @@ public abstract class AbstractModelConfig extends AbstractConfig implements Mode
 		return doGetValue("NoPhotoUploaded");
 	}
 
+	/**
+	 *
+	 */
+	public String getNextPhotosPage() {
+		return doGetValue("NextPhotosPage");
+	}
+
+	/**
+	 *
+	 */
+	public String getPreviousPhotosPage() {
+		return doGetValue("PreviousPhotosPage");
+	}
+
+	/**
+	 *
+	 */
+	public String getNoLeaderboardPhotos() {
+		return doGetValue("NoLeaderboardPhotos");
+	}
+
 	/**
 	 *
 	 */
@@ -595,6 +616,27 @@ public abstract class AbstractModelConfig extends AbstractConfig implements Mode
 		return doGetValue("NoFlaggedPhotoCases");
 	}
 
+	/**
+	 *
+	 */
+	public String getMorePhotoCases() {
+		return doGetValue("MorePhotoCases");
+	}
+
+	/**
+	 *
+	 */
+	public String getPhotoCaseIsDecided() {
+		return doGetValue("PhotoCaseIsDecided");
+	}
+
+	/**
+	 *
+	 */
+	public String getContinueWithShowPhotoCases() {
+		return doGetValue("ContinueWithShowPhotoCases");
+	}
+
 	/**
 	 *
 	 */
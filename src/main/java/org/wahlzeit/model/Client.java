@@ -24,6 +24,8 @@ import com.google.appengine.api.datastore.Key;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.OnSave;
 import com.googlecode.objectify.annotation.Parent;
 import org.wahlzeit.services.EmailAddress;
 import org.wahlzeit.services.Language;
@@ -66,6 +68,12 @@ public abstract class Client implements Serializable, Persistent {
 	@Ignore
 	protected int writeCount = 0;
 
+	/**
+	 * Time of the last save, see {@link org.wahlzeit.services.DataObject#LAST_MODIFIED}
+	 */
+	@Index
+	protected long lastModified = 0;
+
 	private String httpSessionId;
 
 	protected Language language = Language.ENGLISH;
@@ -139,7 +147,7 @@ public abstract class Client implements Serializable, Persistent {
 	 * @methodtype set
 	 */
 	public void setNickName(String nickName) throws IllegalArgumentException {
-		UserManager.getInstance().changeNickname(this.nickName, nickName);
+		UserManager.getInstance().changeNickname(this, nickName);
 		this.nickName = nickName;
 		incWriteCount();
 	}
@@ -196,17 +204,46 @@ public abstract class Client implements Serializable, Persistent {
 	/**
 	 *
 	 */
-	public void incWriteCount() {
+	public synchronized void incWriteCount() {
 		writeCount++;
 	}
 
 	/**
 	 *
 	 */
-	public void resetWriteCount() {
+	public synchronized void resetWriteCount() {
 		writeCount = 0;
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getWriteCount() {
+		return writeCount;
+	}
+
+	/**
+	 *
+	 */
+	public synchronized void resetWriteCount(int noSavedWrites) {
+		writeCount = Math.max(0, writeCount - noSavedWrites);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Called by Objectify before the client is saved
+	 */
+	@OnSave
+	protected void updateLastModified() {
+		lastModified = System.currentTimeMillis();
+	}
+
 	/**
 	 *
 	 */
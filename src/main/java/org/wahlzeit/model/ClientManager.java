@@ -1,12 +1,12 @@
 package org.wahlzeit.model;
 
+import org.wahlzeit.services.EmailAddress;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.ObjectManager;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 /**
@@ -19,18 +19,29 @@ public abstract class ClientManager extends ObjectManager {
 	private static final Logger log = Logger.getLogger(ClientManager.class.getName());
 
 	/**
-	 *
+	 * Hands out the client ids, in blocks leased from the globals once they are loaded
 	 */
-	protected static Long lastClientId = 0L;
+	protected static final IdAllocator clientIdAllocator = new IdAllocator();
 
 	/**
 	 * Maps IDs to user
 	 */
-	protected Map<String, Client> idClientMap = new HashMap<String, Client>();
+	protected Map<String, Client> idClientMap = new ConcurrentHashMap<String, Client>();
 
-	protected HashMap<String, Client> httpSessionIdToClientMap = new HashMap<String, Client>();
+	/**
+	 * Maps the ids of live http sessions to their clients; mappings are removed when the session expires
+	 */
+	protected Map<String, Client> httpSessionIdToClientMap = new ConcurrentHashMap<String, Client>();
+
+	/**
+	 * Maps case-folded nicknames to the id of the client that uses them
+	 */
+	protected Map<String, String> nicknameIndex = new ConcurrentHashMap<String, String>();
 
-	protected List<String> listOfUsedNicknames = new ArrayList<String>();
+	/**
+	 * Maps email addresses to the id of the client that registered with them
+	 */
+	protected Map<String, String> emailAddressIndex = new ConcurrentHashMap<String, String>();
 
 
 	// add methods -----------------------------------------------------------------------------------------------------
@@ -41,10 +52,21 @@ public abstract class ClientManager extends ObjectManager {
 	 */
 	public void addClient(Client client) throws IllegalArgumentException {
 		assertIsNonNullArgument(client);
-		assertIsUnknownClientAsIllegalArgument(client);
-		assertNicknameIsNotUsed(client.getNickName());
 
-		doAddClient(client);
+		// the id and then the nickname are reserved atomically, so concurrent sign-ups can't both succeed
+		if (idClientMap.putIfAbsent(client.getId(), client) != null) {
+			throw new IllegalArgumentException(client.getId() + "is already known");
+		}
+		try {
+			reserveNickname(client.getNickName(), client.getId());
+		} catch (IllegalArgumentException e) {
+			idClientMap.remove(client.getId(), client);
+			throw e;
+		}
+		indexEmailAddress(client);
+
+		writeObject(client);
+		log.config(LogBuilder.createSystemMessage().addParameter("Added new user", client.getId()).toString());
 	}
 
 	/**
@@ -60,22 +82,98 @@ public abstract class ClientManager extends ObjectManager {
 	 * @methodtype assertion
 	 */
 	protected void assertNicknameIsNotUsed(String nickName) {
-		if (listOfUsedNicknames.contains(nickName)) {
+		if (isNicknameUsed(nickName)) {
 			throw new IllegalArgumentException("Nickname " + nickName + " is already used.");
 		}
 	}
 
+	/**
+	 * @methodtype boolean query
+	 */
+	public boolean isNicknameUsed(String nickName) {
+		return nickName != null && nicknameIndex.containsKey(asNicknameKey(nickName));
+	}
+
+	/**
+	 * Reserves the nickname for the client with the given id; a client may reserve its own nickname again.
+	 *
+	 * @methodtype command
+	 */
+	protected void reserveNickname(String nickName, String clientId) throws IllegalArgumentException {
+		if (nickName == null) {
+			return;
+		}
+
+		String owner = nicknameIndex.putIfAbsent(asNicknameKey(nickName), clientId);
+		if (owner != null && !owner.equals(clientId)) {
+			throw new IllegalArgumentException("Nickname " + nickName + " is already used.");
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void releaseNickname(String nickName, String clientId) {
+		if (nickName != null) {
+			nicknameIndex.remove(asNicknameKey(nickName), clientId);
+		}
+	}
+
+	/**
+	 * Nicknames that only differ in case are the same nickname
+	 *
+	 * @methodtype conversion
+	 */
+	protected String asNicknameKey(String nickName) {
+		return nickName.toLowerCase(Locale.ROOT);
+	}
+
 	/**
 	 * @methodtype set
 	 * @methodproperty primitive
 	 */
 	protected void doAddClient(Client client) {
-		idClientMap.put(client.getId(), client);
+		doPutClient(client);
 		writeObject(client);
-		listOfUsedNicknames.add(client.getNickName());
 		log.config(LogBuilder.createSystemMessage().addParameter("Added new user", client.getId()).toString());
 	}
 
+	/**
+	 * Registers an already persisted client, e.g. when loading it. Nicknames of clients that were stored before
+	 * nicknames were case-folded may clash; the client registered first keeps the nickname then.
+	 *
+	 * @methodtype set
+	 * @methodproperty primitive
+	 */
+	protected void doPutClient(Client client) {
+		idClientMap.put(client.getId(), client);
+		if (client.getNickName() != null) {
+			nicknameIndex.putIfAbsent(asNicknameKey(client.getNickName()), client.getId());
+		}
+		indexEmailAddress(client);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void indexEmailAddress(Client client) {
+		EmailAddress emailAddress = client.getEmailAddress();
+		if (emailAddress != null && !emailAddress.isEmpty()) {
+			emailAddressIndex.putIfAbsent(emailAddress.asString(), client.getId());
+		}
+	}
+
+	/**
+	 * @return the id of the client with the email address, or null if no loaded client has it
+	 * @methodtype get
+	 */
+	public String getClientIdByEmailAddress(EmailAddress emailAddress) {
+		if (emailAddress == null || emailAddress.isEmpty()) {
+			return null;
+		}
+		return emailAddressIndex.get(emailAddress.asString());
+	}
+
 	/**
 	 * @methodtype boolean query
 	 */
@@ -113,7 +211,6 @@ public abstract class ClientManager extends ObjectManager {
 	public void addHttpSessionIdToClientMapping(String httpSessionId, Client client) {
 		assertIsNonNullArgument(httpSessionId);
 		assertIsNonNullArgument(client);
-		assert !httpSessionIdToClientMap.containsKey(httpSessionId);
 
 		doAddHttpSessionIdToClientMapping(httpSessionId, client);
 
@@ -124,7 +221,11 @@ public abstract class ClientManager extends ObjectManager {
 	 * @methodtype set
 	 */
 	public void doAddHttpSessionIdToClientMapping(String httpSessionId, Client client) {
-		httpSessionIdToClientMap.put(httpSessionId, client);
+		Client previousClient = httpSessionIdToClientMap.put(httpSessionId, client);
+		if (previousClient != null && previousClient != client &&
+				httpSessionId.equals(previousClient.getHttpSessionId())) {
+			previousClient.removeHttpSessionId();
+		}
 		client.setHttpSessionId(httpSessionId);
 		log.config(LogBuilder.createSystemMessage().
 				addParameter("client name", client.getNickName()).
@@ -167,21 +268,28 @@ public abstract class ClientManager extends ObjectManager {
 	 * @methodtype get
 	 */
 	public Long getLastClientId() {
-		return lastClientId;
+		return clientIdAllocator.getLastId();
 	}
 
 	/**
 	 * @methodtype set
 	 */
-	public synchronized void setLastClientId(Long newId) {
-		lastClientId = newId;
+	public void setLastClientId(Long newId) {
+		clientIdAllocator.setLastId(newId);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public IdAllocator getClientIdAllocator() {
+		return clientIdAllocator;
 	}
 
 	/**
 	 * @methodtype get
 	 */
-	public synchronized Long getNextClientId() {
-		return ++lastClientId;
+	public Long getNextClientId() {
+		return clientIdAllocator.getNextId();
 	}
 
 
@@ -210,13 +318,19 @@ public abstract class ClientManager extends ObjectManager {
 	}
 
 	/**
+	 * Removes the mapping of an http session that ended or expired, if there is one.
+	 *
 	 * @methodtype set
 	 */
-	private void removeHttpSessionIdToClientMapping(String httpSessionId) {
-		Client client = httpSessionIdToClientMap.get(httpSessionId);
-		client.removeHttpSessionId();
+	public void removeHttpSessionIdToClientMapping(String httpSessionId) {
+		if (httpSessionId == null) {
+			return;
+		}
 
-		httpSessionIdToClientMap.remove(httpSessionId);
+		Client client = httpSessionIdToClientMap.remove(httpSessionId);
+		if (client != null && httpSessionId.equals(client.getHttpSessionId())) {
+			client.removeHttpSessionId();
+		}
 	}
 
 	/**
@@ -225,6 +339,10 @@ public abstract class ClientManager extends ObjectManager {
 	 */
 	protected void doDeleteClient(Client client) {
 		idClientMap.remove(client.getId());
+		releaseNickname(client.getNickName(), client.getId());
+		if (client.getEmailAddress() != null) {
+			emailAddressIndex.remove(client.getEmailAddress().asString(), client.getId());
+		}
 		deleteObject(client);
 	}
 
@@ -242,10 +360,14 @@ public abstract class ClientManager extends ObjectManager {
 	/**
 	 * @methodtype set
 	 */
-	public void changeNickname(String oldNickName, String newNickName) throws IllegalArgumentException {
-		assertNicknameIsNotUsed(newNickName);
+	public void changeNickname(Client client, String newNickName) throws IllegalArgumentException {
+		assertIsNonNullArgument(client);
 
-		listOfUsedNicknames.remove(oldNickName);
-		listOfUsedNicknames.add(newNickName);
+		String oldNickName = client.getNickName();
+		reserveNickname(newNickName, client.getId());
+		if (oldNickName != null && newNickName != null &&
+				!asNicknameKey(oldNickName).equals(asNicknameKey(newNickName))) {
+			releaseNickname(oldNickName, client.getId());
+		}
 	}
 }
@@ -2,9 +2,11 @@ package org.wahlzeit.model;
 
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Work;
+import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.ObjectManager;
 import org.wahlzeit.servlets.AbstractServlet;
 
+import java.util.function.ToLongFunction;
 import java.util.logging.Logger;
 
 import static org.wahlzeit.services.OfyService.ofy;
@@ -42,6 +44,49 @@ public class GlobalsManager extends ObjectManager {
 		PhotoId.setCurrentIdFromInt(globals.getLastPhotoId());
 		Case.setLastCaseId(new CaseId(globals.getLastCaseId()));
 		AbstractServlet.setLastSessionId(globals.getLastSessionId());
+
+		// from now on ids are handed out from blocks that are leased from the globals
+		UserManager.getInstance().getClientIdAllocator().setLessor(blockSize -> leaseIds(stored -> {
+			long last = stored.getLastUserId();
+			stored.setLastUserId(last + blockSize);
+			return last;
+		}));
+		PhotoId.getAllocator().setLessor(blockSize -> leaseIds(stored -> {
+			int last = stored.getLastPhotoId();
+			stored.setLastPhotoId(last + blockSize);
+			return last;
+		}));
+		Case.getCaseIdAllocator().setLessor(blockSize -> leaseIds(stored -> {
+			int last = stored.getLastCaseId();
+			stored.setLastCaseId(last + blockSize);
+			return last;
+		}));
+	}
+
+	/**
+	 * Reserves a block of ids in a transaction on the stored globals, so concurrently running instances never
+	 * lease the same ids. The given function advances a counter of the globals and returns its previous value.
+	 *
+	 * @methodtype command
+	 */
+	protected long leaseIds(final ToLongFunction<Globals> lease) {
+		long result = ObjectifyService.run(new Work<Long>() {
+			@Override
+			public Long run() {
+				return ofy().transact(new Work<Long>() {
+					@Override
+					public Long run() {
+						Globals globals = ofy().load().type(Globals.class).id(Globals.DEAULT_ID).now();
+						long lastId = lease.applyAsLong(globals);
+						ofy().save().entity(globals).now();
+						return lastId;
+					}
+				});
+			}
+		});
+
+		log.config(LogBuilder.createSystemMessage().addParameter("leased ids after", result).toString());
+		return result;
 	}
 
 	/**
@@ -72,6 +117,14 @@ public class GlobalsManager extends ObjectManager {
 		return instance;
 	}
 
+	/**
+	 * The globals are written in transactions that bypass the entity cache.
+	 */
+	@Override
+	protected boolean isCached(Class<?> type) {
+		return false;
+	}
+
 	/**
 	 * @methodtype command
 	 */
@@ -91,22 +144,36 @@ public class GlobalsManager extends ObjectManager {
 	}
 
 	/**
-	 * @methodtype command Saves all global variables.
+	 * @methodtype command Saves all global variables. Id counters are only ever raised, as other instances may
+	 * have leased ids beyond the ones handed out here.
 	 */
-	public synchronized void saveGlobals() {
-		final Globals globals = new Globals();
-		globals.setLastUserId(UserManager.getInstance().getLastClientId());
-		globals.setLastPhotoId(PhotoId.getCurrentIdAsInt());
-		globals.setLastCaseId(Case.getLastCaseId().asInt());
-		globals.setLastSessionId(AbstractServlet.getLastSessionId());
-		log.info(globals.asString());
+	public void saveGlobals() {
+		final long lastClientId = UserManager.getInstance().getLastClientId();
+		final int lastPhotoId = PhotoId.getCurrentIdAsInt();
+		final int lastCaseId = Case.getLastCaseId().asInt();
+		final int lastSessionId = AbstractServlet.getLastSessionId();
 
-		ObjectifyService.run(new Work<Void>() {
+		Globals globals = ObjectifyService.run(new Work<Globals>() {
 			@Override
-			public Void run() {
-				writeObject(globals);
-				return null;
+			public Globals run() {
+				return ofy().transact(new Work<Globals>() {
+					@Override
+					public Globals run() {
+						Globals result = ofy().load().type(Globals.class).id(Globals.DEAULT_ID).now();
+						if (result == null) {
+							result = new Globals();
+							result.setLastUserId(Globals.DEAULT_ID);
+						}
+						result.setLastUserId(Math.max(result.getLastUserId(), lastClientId));
+						result.setLastPhotoId(Math.max(result.getLastPhotoId(), lastPhotoId));
+						result.setLastCaseId(Math.max(result.getLastCaseId(), lastCaseId));
+						result.setLastSessionId(lastSessionId);
+						ofy().save().entity(result).now();
+						return result;
+					}
+				});
 			}
 		});
+		log.info(globals.asString());
 	}
 }
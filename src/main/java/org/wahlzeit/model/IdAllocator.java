@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out consecutive ids without locking. Once a lessor is set, ids come from blocks that are leased from the
+ * lessor, so several instances never hand out the same id; only taking the next block is synchronized. Without a
+ * lessor, e.g. in tests that never load the globals, ids are simply counted up from the last id.
+ */
+public class IdAllocator {
+
+	/**
+	 * Leases blocks of ids, usually transactionally from the {@link Globals}
+	 */
+	public interface Lessor {
+		/**
+		 * Reserves the ids (result, result + blockSize] and returns the last id before them
+		 */
+		long leaseBlock(int blockSize);
+	}
+
+	/**
+	 * System property with the number of ids leased at once
+	 */
+	public static final String BLOCK_SIZE_PROPERTY = "wahlzeit.idBlockSize";
+	public static final int DEFAULT_BLOCK_SIZE = 1000;
+
+	/**
+	 * A range of ids, of which next is handed out next
+	 */
+	protected static class Block {
+		protected final AtomicLong next;
+		protected final long last;
+
+		protected Block(long first, long last) {
+			this.next = new AtomicLong(first);
+			this.last = last;
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected final int blockSize;
+
+	/**
+	 *
+	 */
+	protected volatile Lessor lessor;
+
+	/**
+	 *
+	 */
+	protected volatile Block block = new Block(1, Long.MAX_VALUE);
+
+	/**
+	 *
+	 */
+	public IdAllocator() {
+		this(Integer.getInteger(BLOCK_SIZE_PROPERTY, DEFAULT_BLOCK_SIZE));
+	}
+
+	/**
+	 *
+	 */
+	public IdAllocator(int blockSize) {
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("block size must be positive: " + blockSize);
+		}
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Ids are counted up locally from the given id until a lessor is set.
+	 *
+	 * @methodtype set
+	 */
+	public synchronized void setLastId(long lastId) {
+		lessor = null;
+		block = new Block(lastId + 1, Long.MAX_VALUE);
+	}
+
+	/**
+	 * The next id is taken from a new block of the lessor, so ids handed out before can't be handed out again.
+	 *
+	 * @methodtype set
+	 */
+	public synchronized void setLessor(Lessor lessor) {
+		if (lessor == null) {
+			throw new IllegalArgumentException("lessor must not be null");
+		}
+		this.lessor = lessor;
+		block = new Block(1, 0);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNextId() {
+		while (true) {
+			Block current = block;
+			long id = current.next.getAndIncrement();
+			if (id <= current.last) {
+				return id;
+			}
+			leaseBlock(current);
+		}
+	}
+
+	/**
+	 * Returns the highest id handed out from the current block, or the one before it if none was handed out yet.
+	 *
+	 * @methodtype get
+	 */
+	public long getLastId() {
+		Block current = block;
+		return Math.min(current.next.get() - 1, current.last);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected synchronized void leaseBlock(Block exhausted) {
+		if (block == exhausted) {
+			long lastLeasedId = lessor.leaseBlock(blockSize);
+			block = new Block(lastLeasedId + 1, lastLeasedId + blockSize);
+		}
+	}
+}
@@ -163,6 +163,13 @@ public interface ModelConfig extends Configuration, Serializable {
 	// SHOW_USER_PROFILE_FORM
 	String getNoPhotoUploaded();
 
+	String getNextPhotosPage();
+
+	String getPreviousPhotosPage();
+
+	// SHOW_LEADERBOARD_PAGE
+	String getNoLeaderboardPhotos();
+
 	// SHOW_USER_PHOTO_FORM
 	String getNoCharacterName();
 
@@ -190,6 +197,12 @@ public interface ModelConfig extends Configuration, Serializable {
 	// SHOW_PHOTO_CASE_FORM
 	String getNoFlaggedPhotoCases();
 
+	String getMorePhotoCases();
+
+	String getPhotoCaseIsDecided();
+
+	String getContinueWithShowPhotoCases();
+
 	// SHOW_ADMIN_MENU_FORM
 	String getPhotoIsUnknown();
 
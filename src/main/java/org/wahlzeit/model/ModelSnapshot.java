@@ -0,0 +1,437 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityTranslator;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
+import org.wahlzeit.services.DataObject;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.OfyService;
+import org.wahlzeit.services.StartupReport;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A snapshot of the in-memory model written to a local file at shutdown, so the next startup can restore the
+ * model from the file and only query the datastore for entities that were saved after the snapshot was taken.
+ * <p>
+ * File format: magic, version, timestamp and number of sections, then for each section its name, the number of
+ * entities, the length-prefixed protocol buffer encoded entities and a CRC32 of these entities. A file that is
+ * missing, has another version or does not match its checksums is ignored and the model is loaded as usual.
+ * <p>
+ * Globals are not part of the snapshot, they are always read from the datastore as they hand out ids.
+ */
+public class ModelSnapshot {
+
+	private static final Logger log = Logger.getLogger(ModelSnapshot.class.getName());
+
+	/**
+	 * System property with the path of the snapshot file; no snapshot is written or read if it is not set
+	 */
+	public static final String FILE_PROPERTY = "wahlzeit.snapshot.file";
+
+	/**
+	 * "WZSN"
+	 */
+	protected static final int MAGIC = 0x575A534E;
+	protected static final int VERSION = 1;
+
+	/**
+	 * Entities saved shortly before the snapshot by another instance are queried again, to tolerate clock skew
+	 */
+	protected static final long CLOCK_SKEW_MARGIN_MILLIS = 60 * 1000;
+
+	/**
+	 * Names of the sections
+	 */
+	public static final String PHOTOS = "photos";
+	public static final String USERS = "users";
+	public static final String SAILBOAT_TYPES = "sailboatTypes";
+	public static final String SAILBOATS = "sailboats";
+
+	/**
+	 *
+	 */
+	protected final long timestamp;
+
+	/**
+	 *
+	 */
+	protected final Map<String, List<Entity>> sections;
+
+	/**
+	 *
+	 */
+	protected ModelSnapshot(long timestamp, Map<String, List<Entity>> sections) {
+		this.timestamp = timestamp;
+		this.sections = sections;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public static File getConfiguredFile() {
+		String path = System.getProperty(FILE_PROPERTY);
+		return (path == null || path.isEmpty()) ? null : new File(path);
+	}
+
+	/**
+	 * Takes a snapshot of the current in-memory model. Must be called within an Objectify context.
+	 *
+	 * @methodtype factory
+	 */
+	public static ModelSnapshot create() {
+		long timestamp = System.currentTimeMillis();
+		Map<String, List<Entity>> sections = new LinkedHashMap<String, List<Entity>>();
+
+		sections.put(PHOTOS, toEntities(PhotoManager.getInstance().getPhotoCache().values()));
+
+		List<User> users = new ArrayList<User>();
+		for (Client client : UserManager.getInstance().idClientMap.values()) {
+			if (client instanceof User) {
+				users.add((User) client);
+			}
+		}
+		sections.put(USERS, toEntities(users));
+
+		SailboatManager sailboatManager = SailboatManager.getInstance();
+		sections.put(SAILBOAT_TYPES, toEntities(sailboatManager.getSailboatTypes()));
+		sections.put(SAILBOATS, toEntities(sailboatManager.getSailboats()));
+
+		return new ModelSnapshot(timestamp, sections);
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static List<Entity> toEntities(Collection<?> objects) {
+		List<Entity> result = new ArrayList<Entity>(objects.size());
+		for (Object object : objects) {
+			result.add(OfyService.ofy().save().toEntity(object));
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the snapshot to a temporary file next to the given one and moves it in place, so a crash while
+	 * writing never leaves a half-written snapshot behind.
+	 *
+	 * @methodtype command
+	 */
+	public void write(File file) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		if (directory != null) {
+			Files.createDirectories(directory.toPath());
+		}
+		File tempFile = File.createTempFile(file.getName(), ".tmp", directory);
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(timestamp);
+				out.writeInt(sections.size());
+				for (Map.Entry<String, List<Entity>> section : sections.entrySet()) {
+					byte[] name = section.getKey().getBytes(StandardCharsets.UTF_8);
+					out.writeInt(name.length);
+					out.write(name);
+					out.writeInt(section.getValue().size());
+					CRC32 checksum = new CRC32();
+					for (Entity entity : section.getValue()) {
+						byte[] bytes = EntityTranslator.convertToPb(entity).toByteArray();
+						out.writeInt(bytes.length);
+						out.write(bytes);
+						checksum.update(bytes);
+					}
+					out.writeLong(checksum.getValue());
+				}
+			}
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempFile.toPath());
+		}
+
+		log.info(LogBuilder.createSystemMessage().
+				addMessage("model snapshot written").
+				addParameter("file", file.getPath()).
+				addParameter("size in bytes", file.length()).toString());
+	}
+
+	/**
+	 * Writes a snapshot of the current model to the configured file, if there is one.
+	 *
+	 * @methodtype command
+	 */
+	public static void writeConfigured() {
+		final File file = getConfiguredFile();
+		if (file == null) {
+			return;
+		}
+
+		try {
+			ModelSnapshot snapshot = ObjectifyService.run(new Work<ModelSnapshot>() {
+				@Override
+				public ModelSnapshot run() {
+					return create();
+				}
+			});
+			snapshot.write(file);
+		} catch (IOException e) {
+			log.warning(LogBuilder.createSystemMessage().
+					addException("unable to write model snapshot " + file.getPath(), e).toString());
+		}
+	}
+
+	/**
+	 * Reads a snapshot from the memory-mapped file; returns null if there is no usable snapshot.
+	 *
+	 * @methodtype factory
+	 */
+	public static ModelSnapshot read(File file) {
+		if (file == null || !file.isFile()) {
+			return null;
+		}
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				log.warning(LogBuilder.createSystemMessage().
+						addMessage("ignoring model snapshot of unknown format").
+						addParameter("file", file.getPath()).toString());
+				return null;
+			}
+
+			long timestamp = buffer.getLong();
+			int noSections = buffer.getInt();
+			Map<String, List<Entity>> sections = new LinkedHashMap<String, List<Entity>>();
+			for (int i = 0; i < noSections; i++) {
+				byte[] name = new byte[buffer.getInt()];
+				buffer.get(name);
+				int noEntities = buffer.getInt();
+
+				// verify the checksum before any of the records is decoded
+				List<byte[]> records = new ArrayList<byte[]>(noEntities);
+				CRC32 checksum = new CRC32();
+				for (int j = 0; j < noEntities; j++) {
+					byte[] bytes = new byte[buffer.getInt()];
+					buffer.get(bytes);
+					checksum.update(bytes);
+					records.add(bytes);
+				}
+				if (buffer.getLong() != checksum.getValue()) {
+					log.warning(LogBuilder.createSystemMessage().
+							addMessage("ignoring corrupt model snapshot").
+							addParameter("file", file.getPath()).toString());
+					return null;
+				}
+
+				List<Entity> entities = new ArrayList<Entity>(noEntities);
+				for (byte[] bytes : records) {
+					entities.add(EntityTranslator.createFromPbBytes(bytes));
+				}
+				sections.put(new String(name, StandardCharsets.UTF_8), entities);
+			}
+
+			return new ModelSnapshot(timestamp, sections);
+		} catch (IOException | RuntimeException e) {
+			// truncated files show up as BufferUnderflowException or NegativeArraySizeException
+			log.warning(LogBuilder.createSystemMessage().
+					addException("unable to read model snapshot " + file.getPath(), e).toString());
+			return null;
+		}
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public static ModelSnapshot readConfigured() {
+		return read(getConfiguredFile());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public List<Entity> getEntities(String section) {
+		List<Entity> result = sections.get(section);
+		return result != null ? Collections.unmodifiableList(result) : Collections.<Entity>emptyList();
+	}
+
+	/**
+	 * Adds the users of the snapshot and those saved since then to the UserManager.
+	 *
+	 * @methodtype command
+	 */
+	public void restoreUsers() {
+		long startTime = System.currentTimeMillis();
+		final UserManager userManager = UserManager.getInstance();
+		int noRestoredUsers = ObjectifyService.run(new Work<Integer>() {
+			@Override
+			public Integer run() {
+				for (Entity entity : getEntities(USERS)) {
+					User user = OfyService.ofy().load().fromEntity(entity);
+					userManager.doPutClient(user);
+				}
+				int result = getEntities(USERS).size();
+				for (User user : readChangedObjects(User.class)) {
+					userManager.doPutClient(user);
+					result++;
+				}
+				return result;
+			}
+		});
+
+		addStartupReportEntry(USERS, noRestoredUsers, startTime);
+	}
+
+	/**
+	 * Adds the sailboat types and sailboats of the snapshot and those saved since then to the SailboatManager.
+	 *
+	 * @methodtype command
+	 */
+	public void restoreSailboats() {
+		long startTime = System.currentTimeMillis();
+		final SailboatManager sailboatManager = SailboatManager.getInstance();
+		int noRestoredEntities = ObjectifyService.run(new Work<Integer>() {
+			@Override
+			public Integer run() {
+				int result = 0;
+				for (Entity entity : getEntities(SAILBOAT_TYPES)) {
+					sailboatManager.doAddSailboatType(OfyService.ofy().load().<SailboatType>fromEntity(entity));
+					result++;
+				}
+				for (SailboatType type : readChangedObjects(SailboatType.class)) {
+					sailboatManager.doAddSailboatType(type);
+					result++;
+				}
+				for (Entity entity : getEntities(SAILBOATS)) {
+					sailboatManager.doAddSailboat(OfyService.ofy().load().<Sailboat>fromEntity(entity));
+					result++;
+				}
+				for (Sailboat sailboat : readChangedObjects(Sailboat.class)) {
+					sailboatManager.doAddSailboat(sailboat);
+					result++;
+				}
+				return result;
+			}
+		});
+
+		addStartupReportEntry(SAILBOATS, noRestoredEntities, startTime);
+	}
+
+	/**
+	 * Adds the photos of the snapshot and those saved since then to the PhotoManager. Their praise is read from the
+	 * praise shards, as neither the snapshot nor the photo entities include it.
+	 *
+	 * @methodtype command
+	 */
+	public void restorePhotos() {
+		long startTime = System.currentTimeMillis();
+		final PhotoManager photoManager = PhotoManager.getInstance();
+		final List<Photo> restoredPhotos = new ArrayList<Photo>();
+		int noRestoredPhotos = ObjectifyService.run(new Work<Integer>() {
+			@Override
+			public Integer run() {
+				for (Entity entity : getEntities(PHOTOS)) {
+					Photo photo = OfyService.ofy().load().<Photo>fromEntity(entity);
+					restorePhoto(photoManager, photo);
+					restoredPhotos.add(photo);
+				}
+				for (Photo photo : readChangedObjects(Photo.class)) {
+					restorePhoto(photoManager, photo);
+					restoredPhotos.add(photo);
+				}
+				return restoredPhotos.size();
+			}
+		});
+		try {
+			PraiseCounter.getInstance().refreshAdded(restoredPhotos);
+		} catch (RuntimeException e) {
+			log.warning(LogBuilder.createSystemMessage().addException("Reading praise of restored photos failed", e).
+					toString());
+		}
+
+		addStartupReportEntry(PHOTOS, noRestoredPhotos, startTime);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void restorePhoto(PhotoManager photoManager, Photo photo) {
+		if (!photoManager.isLazyImageLoading()) {
+			photoManager.loadScaledImages(photo);
+		}
+		photoManager.doAddPhoto(photo);
+		// photos and their tags are saved together, so the tags of a restored photo are the stored ones
+		photoManager.storedTagPhotoIds.add(photo.getId().asInt());
+	}
+
+	/**
+	 * Queries the entities of the given type that were saved since the snapshot was taken. Entities deleted
+	 * since then are not noticed.
+	 *
+	 * @methodtype query
+	 */
+	protected <E> List<E> readChangedObjects(Class<E> type) {
+		return OfyService.ofy().load().type(type).ancestor(ObjectManager.applicationRootKey).
+				filter(DataObject.LAST_MODIFIED + " >", timestamp - CLOCK_SKEW_MARGIN_MILLIS).list();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void addStartupReportEntry(String section, int noEntities, long startTime) {
+		long duration = System.currentTimeMillis() - startTime;
+		StartupReport.getInstance().addEntry(section + " (snapshot)", noEntities, duration);
+		log.info(LogBuilder.createSystemMessage().
+				addMessage("restored from model snapshot").
+				addParameter("section", section).
+				addParameter("number of entities", noEntities).
+				addParameter("duration in ms", String.valueOf(duration)).toString());
+	}
+}
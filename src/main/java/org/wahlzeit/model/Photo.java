@@ -23,16 +23,19 @@ package org.wahlzeit.model;
 import com.google.api.client.util.ArrayMap;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Ignore;
 import com.googlecode.objectify.annotation.Parent;
+import org.wahlzeit.model.persistence.ImageCache;
 import org.wahlzeit.services.DataObject;
 import org.wahlzeit.services.EmailAddress;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.ObjectManager;
 
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A photo represents a user-provided (uploaded) photo.
@@ -77,6 +80,7 @@ public class Photo extends DataObject {
 	/**
 	 * Each photo can be viewed in different sizes (XS, S, M, L, XL)
 	 * Images are pre-computed in these sizes to optimize bandwidth when requested.
+	 * Only images that have not been persisted yet are held here, all others live in the bounded {@link ImageCache}.
 	 */
 	@Ignore
 	transient protected Map<PhotoSize, Image> images = new ArrayMap<PhotoSize, Image>();
@@ -112,6 +116,22 @@ public class Photo extends DataObject {
 	protected int noVotes = 1;
 	protected int noVotesAtLastNotification = 1;
 
+	/**
+	 * Praise stored in the praise shards of the photo, as last read by the PraiseCounter; added to the praise above
+	 */
+	@Ignore
+	transient protected volatile long storedPraiseSum = 0;
+	@Ignore
+	transient protected volatile long storedNoVotes = 0;
+
+	/**
+	 * Praise received by this instance that is not yet flushed to the praise shards
+	 */
+	@Ignore
+	transient protected LongAdder pendingPraiseSum = new LongAdder();
+	@Ignore
+	transient protected LongAdder pendingNoVotes = new LongAdder();
+
 	/**
 	 *
 	 */
@@ -157,6 +177,21 @@ public class Photo extends DataObject {
 	 * @methodtype get
 	 */
 	public Image getImage(PhotoSize photoSize) {
+		Image result = images.get(photoSize);
+		if (result == null) {
+			byte[] imageData = ImageCache.getInstance().get(getIdAsString(), photoSize.asInt());
+			if (imageData != null) {
+				result = ImagesServiceFactory.makeImage(imageData);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the image of the given size if it has not been persisted yet, null otherwise
+	 * @methodtype get
+	 */
+	public Image getUnsavedImage(PhotoSize photoSize) {
 		return images.get(photoSize);
 	}
 
@@ -167,6 +202,19 @@ public class Photo extends DataObject {
 		this.images.put(photoSize, image);
 	}
 
+	/**
+	 * Hands the image over to the {@link ImageCache} once it has been persisted, so it no longer stays on the heap for
+	 * the lifetime of the photo.
+	 *
+	 * @methodtype command
+	 */
+	public void releaseImage(PhotoSize photoSize) {
+		Image image = images.remove(photoSize);
+		if (image != null) {
+			ImageCache.getInstance().put(getIdAsString(), photoSize.asInt(), image.getImageData());
+		}
+	}
+
 	/**
 	 * @methodtype get
 	 */
@@ -192,6 +240,7 @@ public class Photo extends DataObject {
 	 * @methodtype set
 	 */
 	public void setOwnerId(String newName) {
+		PhotoManager.getInstance().changeOwner(this, newName);
 		ownerId = newName;
 		incWriteCount();
 	}
@@ -357,16 +406,75 @@ public class Photo extends DataObject {
 	 * @methodtype get
 	 */
 	public double getPraise() {
-		return (double) praiseSum / noVotes;
+		long votes = getNoVotesAsLong();
+		return (double) (praiseSum + storedPraiseSum + pendingPraiseSum.sum()) / votes;
 	}
 
 	/**
-	 *
+	 * Counts the vote without locking and without making the photo dirty; the PraiseCounter flushes it to the praise
+	 * shards of the photo later on.
 	 */
 	public void addToPraise(int value) {
-		praiseSum += value;
-		noVotes += 1;
-		incWriteCount();
+		pendingPraiseSum.add(value);
+		pendingNoVotes.increment();
+		PraiseCounter.getInstance().addPending(this);
+		PhotoManager.getInstance().changePraise(this);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoVotes() {
+		return (int) Math.min(getNoVotesAsLong(), Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected long getNoVotesAsLong() {
+		return noVotes + storedNoVotes + pendingNoVotes.sum();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected long getPendingPraiseSum() {
+		return pendingPraiseSum.sum();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected long getPendingNoVotes() {
+		return pendingNoVotes.sum();
+	}
+
+	/**
+	 * Moves flushed praise from the pending to the stored praise.
+	 *
+	 * @methodtype command
+	 */
+	protected synchronized void addStoredPraise(long flushedPraiseSum, long flushedNoVotes) {
+		storedPraiseSum += flushedPraiseSum;
+		storedNoVotes += flushedNoVotes;
+		pendingPraiseSum.add(-flushedPraiseSum);
+		pendingNoVotes.add(-flushedNoVotes);
+	}
+
+	/**
+	 * Takes over the totals read from the praise shards. Totals only ever grow, so totals older than the current ones
+	 * are ignored.
+	 *
+	 * @return true if the praise changed
+	 * @methodtype set
+	 */
+	protected synchronized boolean setStoredPraise(long newPraiseSum, long newNoVotes) {
+		if (newNoVotes <= storedNoVotes) {
+			return false;
+		}
+		storedPraiseSum = newPraiseSum;
+		storedNoVotes = newNoVotes;
+		return true;
 	}
 
 	/**
@@ -433,14 +541,14 @@ public class Photo extends DataObject {
 	 * @methodtype boolean query
 	 */
 	public boolean hasNewPraise() {
-		return noVotes > noVotesAtLastNotification;
+		return getNoVotes() > noVotesAtLastNotification;
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void setNoNewPraise() {
-		noVotesAtLastNotification = noVotes;
+		noVotesAtLastNotification = getNoVotes();
 		incWriteCount();
 	}
 
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model;
+
+import java.util.BitSet;
+
+/**
+ * Bitmaps over the int values of photo ids, one per PhotoStatus plus one for all displayable photos.
+ *
+ * Selecting candidate photos then is a matter of a few word-wise and / and-not operations on bitsets instead of
+ * looking up every single photo.
+ */
+public class PhotoBitmapIndex {
+
+	/**
+	 * One bitset per PhotoStatus, indexed by PhotoStatus.asInt()
+	 */
+	protected BitSet[] statusBits = new BitSet[PhotoStatus.values().length];
+
+	/**
+	 * Union of the bitsets of all displayable states
+	 */
+	protected BitSet displayableBits = new BitSet();
+
+	/**
+	 * @methodtype constructor
+	 */
+	public PhotoBitmapIndex() {
+		for (int i = 0; i < statusBits.length; i++) {
+			statusBits[i] = new BitSet();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void setStatus(int photoId, PhotoStatus status) {
+		if (status == null) {
+			throw new IllegalArgumentException("The status must not be null.");
+		}
+
+		doRemovePhoto(photoId);
+		statusBits[status.asInt()].set(photoId);
+		if (status.isDisplayable()) {
+			displayableBits.set(photoId);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void removePhoto(int photoId) {
+		doRemovePhoto(photoId);
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 */
+	protected void doRemovePhoto(int photoId) {
+		for (BitSet bits : statusBits) {
+			bits.clear(photoId);
+		}
+		displayableBits.clear(photoId);
+	}
+
+	/**
+	 * @return a copy, so callers may combine it freely
+	 * @methodtype get
+	 */
+	public synchronized BitSet getPhotosWithStatus(PhotoStatus status) {
+		return (BitSet) statusBits[status.asInt()].clone();
+	}
+
+	/**
+	 * @return a copy, so callers may combine it freely
+	 * @methodtype get
+	 */
+	public synchronized BitSet getDisplayablePhotos() {
+		return (BitSet) displayableBits.clone();
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public synchronized boolean isDisplayable(int photoId) {
+		return displayableBits.get(photoId);
+	}
+
+	/**
+	 * @methodtype conversion
+	 * @methodproperty class
+	 */
+	public static BitSet asBitSet(int[] photoIds) {
+		BitSet result = new BitSet();
+		for (int id : photoIds) {
+			result.set(id);
+		}
+		return result;
+	}
+}
@@ -23,8 +23,15 @@ package org.wahlzeit.model;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * A photo case is a case where someone flagged a photo as inappropriate.
+ * All flags a photo receives while its case is open are collected in that one case.
  */
 @Entity
 public class PhotoCase extends Case {
@@ -38,6 +45,12 @@ public class PhotoCase extends Case {
 	public static final String CREATED_ON = "createdOn";
 	public static final String WAS_DECIDED = "wasDecided";
 	public static final String DECIDED_ON = "decidedOn";
+
+	/**
+	 * At most that many distinct flaggers are remembered per case; further flags are only counted
+	 */
+	public static final int MAX_FLAGGERS = 100;
+
 	protected CaseId id = CaseId.NULL_ID; // case id
 	protected int applicationId = 0; // application id (unused on Java level)
 	protected Photo photo = null; // photo id -> photo
@@ -47,6 +60,12 @@ public class PhotoCase extends Case {
 	protected long createdOn = System.currentTimeMillis();
 	protected boolean wasDecided = false;
 	protected long decidedOn = 0;
+	protected int noFlags = 1;
+	protected List<String> flaggers = new ArrayList<String>();
+	protected Map<String, Integer> noFlagsByReason = new HashMap<String, Integer>();
+	protected long lastFlaggedOn = createdOn;
+	protected int noFlagsNotified = 0;
+	protected long notifiedOn = 0;
 	/**
 	 *
 	 */
@@ -159,6 +178,97 @@ public class PhotoCase extends Case {
 		return decidedOn;
 	}
 
+	/**
+	 * Counts one more flag for the photo; the first flagger, reason and explanation stay as they are.
+	 * Flaggers and reasons of a single-flag case live in the flagger and reason fields only.
+	 *
+	 * @methodtype command
+	 */
+	public synchronized void addFlag(String newFlagger, FlagReason newReason) {
+		if (flaggers.isEmpty()) {
+			addFlagger(flagger);
+		}
+		if (noFlagsByReason.isEmpty()) {
+			noFlagsByReason.put(reason.name(), noFlags);
+		}
+
+		noFlags++;
+		addFlagger(newFlagger);
+		noFlagsByReason.merge(newReason.name(), 1, Integer::sum);
+		lastFlaggedOn = System.currentTimeMillis();
+		incWriteCount();
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 */
+	protected void addFlagger(String newFlagger) {
+		if (flaggers.size() < MAX_FLAGGERS && !flaggers.contains(newFlagger)) {
+			flaggers.add(newFlagger);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getNoFlags() {
+		return noFlags;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized List<String> getFlaggers() {
+		if (flaggers.isEmpty()) {
+			return Collections.singletonList(flagger);
+		}
+		return Collections.unmodifiableList(new ArrayList<String>(flaggers));
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getNoFlags(FlagReason flagReason) {
+		if (noFlagsByReason.isEmpty()) {
+			return flagReason == reason ? noFlags : 0;
+		}
+		Integer result = noFlagsByReason.get(flagReason.name());
+		return result != null ? result : 0;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized long getLastFlagTime() {
+		return lastFlaggedOn;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getNoFlagsSinceNotification() {
+		return noFlags - noFlagsNotified;
+	}
+
+	/**
+	 * Moderators hear about a case right away, then at most once per interval if further flags came in.
+	 *
+	 * @methodtype boolean-query
+	 */
+	public synchronized boolean isNotificationDue(long now, long interval) {
+		return noFlags > noFlagsNotified && (noFlagsNotified == 0 || now - notifiedOn >= interval);
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public synchronized void setNotified(long now) {
+		noFlagsNotified = noFlags;
+		notifiedOn = now;
+		incWriteCount();
+	}
+
 	/**
 	 *
 	 */
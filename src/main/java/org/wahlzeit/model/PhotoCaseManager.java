@@ -20,14 +20,20 @@
 
 package org.wahlzeit.model;
 
+import org.wahlzeit.services.EmailAddress;
 import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.mailing.EmailService;
+import org.wahlzeit.services.mailing.EmailServiceManager;
 
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 /**
  * The photo case manager provides access to and manages persistent photo cases.
@@ -38,10 +44,43 @@ public class PhotoCaseManager extends ObjectManager {
 	 *
 	 */
 	protected static final PhotoCaseManager instance = new PhotoCaseManager();
+
+	/**
+	 * Number of open cases shown on one moderation page if nothing else is asked for
+	 */
+	public static final int DEFAULT_PAGE_SIZE = 20;
+
+	/**
+	 * Separates creation time and case id in a moderation queue cursor
+	 */
+	protected static final char CURSOR_SEPARATOR = '.';
+
+	/**
+	 * Minimum time between two moderator notifications about the same case
+	 */
+	public static final String NOTIFICATION_INTERVAL_PROPERTY = "wahlzeit.flagNotificationIntervalMillis";
+	public static final long DEFAULT_NOTIFICATION_INTERVAL = 15 * 60 * 1000;
+
 	/**
 	 *
 	 */
-	protected Map<CaseId, PhotoCase> openPhotoCases = new HashMap<CaseId, PhotoCase>();
+	protected Map<CaseId, PhotoCase> openPhotoCases = new ConcurrentHashMap<CaseId, PhotoCase>();
+
+	/**
+	 * Open cases by ascending age, i.e. the most recently created case first
+	 */
+	protected ConcurrentSkipListMap<QueueKey, PhotoCase> moderationQueue =
+			new ConcurrentSkipListMap<QueueKey, PhotoCase>();
+
+	/**
+	 * The one open case per flagged photo
+	 */
+	protected Map<PhotoId, PhotoCase> openPhotoCasesByPhoto = new ConcurrentHashMap<PhotoId, PhotoCase>();
+
+	/**
+	 *
+	 */
+	protected long notificationInterval = Long.getLong(NOTIFICATION_INTERVAL_PROPERTY, DEFAULT_NOTIFICATION_INTERVAL);
 
 	/**
 	 * @methodtype constructor
@@ -59,7 +98,7 @@ public class PhotoCaseManager extends ObjectManager {
 		Collection<PhotoCase> opc = new LinkedList<PhotoCase>();
 		loadOpenPhotoCases(opc);
 		for (PhotoCase pc : opc) {
-			openPhotoCases.put(pc.getId(), pc);
+			doAddPhotoCase(pc);
 		}
 	}
 
@@ -78,22 +117,127 @@ public class PhotoCaseManager extends ObjectManager {
 	}
 
 	/**
+	 * Returns the open case of the photo, if any.
+	 *
 	 * @methodtype get
 	 */
 	public PhotoCase getPhotoCase(PhotoId id) {
-		PhotoCase result = openPhotoCases.get(id);
-		if (result == null) {
-			result = readObject(PhotoCase.class, PhotoCase.ID, id);
+		return openPhotoCasesByPhoto.get(id);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public PhotoCase getPhotoCase(CaseId id) {
+		return openPhotoCases.get(id);
+	}
+
+	/**
+	 * Adds a flag to the open case of the photo, opening a new case for the first flag. The first flag of a case is
+	 * written right away, further flags are collected and written behind.
+	 *
+	 * @methodtype command
+	 */
+	public PhotoCase flagPhoto(Photo photo, String flagger, FlagReason reason, String explanation) {
+		if (photo == null) {
+			throw new IllegalArgumentException("The photo must not be null.");
+		}
+
+		boolean[] isNewCase = new boolean[1];
+		PhotoCase result = openPhotoCasesByPhoto.compute(photo.getId(), (photoId, openCase) -> {
+			if (openCase != null && !openCase.wasDecided()) {
+				openCase.addFlag(flagger, reason);
+				return openCase;
+			}
+			PhotoCase newCase = new PhotoCase(photo);
+			newCase.setFlagger(flagger);
+			newCase.setReason(reason);
+			newCase.setExplanation(explanation);
+			isNewCase[0] = true;
+			return newCase;
+		});
+
+		if (isNewCase[0]) {
+			addPhotoCase(result);
+		} else {
+			updateObject(result);
 		}
+		return result;
+	}
 
+	/**
+	 * Claims the moderator notification for the case if one is due; returns the number of flags to report, or 0 if
+	 * moderators were told about the case recently.
+	 *
+	 * @methodtype command
+	 */
+	public int claimNotification(PhotoCase photoCase) {
+		long now = System.currentTimeMillis();
+		int result;
+		synchronized (photoCase) {
+			if (!photoCase.isNotificationDue(now, notificationInterval)) {
+				return 0;
+			}
+			result = photoCase.getNoFlagsSinceNotification();
+			photoCase.setNotified(now);
+		}
+		updateObject(photoCase);
 		return result;
 	}
 
+	/**
+	 * Notifies the moderators about the open cases with flags they were not told about yet. Such flags came in
+	 * within the notification interval of their case, and no later flag claimed the notification.
+	 *
+	 * @return the number of cases the moderators were notified about
+	 * @methodtype command
+	 */
+	public int notifyModeratorsAboutDueCases(ModelConfig config, String siteUrl) {
+		int result = 0;
+		for (PhotoCase photoCase : openPhotoCases.values()) {
+			if (photoCase.getNoFlagsSinceNotification() > 0) {
+				int noNewFlags = claimNotification(photoCase);
+				if (noNewFlags > 0) {
+					notifyModerators(photoCase, noNewFlags, config, siteUrl);
+					result++;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void notifyModerators(PhotoCase photoCase, int noNewFlags, ModelConfig config, String siteUrl) {
+		EmailService emailService = EmailServiceManager.getDefaultService();
+
+		EmailAddress to = config.getModeratorEmailAddress();
+
+		Photo photo = photoCase.getPhoto();
+		String id = photo.getId().asString();
+		String emailSubject = "Photo: " + id + " of user: " + photo.getOwnerId() + " got flagged";
+		String emailBody = "Photo: " + siteUrl + id + ".html\n\n";
+		emailBody += "Reason: " + photoCase.getReason() + "\n\n";
+		emailBody += "Explanation: " + photoCase.getExplanation() + "\n\n";
+		if (photoCase.getNoFlags() > 1) {
+			emailBody += "New flags: " + noNewFlags + ", flags in total: " + photoCase.getNoFlags() + "\n\n";
+			for (FlagReason flagReason : FlagReason.values()) {
+				int noFlags = photoCase.getNoFlags(flagReason);
+				if (noFlags > 0) {
+					emailBody += flagReason + ": " + noFlags + "\n";
+				}
+			}
+		}
+
+		emailService.sendEmailIgnoreException(to, config.getAuditEmailAddress(), emailSubject, emailBody);
+	}
+
 	/**
 	 * @methodtype command
 	 */
 	public void addPhotoCase(PhotoCase myCase) {
-		openPhotoCases.put(myCase.getId(), myCase);
+		doAddPhotoCase(myCase);
 		if (myCase.isDirty()) {
 			writeObject(myCase);
 		}
@@ -104,10 +248,34 @@ public class PhotoCaseManager extends ObjectManager {
 	 * @methodtype command
 	 */
 	public void removePhotoCase(PhotoCase myCase) {
-		openPhotoCases.remove(myCase.getId());
+		doRemovePhotoCase(myCase);
 		deleteObject(myCase);
 	}
 
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 */
+	protected void doAddPhotoCase(PhotoCase myCase) {
+		openPhotoCases.put(myCase.getId(), myCase);
+		moderationQueue.put(new QueueKey(myCase), myCase);
+		if (myCase.getPhoto() != null) {
+			openPhotoCasesByPhoto.putIfAbsent(myCase.getPhoto().getId(), myCase);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 */
+	protected void doRemovePhotoCase(PhotoCase myCase) {
+		openPhotoCases.remove(myCase.getId());
+		moderationQueue.remove(new QueueKey(myCase));
+		if (myCase.getPhoto() != null) {
+			openPhotoCasesByPhoto.remove(myCase.getPhoto().getId(), myCase);
+		}
+	}
+
 	/**
 	 * @methodtype command
 	 */
@@ -121,9 +289,72 @@ public class PhotoCaseManager extends ObjectManager {
 	 * @methodtype get
 	 */
 	public PhotoCase[] getOpenPhotoCasesByAscendingAge() {
-		PhotoCase[] resultArray = openPhotoCases.values().toArray(new PhotoCase[0]);
-		Arrays.sort(resultArray, getPhotoCasesByAscendingAgeComparator());
-		return resultArray;
+		return moderationQueue.values().toArray(new PhotoCase[0]);
+	}
+
+	/**
+	 * Returns at most limit open cases by ascending age, starting right after the case the cursor points to.
+	 * An empty or null cursor starts with the most recently created case.
+	 *
+	 * @methodtype get
+	 */
+	public List<PhotoCase> getOpenPhotoCasesByAscendingAge(String cursor, int limit) {
+		if (limit < 0) {
+			throw new IllegalArgumentException("limit must not be negative");
+		}
+
+		NavigableMap<QueueKey, PhotoCase> window = moderationQueue;
+		if (cursor != null && !cursor.isEmpty()) {
+			window = moderationQueue.tailMap(QueueKey.fromCursor(cursor), false);
+		}
+
+		List<PhotoCase> result = new ArrayList<PhotoCase>(Math.min(limit, DEFAULT_PAGE_SIZE));
+		for (PhotoCase pc : window.values()) {
+			if (result.size() >= limit) {
+				break;
+			}
+			result.add(pc);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean hasOpenPhotoCasesAfter(String cursor) {
+		if (cursor == null || cursor.isEmpty()) {
+			return !moderationQueue.isEmpty();
+		}
+		return moderationQueue.higherKey(QueueKey.fromCursor(cursor)) != null;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoOpenPhotoCases() {
+		return openPhotoCases.size();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public static String getCursor(PhotoCase photoCase) {
+		return new QueueKey(photoCase).asCursor();
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public static boolean isValidCursor(String cursor) {
+		if (cursor == null || cursor.isEmpty()) {
+			return true;
+		}
+		try {
+			QueueKey.fromCursor(cursor);
+			return true;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
 	}
 
 	/**
@@ -144,4 +375,91 @@ public class PhotoCaseManager extends ObjectManager {
 			}
 		};
 	}
+
+	/**
+	 * Position of an open case in the moderation queue; newer cases come first, ties are broken by case id.
+	 */
+	protected static class QueueKey implements Comparable<QueueKey> {
+
+		/**
+		 *
+		 */
+		protected final long createdOn;
+		protected final int caseId;
+
+		/**
+		 *
+		 */
+		protected QueueKey(PhotoCase photoCase) {
+			this(photoCase.getCreationTime(), photoCase.getId().asInt());
+		}
+
+		/**
+		 *
+		 */
+		protected QueueKey(long createdOn, int caseId) {
+			this.createdOn = createdOn;
+			this.caseId = caseId;
+		}
+
+		/**
+		 * @methodtype conversion
+		 */
+		protected static QueueKey fromCursor(String cursor) {
+			int separator = cursor.indexOf(CURSOR_SEPARATOR);
+			if (separator == -1) {
+				throw new IllegalArgumentException("invalid moderation queue cursor: " + cursor);
+			}
+			try {
+				long createdOn = Long.parseLong(cursor.substring(0, separator));
+				int caseId = Integer.parseInt(cursor.substring(separator + 1));
+				return new QueueKey(createdOn, caseId);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("invalid moderation queue cursor: " + cursor, e);
+			}
+		}
+
+		/**
+		 * @methodtype conversion
+		 */
+		protected String asCursor() {
+			return String.valueOf(createdOn) + CURSOR_SEPARATOR + caseId;
+		}
+
+		/**
+		 *
+		 */
+		@Override
+		public int compareTo(QueueKey other) {
+			int result = Long.compare(other.createdOn, createdOn);
+			if (result == 0) {
+				result = Integer.compare(other.caseId, caseId);
+			}
+			return result;
+		}
+
+		/**
+		 *
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof QueueKey)) {
+				return false;
+			}
+			QueueKey other = (QueueKey) obj;
+			return createdOn == other.createdOn && caseId == other.caseId;
+		}
+
+		/**
+		 *
+		 */
+		@Override
+		public int hashCode() {
+			return 31 * Long.hashCode(createdOn) + caseId;
+		}
+	}
+
 }
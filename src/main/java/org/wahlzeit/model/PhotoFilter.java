@@ -25,8 +25,7 @@ import org.wahlzeit.utils.StringUtil;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.LinkedList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Random;
 import java.util.logging.Logger;
@@ -55,8 +54,13 @@ public class PhotoFilter implements Serializable {
 	 *
 	 */
 	protected List<PhotoId> displayablePhotoIds;
-	protected List<PhotoId> processedPhotoIds = new LinkedList<PhotoId>();
-	protected List<PhotoId> skippedPhotoIds = new LinkedList<PhotoId>();
+
+	/**
+	 * The processed and skipped photos as bitsets over PhotoId.asInt(); processed photos are only dropped from the
+	 * displayable ones when they are drawn or listed
+	 */
+	protected BitSet processedPhotoBits = new BitSet();
+	protected BitSet skippedPhotoBits = new BitSet();
 
 	/**
 	 *
@@ -84,7 +88,7 @@ public class PhotoFilter implements Serializable {
 		setUserName("");
 		setTags(Tags.EMPTY_TAGS);
 		displayablePhotoIds.clear();
-		processedPhotoIds.clear();
+		processedPhotoBits.clear();
 	}
 
 	/**
@@ -145,21 +149,30 @@ public class PhotoFilter implements Serializable {
 
 	/**
 	 * Get a random photo that has not been rated. If possible avoid skipped photos.
+	 * <p>
+	 * A drawn photo that has been processed meanwhile is replaced by the last one, so it is dropped in constant time.
 	 */
 	public PhotoId getRandomDisplayablePhotoId() {
-		if (!displayablePhotoIds.isEmpty()) {
-			int size = displayablePhotoIds.size();
-			int index = ((randomNumber.nextInt() % size) + size) / 2;
-			return displayablePhotoIds.get(index);
-		} else {
-			return PhotoId.NULL_ID;
+		while (!displayablePhotoIds.isEmpty()) {
+			int index = randomNumber.nextInt(displayablePhotoIds.size());
+			PhotoId result = displayablePhotoIds.get(index);
+			if (!processedPhotoBits.get(result.asInt())) {
+				return result;
+			}
+
+			PhotoId last = displayablePhotoIds.remove(displayablePhotoIds.size() - 1);
+			if (index < displayablePhotoIds.size()) {
+				displayablePhotoIds.set(index, last);
+			}
 		}
+		return PhotoId.NULL_ID;
 	}
 
 	/**
 	 *
 	 */
 	public List<PhotoId> getDisplayablePhotoIds() {
+		displayablePhotoIds.removeIf(photoId -> processedPhotoBits.get(photoId.asInt()));
 		return displayablePhotoIds;
 	}
 
@@ -178,10 +191,10 @@ public class PhotoFilter implements Serializable {
 	}
 
 	/**
-	 *
+	 * @return a new list of the processed photo ids in ascending order
 	 */
 	public List<PhotoId> getProcessedPhotoIds() {
-		return processedPhotoIds;
+		return asPhotoIds(processedPhotoBits);
 	}
 
 	/**
@@ -189,91 +202,84 @@ public class PhotoFilter implements Serializable {
 	 */
 	public boolean isProcessedPhotoId(PhotoId photoId) {
 		log.info("photoId: " + photoId.asString());
-		for (PhotoId id : processedPhotoIds) {
-			log.info("Processed id: " + id.asString());
-		}
-		return processedPhotoIds.contains(photoId);
+		return processedPhotoBits.get(photoId.asInt());
 	}
 
 	/**
 	 *
 	 */
 	public void addProcessedPhoto(Photo photo) {
-		PhotoId photoId = photo.getId();
-		processedPhotoIds.add(photoId);
-		skippedPhotoIds.remove(photoId);
-		if (displayablePhotoIds != null) {
-			displayablePhotoIds.remove(photoId);
-		}
+		int photoId = photo.getId().asInt();
+		processedPhotoBits.set(photoId);
+		skippedPhotoBits.clear(photoId);
 	}
 
 
 	/**
+	 * @return a new list of the skipped photo ids in ascending order
 	 * @methodtype get
 	 */
 	public List<PhotoId> getSkippedPhotoIds() {
-		return skippedPhotoIds;
+		return asPhotoIds(skippedPhotoBits);
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void setSkippedPhotoIds(List<PhotoId> skippedPhotoIds) {
-		this.skippedPhotoIds = skippedPhotoIds;
+		skippedPhotoBits.clear();
+		for (PhotoId id : skippedPhotoIds) {
+			skippedPhotoBits.set(id.asInt());
+		}
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void addSkippedPhotoId(PhotoId skippedPhotoId) {
-		if (!skippedPhotoIds.contains(skippedPhotoId)) {
-			skippedPhotoIds.add(skippedPhotoId);
-		}
+		skippedPhotoBits.set(skippedPhotoId.asInt());
 	}
 
 	/**
-	 *
+	 * Candidates are all displayable photos that match the filter conditions, minus the processed and skipped ones.
+	 * If nothing is left, the skipped candidates are offered again.
 	 */
 	protected List<PhotoId> getFilteredPhotoIds() {
-		// get all tags that match the filter conditions
-		List<PhotoId> result = new LinkedList<PhotoId>();
-		int noFilterConditions = getFilterConditions().size();
+		List<String> filterConditions = getFilterConditions();
+		int noFilterConditions = filterConditions.size();
 		log.config(LogBuilder.createSystemMessage().
 				addParameter("Number of filter conditions", String.valueOf(noFilterConditions)).toString());
 
-		Collection<PhotoId> candidates;
-		if (noFilterConditions == 0) {
-			candidates = PhotoManager.getInstance().getPhotoCache().keySet();
-		} else {
-			List<Tag> tags = new LinkedList<Tag>();
-			candidates = new LinkedList<PhotoId>();
-			for (String condition : getFilterConditions()) {
-				PhotoManager.getInstance().addTagsThatMatchCondition(tags, condition);
-			}
-			// get the list of all photo ids that correspond to the tags
-			for (Tag tag : tags) {
-				candidates.add(PhotoId.getIdFromString(tag.getPhotoId()));
-			}
+		PhotoManager photoManager = PhotoManager.getInstance();
+		BitSet candidates = photoManager.getPhotoBitmapIndex().getDisplayablePhotos();
+		if (noFilterConditions != 0) {
+			int[] matchingIds = photoManager.getTagIndex().getPhotoIdsMatchingAll(filterConditions);
+			candidates.and(PhotoBitmapIndex.asBitSet(matchingIds));
 		}
+		candidates.andNot(processedPhotoBits);
 
-		int newPhotos = 0;
-		for (PhotoId candidateId : candidates) {
-			Photo photoCandidate = PhotoManager.getInstance().getPhoto(candidateId);
-			if (!processedPhotoIds.contains(candidateId) && !skippedPhotoIds.contains(candidateId) &&
-					photoCandidate.isVisible()) {
-				result.add(candidateId);
-				++newPhotos;
-			}
-		}
-		int skippedPhotos = skippedPhotoIds.size();
-		if (newPhotos == 0 && skippedPhotos > 0) {
-			result.addAll(skippedPhotoIds);
-			newPhotos = skippedPhotos;
+		BitSet result = (BitSet) candidates.clone();
+		result.andNot(skippedPhotoBits);
+		if (result.isEmpty()) {
+			result = candidates;
+			result.and(skippedPhotoBits);
 		}
 
-		log.config(LogBuilder.createSystemMessage().addParameter("Number of photos to show", newPhotos)
+		List<PhotoId> photoIds = asPhotoIds(result);
+		log.config(LogBuilder.createSystemMessage().addParameter("Number of photos to show", photoIds.size())
 				.toString());
 
+		return photoIds;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static List<PhotoId> asPhotoIds(BitSet photoIds) {
+		List<PhotoId> result = new ArrayList<PhotoId>(photoIds.cardinality());
+		for (int id = photoIds.nextSetBit(0); id >= 0; id = photoIds.nextSetBit(id + 1)) {
+			result.add(PhotoId.getIdFromInt(id));
+		}
 		return result;
 	}
 }
@@ -22,6 +22,8 @@ package org.wahlzeit.model;
 
 import java.io.Serializable;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * A photo id identifies a photo with a unique number.
@@ -30,15 +32,24 @@ import java.util.Random;
  */
 public class PhotoId implements Serializable {
 
+	/**
+	 * Highest id handed out or known so far
+	 */
+	protected static final AtomicInteger currentId = new AtomicInteger(0);
+
 	/**
 	 * 0 is never returned from nextValue; first value is 1
 	 */
-	protected static int currentId = 0;
+	protected static final IdAllocator allocator = new IdAllocator();
 
 	/**
-	 *
+	 * The interned ids are kept in chunks of CHUNK_SIZE ids, which are grouped into segments of CHUNK_SIZE chunks.
+	 * Segments and chunks are allocated on first use and never copied, so the table grows without locks.
 	 */
-	public static final int BUFFER_SIZE_INCREMENT = 64;
+	public static final int CHUNK_BITS = 10;
+	public static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	protected static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	protected static final int NO_SEGMENTS = 1 << (Integer.SIZE - 1 - 2 * CHUNK_BITS);
 
 	/**
 	 *
@@ -48,7 +59,8 @@ public class PhotoId implements Serializable {
 	/**
 	 *
 	 */
-	protected static PhotoId[] ids = new PhotoId[BUFFER_SIZE_INCREMENT];
+	protected static final AtomicReferenceArray<AtomicReferenceArray<AtomicReferenceArray<PhotoId>>> segments =
+			new AtomicReferenceArray<AtomicReferenceArray<AtomicReferenceArray<PhotoId>>>(NO_SEGMENTS);
 
 	/**
 	 * What a hack :-)
@@ -68,54 +80,86 @@ public class PhotoId implements Serializable {
 	 *
 	 */
 	public static int getCurrentIdAsInt() {
-		return currentId;
+		return currentId.get();
 	}
 
 	/**
 	 *
 	 */
-	public static synchronized void setCurrentIdFromInt(int id) {
-		currentId = id;
-		ids = new PhotoId[currentId + BUFFER_SIZE_INCREMENT];
-		ids[0] = NULL_ID;
+	public static void setCurrentIdFromInt(int id) {
+		currentId.set(id);
+		allocator.setLastId(id);
 	}
 
 	/**
-	 *
+	 * @methodtype get
 	 */
-	public static synchronized int getNextIdAsInt() {
-		currentId += 1;
-		if (currentId >= ids.length) {
-			PhotoId[] nids = new PhotoId[currentId + BUFFER_SIZE_INCREMENT];
-			System.arraycopy(ids, 0, nids, 0, currentId);
-			ids = nids;
-		}
-		return currentId;
+	public static IdAllocator getAllocator() {
+		return allocator;
 	}
 
 	/**
 	 *
 	 */
+	public static int getNextIdAsInt() {
+		int id = (int) allocator.getNextId();
+		raiseCurrentId(id);
+		return id;
+	}
+
+	/**
+	 * Ids of leased blocks are not handed out in order across threads, so the current id only ever grows.
+	 */
+	protected static void raiseCurrentId(int id) {
+		currentId.accumulateAndGet(id, Math::max);
+	}
+
+	/**
+	 * Ids above the current id were leased by other instances, or do not exist. They are resolved, but not interned,
+	 * so that looking up unknown ids does not fill the table; they are interned once a photo with such an id is
+	 * added, which raises the current id.
+	 */
 	public static PhotoId getIdFromInt(int id) {
-		if ((id < 0) || (id > currentId)) {
+		if (id <= 0) {
 			return NULL_ID;
+		} else if (id > currentId.get()) {
+			return new PhotoId(id);
 		}
 
-		// @FIXME http://en.wikipedia.org/wiki/Double-checked_locking
-		PhotoId result = ids[id];
+		AtomicReferenceArray<PhotoId> chunk = getChunk(id);
+		int index = id & CHUNK_MASK;
+		PhotoId result = chunk.get(index);
 		if (result == null) {
-			synchronized (ids) {
-				result = ids[id];
-				if (result == null) {
-					result = new PhotoId(id);
-					ids[id] = result;
-				}
-			}
+			// if another thread interned the id first, its instance wins
+			PhotoId newId = new PhotoId(id);
+			result = chunk.compareAndSet(index, null, newId) ? newId : chunk.get(index);
 		}
 
 		return result;
 	}
 
+	/**
+	 * Returns the chunk holding the given id, allocating it and its segment if necessary.
+	 */
+	protected static AtomicReferenceArray<PhotoId> getChunk(int id) {
+		int segmentIndex = id >>> (2 * CHUNK_BITS);
+		AtomicReferenceArray<AtomicReferenceArray<PhotoId>> segment = segments.get(segmentIndex);
+		if (segment == null) {
+			segments.compareAndSet(segmentIndex, null,
+					new AtomicReferenceArray<AtomicReferenceArray<PhotoId>>(CHUNK_SIZE));
+			segment = segments.get(segmentIndex);
+		}
+
+		int chunkIndex = (id >>> CHUNK_BITS) & CHUNK_MASK;
+		AtomicReferenceArray<PhotoId> chunk = segment.get(chunkIndex);
+		if (chunk == null) {
+			segment.compareAndSet(chunkIndex, null, new AtomicReferenceArray<PhotoId>(CHUNK_SIZE));
+			chunk = segment.get(chunkIndex);
+		}
+
+		return chunk;
+	}
+
 	/**
 	 *
 	 */
@@ -204,6 +248,14 @@ public class PhotoId implements Serializable {
 		return stringValue;
 	}
 
+	/**
+	 *
+	 */
+	@Override
+	public String toString() {
+		return asString();
+	}
+
 	/**
 	 *
 	 */
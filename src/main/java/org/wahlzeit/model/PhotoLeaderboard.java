@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The leaderboard keeps the best praised photos, overall and per tag. It is updated with every vote and never scans
+ * all photos to answer a request; only {@link #rebuild()} does, at startup and from the leaderboard agent.
+ * <p>
+ * Each board holds twice as many photos as it shows, so photos can drop a few places without leaving it. A board
+ * remembers the best photo it had to leave out; photos ranked above that one are known to be in the right order.
+ * If fewer than the shown number of photos are known to be right, the board is stale until it is rebuilt.
+ */
+public class PhotoLeaderboard {
+
+	/**
+	 *
+	 */
+	public static final String SIZE_PROPERTY = "wahlzeit.leaderboard.size";
+	public static final String TAG_SIZE_PROPERTY = "wahlzeit.leaderboard.tagSize";
+	public static final String MIN_VOTES_PROPERTY = "wahlzeit.leaderboard.minVotes";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_SIZE = 100;
+	public static final int DEFAULT_TAG_SIZE = 20;
+	public static final int DEFAULT_MIN_VOTES = 5;
+
+	/**
+	 *
+	 */
+	protected static final PhotoLeaderboard instance = new PhotoLeaderboard();
+
+	/**
+	 * Number of photos shown on the overall and on each tag board
+	 */
+	protected final int size;
+	protected final int tagSize;
+
+	/**
+	 * Photos with fewer votes, including the initial one every photo has, are not ranked
+	 */
+	protected final int minVotes;
+
+	/**
+	 *
+	 */
+	protected volatile Board board;
+	protected volatile Map<String, Board> tagBoards = new ConcurrentHashMap<String, Board>();
+
+	/**
+	 * @methodtype constructor
+	 */
+	protected PhotoLeaderboard() {
+		this(Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE), Integer.getInteger(TAG_SIZE_PROPERTY, DEFAULT_TAG_SIZE),
+				Integer.getInteger(MIN_VOTES_PROPERTY, DEFAULT_MIN_VOTES));
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public PhotoLeaderboard(int size, int tagSize, int minVotes) {
+		if (size < 1 || tagSize < 1) {
+			throw new IllegalArgumentException("leaderboard sizes must be positive");
+		}
+
+		this.size = size;
+		this.tagSize = tagSize;
+		this.minVotes = minVotes;
+		board = new Board(size);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public static PhotoLeaderboard getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getTagSize() {
+		return tagSize;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getMinVotes() {
+		return minVotes;
+	}
+
+	/**
+	 * @return the board of the tag, or the overall board if the tag is null
+	 * @methodtype get
+	 */
+	protected Board getBoard(String tag) {
+		return (tag == null) ? board : tagBoards.get(tag);
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isRanked(Photo photo) {
+		return photo.isVisible() && photo.getNoVotes() >= minVotes;
+	}
+
+	/**
+	 * Moves the photo to its current place on the overall board and on the boards of its tags, or takes it off the
+	 * boards if it is not to be ranked any more. Costs O(log K) per board.
+	 *
+	 * @methodtype command
+	 */
+	public void update(Photo photo) {
+		if (photo == null) {
+			throw new IllegalArgumentException("The photo must not be null.");
+		}
+
+		boolean isRanked = isRanked(photo);
+		board.offer(photo, isRanked);
+
+		Map<String, Board> boards = tagBoards;
+		for (String tag : photo.getTags().asArray()) {
+			Board tagBoard = isRanked ? boards.computeIfAbsent(tag, t -> new Board(tagSize)) : boards.get(tag);
+			if (tagBoard != null) {
+				tagBoard.offer(photo, isRanked);
+			}
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public List<Photo> getTopPhotos(int offset, int limit) {
+		return getTopPhotos(null, offset, limit);
+	}
+
+	/**
+	 * Returns the photos ranked offset + 1 to offset + limit on the board of the tag, or on the overall board if the
+	 * tag is null. Only the photos known to be in the right order are returned.
+	 *
+	 * @methodtype get
+	 */
+	public List<Photo> getTopPhotos(String tag, int offset, int limit) {
+		if (offset < 0 || limit < 0) {
+			throw new IllegalArgumentException("offset and limit must not be negative");
+		}
+
+		Board from = getBoard(tag);
+		int maxRank = (tag == null) ? size : tagSize;
+		List<Photo> result = new ArrayList<Photo>(Math.min(limit, maxRank));
+		if (from == null) {
+			return result;
+		}
+
+		Map<PhotoId, Photo> photoCache = PhotoManager.getInstance().getPhotoCache();
+		int rank = 0;
+		for (PhotoId photoId : from.getPhotoIdsInOrder()) {
+			if (rank >= maxRank || rank >= offset + limit) {
+				break;
+			}
+			Photo photo = photoCache.get(photoId);
+			// the photo may have changed since it was put on the board
+			if (photo == null || !isRanked(photo) || (tag != null && !photo.hasTag(tag))) {
+				continue;
+			}
+			if (rank >= offset) {
+				result.add(photo);
+			}
+			rank++;
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isStale() {
+		if (board.isStale(size)) {
+			return true;
+		}
+		for (Board tagBoard : tagBoards.values()) {
+			if (tagBoard.isStale(tagSize)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Fills fresh boards from all cached photos and replaces the current ones with them.
+	 *
+	 * @methodtype command
+	 */
+	public void rebuild() {
+		Board newBoard = new Board(size);
+		Map<String, Board> newTagBoards = new ConcurrentHashMap<String, Board>();
+		for (Photo photo : PhotoManager.getInstance().getPhotoCache().values()) {
+			if (isRanked(photo)) {
+				newBoard.offer(photo, true);
+				for (String tag : photo.getTags().asArray()) {
+					newTagBoards.computeIfAbsent(tag, t -> new Board(tagSize)).offer(photo, true);
+				}
+			}
+		}
+
+		board = newBoard;
+		tagBoards = newTagBoards;
+	}
+
+	/**
+	 * The ranking of one leaderboard, bounded to twice the number of photos it shows.
+	 */
+	protected static class Board extends PhotoRanking {
+
+		/**
+		 *
+		 */
+		protected final int capacity;
+
+		/**
+		 * The best photo that was left out or dropped from the board, null if none was
+		 */
+		protected volatile RankKey watermark = null;
+
+		/**
+		 *
+		 */
+		protected Board(int size) {
+			capacity = 2 * size;
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		public synchronized void offer(Photo photo, boolean isRanked) {
+			if (!isRanked) {
+				remove(photo.getId());
+				return;
+			}
+
+			if (!contains(photo.getId()) && size() >= capacity) {
+				RankKey key = new RankKey(photo.getPraise(), photo.getId().asInt());
+				RankKey lowest = ranking.lastKey();
+				if (key.compareTo(lowest) > 0) {
+					raiseWatermark(key);
+					return;
+				}
+				remove(ranking.get(lowest));
+				raiseWatermark(lowest);
+			}
+			update(photo);
+		}
+
+		/**
+		 * @methodtype command
+		 * @methodproperty primitive
+		 */
+		protected void raiseWatermark(RankKey key) {
+			if (watermark == null || key.compareTo(watermark) < 0) {
+				watermark = key;
+			}
+		}
+
+		/**
+		 * Returns the photos known to be in the right order, best first.
+		 *
+		 * @methodtype get
+		 */
+		public Collection<PhotoId> getPhotoIdsInOrder() {
+			RankKey limit = watermark;
+			if (limit == null) {
+				return getPhotoIdsByPraise();
+			}
+			return Collections.unmodifiableCollection(ranking.headMap(limit, false).values());
+		}
+
+		/**
+		 * @methodtype boolean-query
+		 */
+		public boolean isStale(int noShown) {
+			return watermark != null && getPhotoIdsInOrder().size() < noShown;
+		}
+	}
+
+}
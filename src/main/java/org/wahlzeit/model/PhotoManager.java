@@ -24,21 +24,30 @@ import com.google.appengine.api.images.Image;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Work;
 import org.wahlzeit.annotations.PatternInstance;
+import org.wahlzeit.model.persistence.ImageCache;
 import org.wahlzeit.model.persistence.ImageStorage;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.ObjectManager;
 import org.wahlzeit.services.Persistent;
+import org.wahlzeit.services.StartupReport;
 
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Logger;
 
 /**
@@ -55,18 +64,64 @@ public class PhotoManager extends ObjectManager {
 	 */
 	protected static final PhotoManager instance = new SailboatPhotoManager();
 
+	/**
+	 * System property to switch off lazy loading of images at startup
+	 */
+	public static final String LAZY_IMAGE_LOADING_PROPERTY = "wahlzeit.lazyImageLoading";
+
 	private static final Logger log = Logger.getLogger(PhotoManager.class.getName());
 
 	/**
-	 * In-memory cache for photos
+	 * In-memory cache for photos, read and written by concurrent requests
+	 */
+	protected Map<PhotoId, Photo> photoCache = new ConcurrentHashMap<PhotoId, Photo>();
+
+	/**
+	 * Loads of photos that are not cached; threads that miss the same photo wait for the pending load
+	 */
+	protected final ConcurrentMap<PhotoId, CompletableFuture<Photo>> pendingLoads =
+			new ConcurrentHashMap<PhotoId, CompletableFuture<Photo>>();
+
+	/**
+	 * Statistics of getPhotoFromId
 	 */
-	protected Map<PhotoId, Photo> photoCache = new HashMap<PhotoId, Photo>();
+	protected final LongAdder noHits = new LongAdder();
+	protected final LongAdder noMisses = new LongAdder();
+	protected final LongAdder noLoads = new LongAdder();
+	protected final LongAdder loadTimeNanos = new LongAdder();
 
 	/**
 	 *
 	 */
 	protected PhotoTagCollector photoTagCollector = null;
 
+	/**
+	 * If set, only the photo entities are loaded at startup and images are read on their first request
+	 */
+	protected boolean isLazyImageLoading =
+			Boolean.parseBoolean(System.getProperty(LAZY_IMAGE_LOADING_PROPERTY, "true"));
+
+	/**
+	 * In-memory index of the filter conditions of all cached photos
+	 */
+	protected TagIndex tagIndex = new TagIndex();
+
+	/**
+	 * Ids of the photos whose tags in the tag index are the ones stored in the datastore; saving such a photo only
+	 * needs to write the difference
+	 */
+	protected Set<Integer> storedTagPhotoIds = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Bitmaps of the status of all cached photos
+	 */
+	protected PhotoBitmapIndex photoBitmapIndex = new PhotoBitmapIndex();
+
+	/**
+	 * The cached photos of each owner, ranked by praise
+	 */
+	protected final Map<String, PhotoRanking> ownerIndex = new ConcurrentHashMap<String, PhotoRanking>();
+
 	/**
 	 * @methodtype constructor
 	 */
@@ -115,15 +170,111 @@ public class PhotoManager extends ObjectManager {
 		}
 
 		Photo result = doGetPhotoFromId(id);
+		if (result != null) {
+			noHits.increment();
+			return result;
+		}
+
+		noMisses.increment();
+		return loadPhotoOnce(id);
+	}
+
+	/**
+	 * Loads the photo unless another thread is loading it already, in which case the result of that load is
+	 * returned.
+	 *
+	 * @methodtype command
+	 */
+	protected Photo loadPhotoOnce(PhotoId id) {
+		CompletableFuture<Photo> load = new CompletableFuture<Photo>();
+		CompletableFuture<Photo> pendingLoad = pendingLoads.putIfAbsent(id, load);
+		if (pendingLoad != null) {
+			try {
+				return pendingLoad.join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				} else if (e.getCause() instanceof Error) {
+					throw (Error) e.getCause();
+				}
+				throw e;
+			}
+		}
 
-		if (result == null) {
-			result = PhotoFactory.getInstance().loadPhoto(id);
-			if (result != null) {
-				doAddPhoto(result);
+		try {
+			// the photo may have been added since the miss
+			Photo result = doGetPhotoFromId(id);
+			if (result == null) {
+				long startTime = System.nanoTime();
+				result = loadPhoto(id);
+				noLoads.increment();
+				loadTimeNanos.add(System.nanoTime() - startTime);
+				if (result != null) {
+					refreshPraise(Collections.singleton(result));
+					doAddPhoto(result);
+					storedTagPhotoIds.add(id.asInt());
+				}
 			}
+			load.complete(result);
+			return result;
+		} catch (Throwable t) {
+			// also Errors, e.g. a deadline being exceeded, so waiting threads never block forever
+			load.completeExceptionally(t);
+			throw t;
+		} finally {
+			pendingLoads.remove(id, load);
 		}
+	}
 
-		return result;
+	/**
+	 * Reads the praise of the photos from their praise shards, which the photo entities do not include. If that
+	 * fails, the photos show the praise saved with them until they get the next vote or refresh.
+	 *
+	 * @methodtype command
+	 */
+	protected void refreshPraise(Collection<Photo> photos) {
+		try {
+			PraiseCounter.getInstance().refresh(photos);
+		} catch (RuntimeException e) {
+			log.warning(LogBuilder.createSystemMessage().addException("Reading praise of loaded photos failed", e).
+					toString());
+		}
+	}
+
+	/**
+	 * @methodtype factory
+	 * @methodproperties hook
+	 */
+	protected Photo loadPhoto(PhotoId id) {
+		return PhotoFactory.getInstance().loadPhoto(id);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoHits() {
+		return noHits.sum();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoMisses() {
+		return noMisses.sum();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoLoads() {
+		return noLoads.sum();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getLoadTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(loadTimeNanos.sum());
 	}
 
 	/**
@@ -140,7 +291,92 @@ public class PhotoManager extends ObjectManager {
 	 * @methodproperties primitive
 	 */
 	protected void doAddPhoto(Photo myPhoto) {
-		photoCache.put(myPhoto.getId(), myPhoto);
+		Photo previous = photoCache.put(myPhoto.getId(), myPhoto);
+		if (previous != null && previous.getOwnerId() != null &&
+				!previous.getOwnerId().equals(myPhoto.getOwnerId())) {
+			removeFromOwnerIndex(previous.getOwnerId(), previous.getId());
+		}
+		indexPhoto(myPhoto);
+	}
+
+	/**
+	 * @return the cached photo with the id of the given one, or the given photo if there was none
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected Photo doAddPhotoIfAbsent(Photo myPhoto) {
+		Photo current = photoCache.putIfAbsent(myPhoto.getId(), myPhoto);
+		if (current != null) {
+			return current;
+		}
+
+		indexPhoto(myPhoto);
+		return myPhoto;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void indexPhoto(Photo myPhoto) {
+		// the photo may have been created by another instance, from ids leased after the ones of this instance
+		PhotoId.raiseCurrentId(myPhoto.getId().asInt());
+		indexTags(myPhoto);
+		photoBitmapIndex.setStatus(myPhoto.getId().asInt(), myPhoto.getStatus());
+		addToOwnerIndex(myPhoto.getOwnerId(), myPhoto);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void addToOwnerIndex(String ownerId, Photo photo) {
+		if (ownerId != null) {
+			ownerIndex.computeIfAbsent(ownerId, id -> new PhotoRanking()).update(photo);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void removeFromOwnerIndex(String ownerId, PhotoId photoId) {
+		PhotoRanking ranking = ownerIndex.get(ownerId);
+		if (ranking != null) {
+			ranking.remove(photoId);
+		}
+	}
+
+	/**
+	 * Moves a cached photo to its new owner in the owner index; called before the owner of the photo is set.
+	 *
+	 * @methodtype command
+	 */
+	public void changeOwner(Photo photo, String newOwnerId) {
+		if (photoCache.get(photo.getId()) != photo) {
+			return;
+		}
+		if (photo.getOwnerId() != null) {
+			removeFromOwnerIndex(photo.getOwnerId(), photo.getId());
+		}
+		addToOwnerIndex(newOwnerId, photo);
+	}
+
+	/**
+	 * Moves a cached photo to its new place in its owner's ranking and on the leaderboard; called after the praise of
+	 * the photo changed.
+	 *
+	 * @methodtype command
+	 */
+	public void changePraise(Photo photo) {
+		if (photoCache.get(photo.getId()) != photo) {
+			return;
+		}
+		PhotoLeaderboard.getInstance().update(photo);
+		if (photo.getOwnerId() == null) {
+			return;
+		}
+		PhotoRanking ranking = ownerIndex.get(photo.getOwnerId());
+		if (ranking != null && ranking.contains(photo.getId())) {
+			ranking.update(photo);
+		}
 	}
 
 	/**
@@ -163,28 +399,53 @@ public class PhotoManager extends ObjectManager {
 	 * Load all persisted photos. Executed when Wahlzeit is restarted.
 	 */
 	public void loadPhotos() {
-		Collection<Photo> existingPhotos = ObjectifyService.run(new Work<Collection<Photo>>() {
+		long startTime = System.currentTimeMillis();
+
+		// photos are indexed while the next chunk is read, so all photos are never held twice
+		int noLoadedPhotos = ObjectifyService.run(new Work<Integer>() {
 			@Override
-			public Collection<Photo> run() {
-				Collection<Photo> existingPhotos = new ArrayList<Photo>();
-				readObjects(existingPhotos, Photo.class);
-				return existingPhotos;
+			public Integer run() {
+				final int[] result = {0};
+				readObjects(Photo.class, photo -> {
+					if (!doHasPhoto(photo.getId())) {
+						log.config(LogBuilder.createSystemMessage().
+								addParameter("Load Photo with ID", photo.getIdAsString()).toString());
+						if (!isLazyImageLoading) {
+							loadScaledImages(photo);
+						}
+						doAddPhoto(photo);
+						storedTagPhotoIds.add(photo.getId().asInt());
+						result[0]++;
+					} else {
+						log.config(LogBuilder.createSystemMessage().
+								addParameter("Already loaded Photo", photo.getIdAsString()).toString());
+					}
+				});
+				return result[0];
 			}
 		});
 
-		for (Photo photo : existingPhotos) {
-			if (!doHasPhoto(photo.getId())) {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("Load Photo with ID", photo.getIdAsString()).toString());
-				loadScaledImages(photo);
-				doAddPhoto(photo);
-			} else {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("Already loaded Photo", photo.getIdAsString()).toString());
-			}
-		}
+		long duration = System.currentTimeMillis() - startTime;
+		StartupReport.getInstance().addEntry("photos", noLoadedPhotos, duration);
+		log.info(LogBuilder.createSystemMessage().
+				addMessage("All photos loaded.").
+				addParameter("number of photos", noLoadedPhotos).
+				addParameter("lazy image loading", isLazyImageLoading).
+				addParameter("duration in ms", String.valueOf(duration)).toString());
+	}
 
-		log.info(LogBuilder.createSystemMessage().addMessage("All photos loaded.").toString());
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isLazyImageLoading() {
+		return isLazyImageLoading;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setLazyImageLoading(boolean isLazy) {
+		isLazyImageLoading = isLazy;
 	}
 
 	/**
@@ -198,33 +459,27 @@ public class PhotoManager extends ObjectManager {
 	/**
 	 * @methodtype command
 	 * <p>
-	 * Loads all scaled Images of this Photo from Google Cloud Storage
+	 * Loads all scaled Images of this Photo from Google Cloud Storage into the ImageCache, using one read for all sizes
 	 */
 	protected void loadScaledImages(Photo photo) {
 		String photoIdAsString = photo.getId().asString();
-		ImageStorage imageStorage = ImageStorage.getInstance();
-
-		for (PhotoSize photoSize : PhotoSize.values()) {
-			log.config(LogBuilder.createSystemMessage().
-					addAction("loading image").
-					addParameter("image size", photoSize.asString()).
-					addParameter("photo ID", photoIdAsString).toString());
-			if (imageStorage.doesImageExist(photoIdAsString, photoSize.asInt())) {
-				try {
-					Serializable rawImage = imageStorage.readImage(photoIdAsString, photoSize.asInt());
-					if (rawImage != null && rawImage instanceof Image) {
-						photo.setImage(photoSize, (Image) rawImage);
-					}
-				} catch (IOException e) {
-					log.warning(LogBuilder.createSystemMessage().
-							addParameter("size", photoSize.asString()).
-							addParameter("photo ID", photoIdAsString).
-							addException("Could not load image although it exists", e).toString());
+		ImageCache imageCache = ImageCache.getInstance();
+
+		log.config(LogBuilder.createSystemMessage().
+				addAction("loading images").
+				addParameter("photo ID", photoIdAsString).toString());
+		try {
+			Map<PhotoSize, Serializable> rawImages =
+					ImageStorage.getInstance().readImages(photoIdAsString, EnumSet.allOf(PhotoSize.class));
+			for (Map.Entry<PhotoSize, Serializable> entry : rawImages.entrySet()) {
+				if (entry.getValue() instanceof Image) {
+					imageCache.put(photoIdAsString, entry.getKey().asInt(), ((Image) entry.getValue()).getImageData());
 				}
-			} else {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("Size does not exist", photoSize.asString()).toString());
 			}
+		} catch (IOException e) {
+			log.warning(LogBuilder.createSystemMessage().
+					addParameter("photo ID", photoIdAsString).
+					addException("Could not load images", e).toString());
 		}
 	}
 
@@ -241,12 +496,25 @@ public class PhotoManager extends ObjectManager {
 			Photo photo = (Photo) obj;
 			saveScaledImages(photo);
 			updateTags(photo);
+			photoBitmapIndex.setStatus(photo.getId().asInt(), photo.getStatus());
 			UserManager userManager = UserManager.getInstance();
 			Client owner = userManager.getClientById(photo.getOwnerId());
 			userManager.saveClient(owner);
 		}
 	}
 
+	/**
+	 * @methodtype helper
+	 */
+	public List<PhotoId> getPhotoIdsThatMatchConditions(List<String> conditions) {
+		int[] ids = tagIndex.getPhotoIdsMatchingAll(conditions);
+		List<PhotoId> result = new ArrayList<PhotoId>(ids.length);
+		for (int id : ids) {
+			result.add(PhotoId.getIdFromInt(id));
+		}
+		return result;
+	}
+
 	/**
 	 * @methodtype helper
 	 */
@@ -263,48 +531,148 @@ public class PhotoManager extends ObjectManager {
 	 */
 	protected void saveScaledImages(Photo photo) {
 		String photoIdAsString = photo.getId().asString();
-		ImageStorage imageStorage = ImageStorage.getInstance();
-		PhotoSize photoSize;
-		int it = 0;
-		boolean moreSizesExist = true;
-		do {
-			photoSize = PhotoSize.values()[it];
-			it++;
-			Image image = photo.getImage(photoSize);
-			if (image != null) {
-				try {
-					if (!imageStorage.doesImageExist(photoIdAsString, photoSize.asInt())) {
-						imageStorage.writeImage(image, photoIdAsString, photoSize.asInt());
-					}
-				} catch (Exception e) {
-					log.warning(LogBuilder.createSystemMessage().
-							addException("Problem when storing image", e).toString());
-					moreSizesExist = false;
-				}
-			} else {
+
+		// images that are not held by the photo anymore have already been persisted
+		Map<PhotoSize, Image> unsavedImages = new EnumMap<PhotoSize, Image>(PhotoSize.class);
+		for (PhotoSize photoSize : PhotoSize.values()) {
+			Image image = photo.getUnsavedImage(photoSize);
+			if (image == null) {
 				log.config(LogBuilder.createSystemMessage().
 						addParameter("No image for size", photoSize.asString()).toString());
-				moreSizesExist = false;
+				break;
 			}
-		} while (it < PhotoSize.values().length && moreSizesExist);
+			unsavedImages.put(photoSize, image);
+		}
+		if (unsavedImages.isEmpty()) {
+			return;
+		}
+
+		try {
+			ImageStorage imageStorage = ImageStorage.getInstance();
+			EnumSet<PhotoSize> savedSizes = imageStorage.existingSizes(photoIdAsString);
+			Map<PhotoSize, Image> imagesToWrite = new EnumMap<PhotoSize, Image>(unsavedImages);
+			imagesToWrite.keySet().removeAll(savedSizes);
+			if (!imagesToWrite.isEmpty()) {
+				savedSizes.addAll(imageStorage.writeImages(photoIdAsString, imagesToWrite));
+			}
+			for (PhotoSize photoSize : unsavedImages.keySet()) {
+				if (savedSizes.contains(photoSize)) {
+					photo.releaseImage(photoSize);
+				}
+			}
+		} catch (Exception e) {
+			log.warning(LogBuilder.createSystemMessage().
+					addException("Problem when storing images", e).toString());
+		}
 	}
 
 	/**
-	 * Removes all tags of the Photo (obj) in the datastore that have been removed by the user and adds all new tags of
-	 * the photo to the datastore.
+	 * Removes the tags of the Photo (obj) in the datastore that have been removed by the user and adds the new tags of
+	 * the photo to the datastore. Unchanged tags are not written.
+	 * <p>
+	 * If the stored tags of the photo are known from the tag index, they are diffed in memory and the datastore is
+	 * only queried to delete removed tags. Otherwise the stored tags are read first.
 	 */
 	protected void updateTags(Photo photo) {
-		// delete all existing tags, for the case that some have been removed
-		deleteObjects(Tag.class, Tag.PHOTO_ID, photo.getId().asString());
+		int photoId = photo.getId().asInt();
+		Set<String> tags = new HashSet<String>();
+		photoTagCollector.collect(tags, photo);
+
+		if (!storedTagPhotoIds.remove(photoId)) {
+			doUpdateTags(photo, tags, null);
+		} else {
+			Set<String> indexedTags = tagIndex.getConditions(photoId);
+			if (!indexedTags.equals(tags)) {
+				doUpdateTags(photo, tags, indexedTags);
+			}
+		}
+
+		tagIndex.setConditions(photoId, tags);
+		storedTagPhotoIds.add(photoId);
+	}
+
+	/**
+	 * @param storedTags the texts of the stored tags of the photo, or null if they are not known
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected void doUpdateTags(Photo photo, Set<String> tags, Set<String> storedTags) {
+		String photoIdAsString = photo.getId().asString();
+
+		List<Tag> removedTags = new ArrayList<Tag>();
+		Set<String> keptTags = new HashSet<String>();
+		if (storedTags == null || !tags.containsAll(storedTags)) {
+			List<Tag> storedTagEntities = new ArrayList<Tag>();
+			readObjects(storedTagEntities, Tag.class, Tag.PHOTO_ID, photoIdAsString);
+
+			// duplicates of a stored tag are removed as well
+			for (Tag storedTag : storedTagEntities) {
+				if (!tags.contains(storedTag.getText()) || !keptTags.add(storedTag.getText())) {
+					removedTags.add(storedTag);
+				}
+			}
+		} else {
+			keptTags.addAll(storedTags);
+		}
+
+		List<Tag> addedTags = new ArrayList<Tag>();
+		for (String text : tags) {
+			if (!keptTags.contains(text)) {
+				addedTags.add(new Tag(text, photoIdAsString));
+			}
+		}
+
+		if (!removedTags.isEmpty()) {
+			log.config(LogBuilder.createSystemMessage().addParameter("Deleting Tags", removedTags.size()).toString());
+			deleteObjects(removedTags);
+		}
+		if (!addedTags.isEmpty()) {
+			log.config(LogBuilder.createSystemMessage().addParameter("Writing Tags", addedTags.size()).toString());
+			writeObjects(addedTags);
+		}
+	}
 
-		// add all current tags to the datastore
+	/**
+	 * @methodtype command
+	 * <p>
+	 * Puts the current tags of the photo into the in-memory tag index. Whether they are stored is not known here, so
+	 * the next save of the photo reads its stored tags.
+	 */
+	protected void indexTags(Photo photo) {
 		Set<String> tags = new HashSet<String>();
 		photoTagCollector.collect(tags, photo);
-		for (Iterator<String> i = tags.iterator(); i.hasNext(); ) {
-			Tag tag = new Tag(i.next(), photo.getId().asString());
-			log.config(LogBuilder.createSystemMessage().addParameter("Writing Tag", tag.asString()).toString());
-			writeObject(tag);
+		storedTagPhotoIds.remove(photo.getId().asInt());
+		tagIndex.setConditions(photo.getId().asInt(), tags);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public TagIndex getTagIndex() {
+		return tagIndex;
+	}
+
+	/**
+	 * @methodtype set
+	 * <p>
+	 * Sets the status of the photo and keeps the status bitmaps up to date.
+	 */
+	public void setPhotoStatus(Photo photo, PhotoStatus status) {
+		if (photo == null) {
+			throw new IllegalArgumentException("The photo must not be null.");
 		}
+		photo.setStatus(status);
+		photoBitmapIndex.setStatus(photo.getId().asInt(), status);
+		if (photoCache.get(photo.getId()) == photo) {
+			PhotoLeaderboard.getInstance().update(photo);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public PhotoBitmapIndex getPhotoBitmapIndex() {
+		return photoBitmapIndex;
 	}
 
 	/**
@@ -314,6 +682,44 @@ public class PhotoManager extends ObjectManager {
 		updateObjects(photoCache.values());
 	}
 
+	/**
+	 * @return the encoded image or null if there is no such image
+	 * @methodtype get
+	 * <p>
+	 * Looks the image up in the ImageCache first, then in the not yet persisted images of the photo, and finally in
+	 * the ImageStorage. Images found outside of the cache are put into it.
+	 */
+	public byte[] getImageData(String photoIdAsString, int size) {
+		ImageCache imageCache = ImageCache.getInstance();
+		byte[] result = imageCache.get(photoIdAsString, size);
+		if (result != null) {
+			return result;
+		}
+
+		Image image = null;
+		Photo photo = getPhoto(photoIdAsString);
+		if (photo != null) {
+			image = photo.getUnsavedImage(PhotoSize.getFromInt(size));
+		}
+
+		if (image == null) {
+			try {
+				Serializable rawImage = ImageStorage.getInstance().readImage(photoIdAsString, size);
+				if (rawImage instanceof Image) {
+					image = (Image) rawImage;
+				}
+			} catch (IOException e) {
+				log.warning(LogBuilder.createSystemMessage().addException("Problem when reading image.", e).toString());
+			}
+		}
+
+		if (image != null) {
+			result = image.getImageData();
+			imageCache.put(photoIdAsString, size, result);
+		}
+		return result;
+	}
+
 	/**
 	 * @methodtype get
 	 */
@@ -325,13 +731,110 @@ public class PhotoManager extends ObjectManager {
 	 *
 	 */
 	public Set<Photo> findPhotosByOwner(String ownerName) {
+		assertIsNonNullArgument(ownerName, "ownerName");
+
 		Set<Photo> result = new HashSet<Photo>();
-		readObjects(result, Photo.class, Photo.OWNER_ID, ownerName);
+		PhotoRanking ranking = ownerIndex.get(ownerName);
+		if (ranking != null) {
+			for (PhotoId photoId : ranking.getPhotoIds()) {
+				Photo photo = photoCache.get(photoId);
+				if (photo != null) {
+					result.add(photo);
+				}
+			}
+		}
+
+		return result;
+	}
 
-		for (Iterator<Photo> i = result.iterator(); i.hasNext(); ) {
-			doAddPhoto(i.next());
+	/**
+	 * Returns one page of the owner's photos that are not deleted, best praised first. Only the photos up to the end
+	 * of the page are looked at.
+	 *
+	 * @methodtype get
+	 */
+	public List<Photo> getPhotosByPraise(String ownerName, int pageNo, int pageSize) {
+		assertIsNonNullArgument(ownerName, "ownerName");
+		if (pageNo < 0 || pageSize < 0) {
+			throw new IllegalArgumentException("The page number and size must not be negative.");
+		}
+
+		List<Photo> result = new ArrayList<Photo>(pageSize);
+		PhotoRanking ranking = ownerIndex.get(ownerName);
+		if (ranking == null) {
+			return result;
 		}
 
+		long toSkip = (long) pageNo * pageSize;
+		for (PhotoId photoId : ranking.getPhotoIdsByPraise()) {
+			if (result.size() >= pageSize) {
+				break;
+			}
+			Photo photo = photoCache.get(photoId);
+			if (photo == null || photo.getStatus().isDeleted()) {
+				continue;
+			}
+			if (toSkip > 0) {
+				toSkip--;
+			} else {
+				result.add(photo);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the owner's photos that are missing from the owner index, e.g. photos uploaded on another instance,
+	 * loading them from the datastore if needed.
+	 *
+	 * @methodtype command
+	 */
+	public void completeOwnerIndex(String ownerName, Collection<PhotoId> photoIds) {
+		assertIsNonNullArgument(ownerName, "ownerName");
+		assertIsNonNullArgument(photoIds, "photoIds");
+
+		for (PhotoId photoId : photoIds) {
+			PhotoRanking ranking = ownerIndex.get(ownerName);
+			if (ranking != null && ranking.contains(photoId)) {
+				continue;
+			}
+			Photo photo = getPhotoFromId(photoId);
+			if (photo != null && ownerName.equals(photo.getOwnerId())) {
+				addToOwnerIndex(ownerName, photo);
+			}
+		}
+	}
+
+	/**
+	 * Compares the owner index with the photos stored in the datastore. Photos that are not saved yet show up as
+	 * differences, so all photos should be saved first. Must be called within an Objectify context.
+	 *
+	 * @return the owners whose indexed photos differ from their stored photos
+	 * @methodtype query
+	 */
+	public Set<String> findOwnerIndexInconsistencies() {
+		Set<String> owners = new HashSet<String>(ownerIndex.keySet());
+		for (Photo photo : photoCache.values()) {
+			if (photo.getOwnerId() != null) {
+				owners.add(photo.getOwnerId());
+			}
+		}
+
+		Set<String> result = new HashSet<String>();
+		for (String owner : owners) {
+			Set<Photo> storedPhotos = new HashSet<Photo>();
+			readObjects(storedPhotos, Photo.class, Photo.OWNER_ID, owner);
+			Set<PhotoId> storedIds = new HashSet<PhotoId>();
+			for (Photo photo : storedPhotos) {
+				storedIds.add(photo.getId());
+			}
+
+			PhotoRanking ranking = ownerIndex.get(owner);
+			Set<PhotoId> indexedIds = ranking != null ? ranking.getPhotoIds() : Collections.<PhotoId>emptySet();
+			if (!storedIds.equals(new HashSet<PhotoId>(indexedIds))) {
+				result.add(owner);
+			}
+		}
 		return result;
 	}
 
@@ -375,8 +878,6 @@ public class PhotoManager extends ObjectManager {
 		PhotoId id = photo.getId();
 		assertIsNewPhoto(id);
 		doAddPhoto(photo);
-
-		GlobalsManager.getInstance().saveGlobals();
 	}
 
 	/**
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The photos of one owner ordered by praise, best first. The order is kept up to date as votes come in, so a page
+ * of the ranking can be read without sorting.
+ */
+public class PhotoRanking {
+
+	/**
+	 * The ranking itself
+	 */
+	protected final NavigableMap<RankKey, PhotoId> ranking = new ConcurrentSkipListMap<RankKey, PhotoId>();
+
+	/**
+	 * The current position of each ranked photo
+	 */
+	protected final Map<PhotoId, RankKey> positions = new ConcurrentHashMap<PhotoId, RankKey>();
+
+	/**
+	 * Adds the photo or moves it to the position of its current praise.
+	 *
+	 * @methodtype command
+	 */
+	public synchronized void update(Photo photo) {
+		if (photo == null) {
+			throw new IllegalArgumentException("The photo must not be null.");
+		}
+
+		RankKey newKey = new RankKey(photo.getPraise(), photo.getId().asInt());
+		RankKey oldKey = positions.put(photo.getId(), newKey);
+		if (oldKey != null) {
+			ranking.remove(oldKey);
+		}
+		ranking.put(newKey, photo.getId());
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void remove(PhotoId photoId) {
+		RankKey oldKey = positions.remove(photoId);
+		if (oldKey != null) {
+			ranking.remove(oldKey);
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean contains(PhotoId photoId) {
+		return positions.containsKey(photoId);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int size() {
+		return positions.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Set<PhotoId> getPhotoIds() {
+		return Collections.unmodifiableSet(positions.keySet());
+	}
+
+	/**
+	 * Returns a live view of the ranked photo ids, best first; it is safe to iterate while the ranking changes.
+	 *
+	 * @methodtype get
+	 */
+	public Collection<PhotoId> getPhotoIdsByPraise() {
+		return Collections.unmodifiableCollection(ranking.values());
+	}
+
+	/**
+	 * Position of a photo in the ranking; higher praise comes first, ties are broken by photo id.
+	 */
+	protected static class RankKey implements Comparable<RankKey> {
+
+		/**
+		 *
+		 */
+		protected final double praise;
+		protected final int photoId;
+
+		/**
+		 *
+		 */
+		protected RankKey(double praise, int photoId) {
+			this.praise = praise;
+			this.photoId = photoId;
+		}
+
+		/**
+		 *
+		 */
+		@Override
+		public int compareTo(RankKey other) {
+			int result = Double.compare(other.praise, praise);
+			if (result == 0) {
+				result = Integer.compare(photoId, other.photoId);
+			}
+			return result;
+		}
+
+		/**
+		 *
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof RankKey)) {
+				return false;
+			}
+			return compareTo((RankKey) obj) == 0;
+		}
+
+		/**
+		 *
+		 */
+		@Override
+		public int hashCode() {
+			return 31 * Double.hashCode(praise) + photoId;
+		}
+	}
+
+}
@@ -20,12 +20,28 @@
 
 package org.wahlzeit.model;
 
+import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.images.Image;
 import com.google.appengine.api.images.ImagesService;
 import com.google.appengine.api.images.ImagesServiceFactory;
 import com.google.appengine.api.images.Transform;
+import com.google.apphosting.api.ApiProxy;
 import org.wahlzeit.services.LogBuilder;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 /**
@@ -36,6 +52,25 @@ public class PhotoUtil {
 
 	private static final Logger log = Logger.getLogger(PhotoUtil.class.getName());
 
+	/**
+	 * Upper bound of threads that scale images, shared by all uploads of this instance
+	 */
+	public static final String MAX_SCALING_THREADS_PROPERTY = "wahlzeit.upload.maxScalingThreads";
+	public static final int DEFAULT_MAX_SCALING_THREADS = 4;
+
+	/**
+	 * Scalings waiting for a thread; if more are submitted, the uploading request scales the image itself
+	 */
+	protected static final int MAX_QUEUED_SCALINGS_PER_THREAD = 4;
+
+	protected static final long SCALING_THREAD_KEEP_ALIVE_MILLIS = 60 * 1000;
+
+	/**
+	 * Created on first use; null while no threads can be created, then all images are scaled by the request
+	 */
+	protected static ThreadPoolExecutor scalingExecutor;
+	protected static boolean isScalingExecutorAvailable = true;
+
 	/**
 	 * @methodtype creation
 	 */
@@ -54,6 +89,9 @@ public class PhotoUtil {
 
 	/**
 	 * @methodtype factory
+	 * <p>
+	 * Only the largest needed size is scaled from the (possibly huge) source. All smaller sizes are scaled in parallel
+	 * from that rendition, which is much cheaper to copy and transform than the source.
 	 */
 	public static void createImageFiles(Image source, Photo photo) throws Exception {
 		assertIsValidImage(source);
@@ -62,11 +100,137 @@ public class PhotoUtil {
 		int sourceHeight = source.getHeight();
 		assertHasValidSize(sourceWidth, sourceHeight);
 
+		long startTime = System.currentTimeMillis();
+		List<PhotoSize> sizes = new ArrayList<PhotoSize>();
 		for (PhotoSize size : PhotoSize.values()) {
 			if (!size.isWiderAndHigher(sourceWidth, sourceHeight)) {
-				scaleImage(ImagesServiceFactory.makeImage(source.getImageData()), size, photo);
+				sizes.add(size);
+			}
+		}
+
+		// applyTransform also changes the image it is given, so only hand out copies
+		PhotoSize largestSize = sizes.remove(sizes.size() - 1);
+		final Image largestImage = scaleImage(ImagesServiceFactory.makeImage(source.getImageData()), largestSize);
+		photo.setImage(largestSize, largestImage);
+
+		if (!sizes.isEmpty()) {
+			Map<PhotoSize, Future<Image>> scaledImages = new EnumMap<PhotoSize, Future<Image>>(PhotoSize.class);
+			try {
+				for (final PhotoSize size : sizes) {
+					scaledImages.put(size, submitScaling(new Callable<Image>() {
+						@Override
+						public Image call() throws Exception {
+							return scaleImage(ImagesServiceFactory.makeImage(largestImage.getImageData()), size);
+						}
+					}));
+				}
+				for (Map.Entry<PhotoSize, Future<Image>> entry : scaledImages.entrySet()) {
+					photo.setImage(entry.getKey(), entry.getValue().get());
+				}
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				throw cause instanceof Exception ? (Exception) cause : e;
+			} finally {
+				// the threads are shared, so only stop the scalings of this upload
+				for (Future<Image> scaledImage : scaledImages.values()) {
+					scaledImage.cancel(true);
+				}
 			}
 		}
+
+		log.config(LogBuilder.createSystemMessage().
+				addParameter("Created image sizes", sizes.size() + 1).
+				addParameter("duration in ms", String.valueOf(System.currentTimeMillis() - startTime)).toString());
+	}
+
+	/**
+	 * Runs the scaling on the shared executor. If no thread can be created for it, e.g. because background threads
+	 * are not available with automatic scaling, the scaling is run by the calling thread instead.
+	 *
+	 * @methodtype command
+	 */
+	protected static Future<Image> submitScaling(Callable<Image> scaling) {
+		ThreadPoolExecutor executor = getScalingExecutor();
+		if (executor != null) {
+			try {
+				return executor.submit(scaling);
+			} catch (RuntimeException e) {
+				disableScalingExecutor(executor, e);
+			}
+		}
+
+		FutureTask<Image> result = new FutureTask<Image>(scaling);
+		result.run();
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected static synchronized ThreadPoolExecutor getScalingExecutor() {
+		if (scalingExecutor == null && isScalingExecutorAvailable) {
+			int noThreads = Math.max(1, Integer.getInteger(MAX_SCALING_THREADS_PROPERTY, DEFAULT_MAX_SCALING_THREADS));
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(noThreads, noThreads,
+					SCALING_THREAD_KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<Runnable>(noThreads * MAX_QUEUED_SCALINGS_PER_THREAD),
+					getThreadFactory(), new RejectedExecutionHandler() {
+						@Override
+						public void rejectedExecution(Runnable scaling, ThreadPoolExecutor executor) {
+							// also while shutting down, so that no upload waits for a scaling that never runs
+							scaling.run();
+						}
+					});
+			executor.allowCoreThreadTimeOut(true);
+			scalingExecutor = executor;
+		}
+		return scalingExecutor;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected static synchronized void disableScalingExecutor(ThreadPoolExecutor executor, RuntimeException cause) {
+		if (scalingExecutor != executor) {
+			return;
+		}
+		log.warning(LogBuilder.createSystemMessage().
+				addException("No scaling thread available, images are scaled by the request", cause).toString());
+		scalingExecutor = null;
+		isScalingExecutorAvailable = false;
+		executor.shutdown();
+	}
+
+	/**
+	 * Stops the shared scaling threads; scalings already submitted are still completed.
+	 *
+	 * @methodtype command
+	 */
+	public static synchronized void shutDown() {
+		if (scalingExecutor != null) {
+			scalingExecutor.shutdown();
+			scalingExecutor = null;
+		}
+	}
+
+	/**
+	 * The scaling threads outlive the request that created them, so on App Engine they have to be background
+	 * threads of the ThreadManager. Outside of App Engine, e.g. in tools, plain daemon threads are used.
+	 *
+	 * @methodtype get
+	 */
+	protected static ThreadFactory getThreadFactory() {
+		if (ApiProxy.getCurrentEnvironment() != null) {
+			return ThreadManager.backgroundThreadFactory();
+		}
+		final AtomicInteger noThreads = new AtomicInteger();
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread result = new Thread(runnable, "image-scaling-" + noThreads.incrementAndGet());
+				result.setDaemon(true);
+				return result;
+			}
+		};
 	}
 
 	/**
@@ -88,11 +252,12 @@ public class PhotoUtil {
 	}
 
 	/**
-	 * @methodtype command
+	 * @methodtype factory
 	 *
-	 * Scale the source picture to the given size, store it in the datastore and reference it in the photo.
+	 * Scale the source picture to the given size. The source itself is changed as well by the transformation.
 	 */
-	protected static void scaleImage(Image source, PhotoSize size, Photo photo) throws Exception {
+	protected static Image scaleImage(Image source, PhotoSize size) throws Exception {
+		long startTime = System.currentTimeMillis();
 		int sourceWidth = source.getWidth();
 		int sourceHeight = source.getHeight();
 
@@ -101,11 +266,12 @@ public class PhotoUtil {
 
 		ImagesService imagesService = ImagesServiceFactory.getImagesService();
 		Transform resize = ImagesServiceFactory.makeResize(targetWidth, targetHeight);
-		Image newImage = imagesService.applyTransform(resize, source);
-
-		photo.setImage(size, newImage);
+		Image result = imagesService.applyTransform(resize, source);
 
-		log.config(LogBuilder.createSystemMessage().addParameter("Scaled image to size", size.asString()).toString());
+		log.config(LogBuilder.createSystemMessage().
+				addParameter("Scaled image to size", size.asString()).
+				addParameter("duration in ms", String.valueOf(System.currentTimeMillis() - startTime)).toString());
+		return result;
 	}
 
 }
@@ -0,0 +1,598 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.apphosting.api.ApiProxy;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.Work;
+import org.wahlzeit.services.DataObject;
+import org.wahlzeit.services.LogBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import static org.wahlzeit.services.OfyService.ofy;
+
+/**
+ * Aggregates the praise of photos. Votes are counted in striped counters of the photo without locking; the counter
+ * adds the praise collected since the last flush to one randomly chosen praise shard of each photo, for up to
+ * maxBatchSize photos in one transaction. As every instance only ever adds to the shards, no vote is lost, however
+ * many instances count votes for the same photo.
+ * <p>
+ * With a background thread, pending praise is flushed every flushInterval milliseconds. Without one, which is the
+ * case on App Engine with automatic scaling, pending praise is flushed by a request once it is due, i.e. once
+ * maxBatchSize photos are pending or the first of them has been pending for flushInterval milliseconds. Requests
+ * check this when counting a vote and when they end; the flushPraise agent flushes the praise of idle instances.
+ */
+public class PraiseCounter {
+
+	private static final Logger log = Logger.getLogger(PraiseCounter.class.getName());
+
+	/**
+	 *
+	 */
+	public static final String NO_SHARDS_PROPERTY = "wahlzeit.praise.noShards";
+	public static final String MAX_BATCH_SIZE_PROPERTY = "wahlzeit.praise.maxBatchSize";
+	public static final String FLUSH_INTERVAL_PROPERTY = "wahlzeit.praise.flushIntervalMillis";
+
+	/**
+	 * A transaction spans at most 25 entity groups, i.e. shards. The number of shards must never be lowered, as the
+	 * praise of the dropped shards would no longer be read.
+	 */
+	public static final int MAX_BATCH_SIZE_LIMIT = 25;
+	public static final int DEFAULT_NO_SHARDS = 16;
+	public static final int DEFAULT_MAX_BATCH_SIZE = MAX_BATCH_SIZE_LIMIT;
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+	/**
+	 * Shards saved shortly before the last refresh by another instance are read again, to tolerate clock skew
+	 */
+	protected static final long CLOCK_SKEW_MARGIN_MILLIS = 60 * 1000;
+
+	/**
+	 *
+	 */
+	private static volatile PraiseCounter instance = new PraiseCounter(
+			Integer.getInteger(NO_SHARDS_PROPERTY, DEFAULT_NO_SHARDS),
+			Integer.getInteger(MAX_BATCH_SIZE_PROPERTY, DEFAULT_MAX_BATCH_SIZE),
+			Long.getLong(FLUSH_INTERVAL_PROPERTY, DEFAULT_FLUSH_INTERVAL));
+
+	/**
+	 *
+	 */
+	protected final int noShards;
+	protected final int maxBatchSize;
+	protected final long flushInterval;
+
+	/**
+	 * Photos that received votes since they were flushed last
+	 */
+	protected final Map<PhotoId, Photo> pending = new ConcurrentHashMap<PhotoId, Photo>();
+
+	/**
+	 * Time the first of the pending photos became pending at, 0 if none did since the last flush
+	 */
+	protected final AtomicLong firstPendingTime = new AtomicLong();
+
+	/**
+	 * Held while flushing, so the praise of a photo is never flushed twice
+	 */
+	protected final ReentrantLock flushLock = new ReentrantLock();
+
+	/**
+	 * Time the shards were last refreshed at, 0 if never
+	 */
+	protected volatile long lastRefreshTime = 0;
+
+	/**
+	 * Null if votes are flushed by the voting requests
+	 */
+	protected volatile ScheduledExecutorService flusher = null;
+
+	/**
+	 *
+	 */
+	public PraiseCounter(int noShards, int maxBatchSize, long flushInterval) {
+		if (noShards <= 0 || flushInterval <= 0) {
+			throw new IllegalArgumentException("Number of shards and flush interval must be positive!");
+		}
+		if (maxBatchSize <= 0 || maxBatchSize > MAX_BATCH_SIZE_LIMIT) {
+			throw new IllegalArgumentException("Batch size must be between 1 and " + MAX_BATCH_SIZE_LIMIT + "!");
+		}
+		this.noShards = noShards;
+		this.maxBatchSize = maxBatchSize;
+		this.flushInterval = flushInterval;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public static PraiseCounter getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public static void setInstance(PraiseCounter newInstance) {
+		instance = newInstance;
+	}
+
+	/**
+	 * Starts flushing in the background. Falls back to flushing from the voting requests if no background thread
+	 * can be created.
+	 *
+	 * @methodtype command
+	 */
+	public synchronized void start() {
+		if (flusher != null) {
+			return;
+		}
+		try {
+			ScheduledExecutorService newFlusher = Executors.newSingleThreadScheduledExecutor(getThreadFactory());
+			newFlusher.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						flush();
+					} catch (RuntimeException e) {
+						// keep the flusher alive, the praise is still pending
+						log.warning(LogBuilder.createSystemMessage().addException("Flushing praise failed", e).toString());
+					}
+				}
+			}, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+			flusher = newFlusher;
+			log.config(LogBuilder.createSystemMessage().
+					addAction("start praise counter").
+					addParameter("flush interval", String.valueOf(flushInterval)).toString());
+		} catch (RuntimeException e) {
+			log.warning(LogBuilder.createSystemMessage().
+					addException("No background thread available, votes are flushed by the requests", e).toString());
+		}
+	}
+
+	/**
+	 * Stops the background flushing and flushes all pending praise.
+	 *
+	 * @methodtype command
+	 */
+	public void shutDown() {
+		ScheduledExecutorService oldFlusher;
+		synchronized (this) {
+			oldFlusher = flusher;
+			flusher = null;
+		}
+		if (oldFlusher != null) {
+			oldFlusher.shutdown();
+			try {
+				oldFlusher.awaitTermination(flushInterval, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		flush();
+	}
+
+	/**
+	 * Remembers that the photo has praise to flush; called after the praise was added to the photo.
+	 *
+	 * @methodtype command
+	 */
+	public void addPending(Photo photo) {
+		// reading first keeps votes for the same photo from contending for the map
+		if (!pending.containsKey(photo.getId())) {
+			doAddPending(photo);
+		}
+		if (flusher == null) {
+			flushIfDue();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected void doAddPending(Photo photo) {
+		pending.putIfAbsent(photo.getId(), photo);
+		firstPendingTime.compareAndSet(0, System.currentTimeMillis());
+	}
+
+	/**
+	 * Flushes the pending praise if it is due and no other thread is flushing; cheap enough to call from any request.
+	 *
+	 * @methodtype command
+	 */
+	public void flushIfDue() {
+		if (isFlushDue()) {
+			flushUnlessFlushing();
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isFlushDue() {
+		long firstTime = firstPendingTime.get();
+		if (firstTime == 0) {
+			return false;
+		}
+		return pending.size() >= maxBatchSize || System.currentTimeMillis() - firstTime >= flushInterval;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoPending() {
+		return pending.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoShards() {
+		return noShards;
+	}
+
+	/**
+	 * Flushes all pending praise, waiting for a running flush to finish first.
+	 *
+	 * @methodtype command
+	 */
+	public void flush() {
+		flushLock.lock();
+		try {
+			doFlush();
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	/**
+	 * Flushes all pending praise unless another thread is flushing. Whether a flush is due is checked again after
+	 * unlocking, so praise that became due while this or another thread was flushing is not left behind.
+	 *
+	 * @methodtype command
+	 */
+	protected void flushUnlessFlushing() {
+		while (isFlushDue() && flushLock.tryLock()) {
+			boolean isFlushed;
+			try {
+				isFlushed = doFlush();
+			} finally {
+				flushLock.unlock();
+			}
+			if (!isFlushed) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Takes the pending photos and flushes them in batches. Photos of failed batches stay pending.
+	 *
+	 * @methodtype command
+	 */
+	protected boolean doFlush() {
+		// reset first, so photos becoming pending while taking them are flushed in time
+		firstPendingTime.set(0);
+		List<Photo> photos = new ArrayList<Photo>();
+		for (Iterator<Photo> i = pending.values().iterator(); i.hasNext(); ) {
+			photos.add(i.next());
+			i.remove();
+		}
+
+		boolean result = true;
+		for (int i = 0; i < photos.size(); i += maxBatchSize) {
+			List<Photo> batch = photos.subList(i, Math.min(photos.size(), i + maxBatchSize));
+			try {
+				flushBatch(batch);
+			} catch (RuntimeException e) {
+				log.warning(LogBuilder.createSystemMessage().
+						addException("Flushing praise failed, retrying with the next flush", e).toString());
+				for (Photo photo : batch) {
+					doAddPending(photo);
+				}
+				result = false;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the pending praise of the photos to their shards in one transaction, then reads back the totals, which
+	 * include the praise other instances flushed.
+	 *
+	 * @methodtype command
+	 */
+	protected void flushBatch(List<Photo> photos) {
+		final List<Photo> toFlush = new ArrayList<Photo>(photos.size());
+		final List<long[]> deltas = new ArrayList<long[]>(photos.size());
+		for (Photo photo : photos) {
+			long praiseSum = photo.getPendingPraiseSum();
+			long noVotes = photo.getPendingNoVotes();
+			if (praiseSum != 0 || noVotes != 0) {
+				toFlush.add(photo);
+				deltas.add(new long[]{praiseSum, noVotes});
+			}
+		}
+		if (toFlush.isEmpty()) {
+			return;
+		}
+
+		writeToShards(toFlush, deltas);
+		for (int i = 0; i < toFlush.size(); i++) {
+			toFlush.get(i).addStoredPraise(deltas.get(i)[0], deltas.get(i)[1]);
+		}
+
+		try {
+			refresh(toFlush);
+		} catch (RuntimeException e) {
+			// the flushed praise is already counted, only the praise of other instances shows up later
+			log.warning(LogBuilder.createSystemMessage().addException("Reading praise shards failed", e).toString());
+		}
+	}
+
+	/**
+	 * Adds each delta to a randomly chosen shard of its photo; all photos must be distinct.
+	 *
+	 * @methodtype command
+	 */
+	protected void writeToShards(final List<Photo> photos, final List<long[]> deltas) {
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				ofy().transact(new VoidWork() {
+					@Override
+					public void vrun() {
+						List<String> shardIds = new ArrayList<String>(photos.size());
+						List<Integer> shardNos = new ArrayList<Integer>(photos.size());
+						for (Photo photo : photos) {
+							int shardNo = ThreadLocalRandom.current().nextInt(noShards);
+							shardIds.add(PraiseShard.getShardId(photo.getId(), shardNo));
+							shardNos.add(shardNo);
+						}
+
+						Map<String, PraiseShard> shards = ofy().load().type(PraiseShard.class).ids(shardIds);
+						List<PraiseShard> toSave = new ArrayList<PraiseShard>(photos.size());
+						for (int i = 0; i < photos.size(); i++) {
+							PraiseShard shard = shards.get(shardIds.get(i));
+							if (shard == null) {
+								shard = new PraiseShard(photos.get(i).getId(), shardNos.get(i));
+							}
+							shard.addToPraise(deltas.get(i)[0], deltas.get(i)[1]);
+							toSave.add(shard);
+						}
+						ofy().save().entities(toSave).now();
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Reads the totals of the shards of the photos and updates the praise and rankings of those photos. Holds the
+	 * flush lock, so no flushed praise is read back before it was moved from the pending to the stored praise.
+	 *
+	 * @methodtype command
+	 */
+	public void refresh(Collection<Photo> photos) {
+		flushLock.lock();
+		try {
+			List<Photo> batch = new ArrayList<Photo>(maxBatchSize);
+			for (Photo photo : photos) {
+				batch.add(photo);
+				if (batch.size() == maxBatchSize) {
+					doRefresh(batch);
+					batch.clear();
+				}
+			}
+			if (!batch.isEmpty()) {
+				doRefresh(batch);
+			}
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	/**
+	 * Refreshes photos that were added to the photo cache. Until the first refreshAll, which reads the shards of all
+	 * cached photos anyway, there is nothing to read. Checking that under the flush lock makes sure the photos are
+	 * refreshed by one of the two.
+	 *
+	 * @methodtype command
+	 */
+	public void refreshAdded(Collection<Photo> photos) {
+		flushLock.lock();
+		try {
+			if (lastRefreshTime != 0) {
+				refresh(photos);
+			}
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void doRefresh(final List<Photo> photos) {
+		final List<String> shardIds = new ArrayList<String>(photos.size() * noShards);
+		for (Photo photo : photos) {
+			for (int shardNo = 0; shardNo < noShards; shardNo++) {
+				shardIds.add(PraiseShard.getShardId(photo.getId(), shardNo));
+			}
+		}
+
+		Map<String, PraiseShard> shards = ObjectifyService.run(new Work<Map<String, PraiseShard>>() {
+			@Override
+			public Map<String, PraiseShard> run() {
+				return ofy().load().type(PraiseShard.class).ids(shardIds);
+			}
+		});
+
+		Map<String, long[]> totals = getTotals(shards.values());
+		for (Photo photo : photos) {
+			long[] total = totals.get(photo.getId().asString());
+			if (total != null) {
+				setStoredPraise(photo, total);
+			}
+		}
+	}
+
+	/**
+	 * Updates the praise and rankings of all cached photos, so they include the votes other instances counted. The
+	 * first call reads all praise shards, later calls only the shards of photos whose shards changed since.
+	 *
+	 * @methodtype command
+	 */
+	public void refreshAll() {
+		flushLock.lock();
+		try {
+			long startTime = System.currentTimeMillis();
+			int noPhotos;
+			if (lastRefreshTime == 0) {
+				noPhotos = refreshAllShards();
+			} else {
+				noPhotos = refreshChangedShards(lastRefreshTime - CLOCK_SKEW_MARGIN_MILLIS);
+			}
+			lastRefreshTime = startTime;
+
+			log.config(LogBuilder.createSystemMessage().addAction("refresh praise").
+					addParameter("photos with praise", noPhotos).toString());
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected int refreshAllShards() {
+		Map<String, long[]> totals = ObjectifyService.run(new Work<Map<String, long[]>>() {
+			@Override
+			public Map<String, long[]> run() {
+				return getTotals(ofy().load().type(PraiseShard.class).chunk(500).iterable());
+			}
+		});
+
+		Map<PhotoId, Photo> photoCache = PhotoManager.getInstance().getPhotoCache();
+		for (Map.Entry<String, long[]> entry : totals.entrySet()) {
+			Photo photo = photoCache.get(PhotoId.getIdFromString(entry.getKey()));
+			if (photo != null) {
+				setStoredPraise(photo, entry.getValue());
+			}
+		}
+		return totals.size();
+	}
+
+	/**
+	 * Queries the keys of the shards saved since the given time and refreshes the cached photos they belong to.
+	 *
+	 * @methodtype command
+	 */
+	protected int refreshChangedShards(final long since) {
+		Set<String> photoIds = ObjectifyService.run(new Work<Set<String>>() {
+			@Override
+			public Set<String> run() {
+				Set<String> result = new HashSet<String>();
+				for (Key<PraiseShard> key : ofy().load().type(PraiseShard.class).
+						filter(DataObject.LAST_MODIFIED + " >", since).chunk(500).keys()) {
+					result.add(PraiseShard.getPhotoIdFromShardId(key.getName()));
+				}
+				return result;
+			}
+		});
+
+		Map<PhotoId, Photo> photoCache = PhotoManager.getInstance().getPhotoCache();
+		List<Photo> photos = new ArrayList<Photo>(photoIds.size());
+		for (String photoId : photoIds) {
+			Photo photo = photoCache.get(PhotoId.getIdFromString(photoId));
+			if (photo != null) {
+				photos.add(photo);
+			}
+		}
+		refresh(photos);
+		return photoIds.size();
+	}
+
+	/**
+	 * Sums up praise and votes of the shards by photo id.
+	 *
+	 * @methodtype helper
+	 */
+	protected static Map<String, long[]> getTotals(Iterable<PraiseShard> shards) {
+		Map<String, long[]> result = new HashMap<String, long[]>();
+		for (PraiseShard shard : shards) {
+			long[] total = result.get(shard.photoId);
+			if (total == null) {
+				total = new long[2];
+				result.put(shard.photoId, total);
+			}
+			total[0] += shard.getPraiseSum();
+			total[1] += shard.getNoVotes();
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void setStoredPraise(Photo photo, long[] total) {
+		if (photo.setStoredPraise(total[0], total[1])) {
+			PhotoManager.getInstance().changePraise(photo);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected ThreadFactory getThreadFactory() {
+		if (ApiProxy.getCurrentEnvironment() != null) {
+			return ThreadManager.backgroundThreadFactory();
+		}
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread result = new Thread(runnable, "praise-counter");
+				result.setDaemon(true);
+				return result;
+			}
+		};
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import org.wahlzeit.services.DataObject;
+
+/**
+ * One of several counters that together hold the praise a photo received. Votes are added to a randomly chosen
+ * shard, so concurrently running instances rarely write the same entity. Shards are root entities, so that each of
+ * them is an entity group of its own.
+ */
+@Entity
+public class PraiseShard extends DataObject {
+
+	/**
+	 *
+	 */
+	@Id
+	protected String id;
+
+	/**
+	 *
+	 */
+	protected String photoId;
+	protected int shardNo;
+
+	/**
+	 *
+	 */
+	protected long praiseSum = 0;
+	protected long noVotes = 0;
+
+	/**
+	 * Needed by Objectify
+	 */
+	protected PraiseShard() {
+		// do nothing
+	}
+
+	/**
+	 *
+	 */
+	public PraiseShard(PhotoId photoId, int shardNo) {
+		if (photoId == null) {
+			throw new IllegalArgumentException("The photo id must not be null.");
+		}
+		if (shardNo < 0) {
+			throw new IllegalArgumentException("The shard number must not be negative.");
+		}
+		this.id = getShardId(photoId, shardNo);
+		this.photoId = photoId.asString();
+		this.shardNo = shardNo;
+		incWriteCount();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public static String getShardId(PhotoId photoId, int shardNo) {
+		return photoId.asString() + "-" + shardNo;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public static String getPhotoIdFromShardId(String shardId) {
+		return shardId.substring(0, shardId.lastIndexOf('-'));
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public PhotoId getPhotoId() {
+		return PhotoId.getIdFromString(photoId);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getShardNo() {
+		return shardNo;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getPraiseSum() {
+		return praiseSum;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoVotes() {
+		return noVotes;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void addToPraise(long deltaPraise, long deltaVotes) {
+		praiseSum += deltaPraise;
+		noVotes += deltaVotes;
+		incWriteCount();
+	}
+}
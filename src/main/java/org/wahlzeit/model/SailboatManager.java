@@ -23,8 +23,8 @@ package org.wahlzeit.model;
 import com.googlecode.objectify.ObjectifyService;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.StartupReport;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -103,6 +103,39 @@ public class SailboatManager extends ObjectManager {
 		writeObject(sailboat);
 	}
 
+	/**
+	 * Adds a sailboat type that is already persisted, e.g. when restoring a {@link ModelSnapshot}.
+	 *
+	 * @methodtype command
+	 */
+	protected void doAddSailboatType(SailboatType type) {
+		sailboatTypes.put(type.getName(), type);
+	}
+
+	/**
+	 * Adds or replaces a sailboat that is already persisted, e.g. when restoring a {@link ModelSnapshot}.
+	 *
+	 * @methodtype command
+	 */
+	protected void doAddSailboat(Sailboat sailboat) {
+		sailboats.remove(sailboat);
+		sailboats.add(sailboat);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Collection<SailboatType> getSailboatTypes() {
+		return sailboatTypes.values();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Collection<Sailboat> getSailboats() {
+		return sailboats;
+	}
+
 	/**
 	 * @methodtype boolean-query
 	 */
@@ -127,13 +160,8 @@ public class SailboatManager extends ObjectManager {
 	 * Load all persisted SailbaotTypes. Executed when Wahlzeit is restarted.
 	 */
 	public void loadSailboatTypes() {
-		Collection<SailboatType> existingSailboatTypes = ObjectifyService.run(() -> {
-			Collection<SailboatType> existingTypes = new ArrayList<SailboatType>();
-			readObjects(existingTypes, SailboatType.class);
-			return existingTypes;
-		});
-
-		for (SailboatType type : existingSailboatTypes) {
+		long startTime = System.currentTimeMillis();
+		int noSailboatTypes = ObjectifyService.run(() -> readObjects(SailboatType.class, type -> {
 			if (!sailboatTypes.containsKey(type.getName())) {
 				log.config(LogBuilder.createSystemMessage().
 						addParameter("Load SailboatType with name", type.getName()).toString());
@@ -141,8 +169,10 @@ public class SailboatManager extends ObjectManager {
 				log.config(LogBuilder.createSystemMessage().
 						addParameter("Already loaded SailboatType with name", type.getName()).toString());
 			}
-		}
+		}));
 
+		StartupReport.getInstance().addEntry("sailboat types", noSailboatTypes,
+				System.currentTimeMillis() - startTime);
 		log.info(LogBuilder.createSystemMessage().addMessage("All SailboatTypes loaded.").toString());
 	}
 
@@ -152,13 +182,8 @@ public class SailboatManager extends ObjectManager {
 	 * Load all persisted Sailbaots. Executed when Wahlzeit is restarted.
 	 */
 	public void loadSailboats() {
-		Collection<Sailboat> existingSailboats = ObjectifyService.run(() -> {
-			Collection<Sailboat> sailboats = new ArrayList<Sailboat>();
-			readObjects(sailboats, Sailboat.class);
-			return sailboats;
-		});
-
-		for (Sailboat sailboat : existingSailboats) {
+		long startTime = System.currentTimeMillis();
+		int noSailboats = ObjectifyService.run(() -> readObjects(Sailboat.class, sailboat -> {
 			if (!sailboats.contains(sailboat)) {
 				log.config(LogBuilder.createSystemMessage().
 						addParameter("Load Sailboat with ID", sailboat.hashCode()).toString());
@@ -166,8 +191,10 @@ public class SailboatManager extends ObjectManager {
 				log.config(LogBuilder.createSystemMessage().
 						addParameter("Already loaded Sailboat with ID", sailboat.hashCode()).toString());
 			}
-		}
+		}));
 
+		StartupReport.getInstance().addEntry("sailboats", noSailboats,
+				System.currentTimeMillis() - startTime);
 		log.info(LogBuilder.createSystemMessage().addMessage("All Sailboats loaded.").toString());
 	}
 
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An in-memory inverted index from filter conditions ("un:..." and "tg:..." as produced by the
+ * {@link PhotoTagCollector}) to the int values of the photo ids carrying them.
+ *
+ * The ids of each condition are kept in a sorted int array, so filtering boils down to intersecting a few arrays
+ * instead of querying the Datastore for Tag entities.
+ */
+public class TagIndex {
+
+	/**
+	 *
+	 */
+	protected static final int[] NO_IDS = new int[0];
+
+	/**
+	 * Maps a condition to the sorted set of photo ids that match it
+	 */
+	protected Map<String, IdSet> conditionToIds = new HashMap<String, IdSet>();
+
+	/**
+	 * Reverse mapping, needed to drop the old conditions when the tags of a photo change
+	 */
+	protected Map<Integer, Set<String>> idToConditions = new HashMap<Integer, Set<String>>();
+
+	/**
+	 * Replaces all conditions of the given photo with the given ones.
+	 *
+	 * @methodtype command
+	 */
+	public synchronized void setConditions(int photoId, Set<String> conditions) {
+		if (conditions == null) {
+			throw new IllegalArgumentException("The conditions must not be null.");
+		}
+
+		Set<String> oldConditions = idToConditions.get(photoId);
+		if (oldConditions != null) {
+			for (String condition : oldConditions) {
+				if (!conditions.contains(condition)) {
+					doRemove(condition, photoId);
+				}
+			}
+		}
+
+		for (String condition : conditions) {
+			if (oldConditions == null || !oldConditions.contains(condition)) {
+				IdSet ids = conditionToIds.get(condition);
+				if (ids == null) {
+					ids = new IdSet();
+					conditionToIds.put(condition, ids);
+				}
+				ids.add(photoId);
+			}
+		}
+
+		if (conditions.isEmpty()) {
+			idToConditions.remove(photoId);
+		} else {
+			idToConditions.put(photoId, new HashSet<String>(conditions));
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void removePhoto(int photoId) {
+		Set<String> oldConditions = idToConditions.remove(photoId);
+		if (oldConditions != null) {
+			for (String condition : oldConditions) {
+				doRemove(condition, photoId);
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 */
+	protected void doRemove(String condition, int photoId) {
+		IdSet ids = conditionToIds.get(condition);
+		if (ids != null) {
+			ids.remove(photoId);
+			if (ids.isEmpty()) {
+				conditionToIds.remove(condition);
+			}
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized Set<String> getConditions(int photoId) {
+		Set<String> conditions = idToConditions.get(photoId);
+		return (conditions == null) ? new HashSet<String>() : new HashSet<String>(conditions);
+	}
+
+	/**
+	 * @return the sorted ids of all photos matching the condition
+	 * @methodtype get
+	 */
+	public synchronized int[] getPhotoIds(String condition) {
+		IdSet ids = conditionToIds.get(condition);
+		return (ids == null) ? NO_IDS : ids.toArray();
+	}
+
+	/**
+	 * @return the sorted ids of all photos matching every one of the conditions; no conditions match nothing
+	 * @methodtype get
+	 */
+	public synchronized int[] getPhotoIdsMatchingAll(Collection<String> conditions) {
+		if (conditions == null || conditions.isEmpty()) {
+			return NO_IDS;
+		}
+
+		IdSet[] sets = new IdSet[conditions.size()];
+		int i = 0;
+		for (String condition : conditions) {
+			IdSet ids = conditionToIds.get(condition);
+			if (ids == null) {
+				return NO_IDS;
+			}
+			sets[i++] = ids;
+		}
+
+		// start with the smallest set to keep the intermediate results small
+		IdSet smallest = sets[0];
+		for (IdSet ids : sets) {
+			if (ids.size < smallest.size) {
+				smallest = ids;
+			}
+		}
+
+		int[] result = smallest.toArray();
+		int resultSize = result.length;
+		for (IdSet ids : sets) {
+			if (ids != smallest) {
+				resultSize = ids.retainAll(result, resultSize);
+			}
+		}
+
+		return Arrays.copyOf(result, resultSize);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getNoConditions() {
+		return conditionToIds.size();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void clear() {
+		conditionToIds.clear();
+		idToConditions.clear();
+	}
+
+	/**
+	 * A compact set of ints, kept sorted in a growing array.
+	 */
+	protected static class IdSet {
+
+		protected int[] values = new int[4];
+		protected int size = 0;
+
+		/**
+		 * @methodtype command
+		 */
+		protected void add(int value) {
+			int index = Arrays.binarySearch(values, 0, size, value);
+			if (index < 0) {
+				index = -(index + 1);
+				if (size == values.length) {
+					values = Arrays.copyOf(values, size * 2);
+				}
+				System.arraycopy(values, index, values, index + 1, size - index);
+				values[index] = value;
+				size++;
+			}
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		protected void remove(int value) {
+			int index = Arrays.binarySearch(values, 0, size, value);
+			if (index >= 0) {
+				System.arraycopy(values, index + 1, values, index, size - index - 1);
+				size--;
+			}
+		}
+
+		/**
+		 * @methodtype boolean-query
+		 */
+		protected boolean isEmpty() {
+			return size == 0;
+		}
+
+		/**
+		 * Keeps only those of the first candidateSize (sorted) candidates that are contained in this set.
+		 *
+		 * @return the number of remaining candidates, which are moved to the front of the array
+		 * @methodtype command
+		 */
+		protected int retainAll(int[] candidates, int candidateSize) {
+			int result = 0;
+			int j = 0;
+			for (int i = 0; i < candidateSize && j < size; i++) {
+				int candidate = candidates[i];
+				while (j < size && values[j] < candidate) {
+					j++;
+				}
+				if (j < size && values[j] == candidate) {
+					candidates[result++] = candidate;
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * @methodtype conversion
+		 */
+		protected int[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+}
@@ -20,17 +20,19 @@
 
 package org.wahlzeit.model;
 
-import com.google.appengine.api.images.Image;
 import com.googlecode.objectify.annotation.Ignore;
 import com.googlecode.objectify.annotation.Subclass;
 import org.wahlzeit.services.EmailAddress;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SpooledUpload;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
 
@@ -74,7 +76,7 @@ public class User extends Client {
 	protected Photo userPhoto = null;
 	protected Set<Photo> photos = new HashSet<Photo>();
 	@Ignore // only used as temporary variable
-	protected Image uploadedImage = null;
+	protected SpooledUpload uploadedFile = null;
 
 	/**
 	 *
@@ -265,6 +267,17 @@ public class User extends Client {
 		return getPhotosReverseOrderedByPraise();
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public List<PhotoId> getPhotoIds() {
+		List<PhotoId> result = new ArrayList<PhotoId>(photos.size());
+		for (Photo photo : photos) {
+			result.add(photo.getId());
+		}
+		return result;
+	}
+
 	/**
 	 * @methodtype conversion
 	 */
@@ -283,9 +296,7 @@ public class User extends Client {
 				double sc1 = p1.getPraise();
 				double sc2 = p2.getPraise();
 				if (sc1 == sc2) {
-					String id1 = String.valueOf(p1.getId());
-					String id2 = String.valueOf(p2.getId());
-					return id1.compareTo(id2);
+					return Integer.compare(p1.getId().asInt(), p2.getId().asInt());
 				} else if (sc1 < sc2) {
 					return 1;
 				} else {
@@ -297,15 +308,20 @@ public class User extends Client {
 
 	/**
 	 * @methodtype set
+	 * <p>
+	 * A previous upload that has not been used is deleted.
 	 */
-	public void setUploadedImage(Image image) {
-		uploadedImage = image;
+	public void setUploadedFile(SpooledUpload newUploadedFile) {
+		if (uploadedFile != null && uploadedFile != newUploadedFile) {
+			uploadedFile.delete();
+		}
+		uploadedFile = newUploadedFile;
 	}
 
 	/**
 	 * @methodtype get
 	 */
-	public Image getUploadedImage() {
-		return uploadedImage;
+	public SpooledUpload getUploadedFile() {
+		return uploadedFile;
 	}
 }
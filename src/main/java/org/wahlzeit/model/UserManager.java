@@ -24,13 +24,15 @@ import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Work;
 import org.wahlzeit.services.EmailAddress;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.StartupReport;
 import org.wahlzeit.services.mailing.EmailService;
 import org.wahlzeit.services.mailing.EmailServiceManager;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 
@@ -82,25 +84,30 @@ public class UserManager extends ClientManager {
 	 *
 	 */
 	public void loadExistingUsers() {
-		ObjectifyService.run(new Work<Void>() {
+		long startTime = System.currentTimeMillis();
+		int noLoadedUsers = ObjectifyService.run(new Work<Integer>() {
 			@Override
-			public Void run() {
-				Collection<User> existingUser = new ArrayList<User>();
-				readObjects(existingUser, User.class);
-
-				for (User user : existingUser) {
+			public Integer run() {
+				final int[] result = {0};
+				readObjects(User.class, user -> {
 					if (!hasClientById(user.getId())) {
 						doAddClient(user);
+						result[0]++;
 					} else {
 						log.config(LogBuilder.createSystemMessage().addParameter("user has been loaded", user.getId())
 								.toString());
 					}
-				}
-				return null;
+				});
+				return result[0];
 			}
 		});
 
-		log.info(LogBuilder.createSystemMessage().addMessage("loaded all clients").toString());
+		long duration = System.currentTimeMillis() - startTime;
+		StartupReport.getInstance().addEntry("users", noLoadedUsers, duration);
+		log.info(LogBuilder.createSystemMessage().
+				addMessage("loaded all clients").
+				addParameter("number of users", noLoadedUsers).
+				addParameter("duration in ms", String.valueOf(duration)).toString());
 	}
 
 	/**
@@ -139,6 +146,15 @@ public class UserManager extends ClientManager {
 	 *
 	 */
 	public User getUserByEmailAddress(EmailAddress emailAddress) {
+		String userId = getClientIdByEmailAddress(emailAddress);
+		if (userId != null) {
+			User indexed = getUserById(userId);
+			if (indexed != null) {
+				return indexed;
+			}
+		}
+
+		// users that signed up on another instance are not indexed here yet
 		User result;
 		result = readObject(User.class, User.EMAIL_ADDRESS, emailAddress.asString());
 
@@ -154,6 +170,31 @@ public class UserManager extends ClientManager {
 		return result;
 	}
 
+	/**
+	 * Compares the email address index with the users stored in the datastore. Must be called within an Objectify
+	 * context.
+	 *
+	 * @return the email addresses of loaded users that the datastore maps to another user or to none
+	 * @methodtype query
+	 */
+	public Set<String> findEmailAddressIndexInconsistencies() {
+		Set<String> result = new HashSet<String>();
+		for (Map.Entry<String, String> entry : emailAddressIndex.entrySet()) {
+			User stored = readObject(User.class, User.EMAIL_ADDRESS, entry.getKey());
+			if (stored == null || !stored.getId().equals(entry.getValue())) {
+				result.add(entry.getKey());
+			}
+		}
+		for (Client client : idClientMap.values()) {
+			EmailAddress emailAddress = client.getEmailAddress();
+			if (client instanceof User && emailAddress != null && !emailAddress.isEmpty() &&
+					!emailAddressIndex.containsKey(emailAddress.asString())) {
+				result.add(emailAddress.asString());
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * @methodtype get
 	 */
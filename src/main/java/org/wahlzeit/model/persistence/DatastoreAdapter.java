@@ -22,17 +22,25 @@ package org.wahlzeit.model.persistence;
 
 import com.google.appengine.api.images.Image;
 import com.google.appengine.api.images.ImagesServiceFactory;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Work;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import org.wahlzeit.annotations.PatternInstance;
+import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.OfyService;
 
 import java.io.IOException;
 import java.io.Serializable;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -93,23 +101,119 @@ public class DatastoreAdapter extends ImageStorage {
 	}
 
 	@Override
-	protected boolean doDoesImageExist(String photoIdAsString, int size) {
-		Image image = null;
-		boolean result = false;
-		try {
-			image = doReadImage(photoIdAsString, size);
-		} catch (IOException e) {
-			log.warning(
-					LogBuilder.createSystemMessage().addException("IOException when checking for Image existance", e)
-							.toString());
+	protected EnumSet<PhotoSize> doWriteImages(String photoIdAsString, EnumMap<PhotoSize, Serializable> images)
+			throws IOException {
+		EnumSet<PhotoSize> result = EnumSet.noneOf(PhotoSize.class);
+		final List<ImageWrapper> imageWrappers = new ArrayList<ImageWrapper>();
+		for (Map.Entry<PhotoSize, Serializable> entry : images.entrySet()) {
+			if (!(entry.getValue() instanceof Image)) {
+				log.warning(LogBuilder.createSystemMessage().
+						addMessage("did not get an Image type to store").
+						addParameter("image type", entry.getValue().toString()).toString());
+				continue;
+			}
+			ImageWrapper imageWrapper = new ImageWrapper(photoIdAsString + entry.getKey().asInt());
+			try {
+				imageWrapper.setImage((Image) entry.getValue());
+			} catch (ArrayIndexOutOfBoundsException e) {
+				log.warning(LogBuilder.createSystemMessage().
+						addParameter("size", entry.getKey().asString()).
+						addException("Could not store image", e).toString());
+				break;
+			}
+			imageWrappers.add(imageWrapper);
+			result.add(entry.getKey());
+		}
+
+		if (!imageWrappers.isEmpty()) {
+			ObjectifyService.run(new Work<Boolean>() {
+				@Override
+				public Boolean run() {
+					OfyService.ofy().save().entities(imageWrappers).now();
+					return null;
+				}
+			});
+		}
+
+		log.config(LogBuilder.createSystemMessage().addParameter("images written", result).toString());
+		return result;
+	}
+
+	@Override
+	protected Map<PhotoSize, Serializable> doReadImages(String photoIdAsString, EnumSet<PhotoSize> sizes)
+			throws IOException {
+		final List<String> ids = new ArrayList<String>();
+		for (PhotoSize photoSize : sizes) {
+			ids.add(photoIdAsString + photoSize.asInt());
 		}
-		if (image != null) {
-			result = true;
+
+		Map<String, ImageWrapper> imageWrappers = ObjectifyService.run(new Work<Map<String, ImageWrapper>>() {
+			@Override
+			public Map<String, ImageWrapper> run() {
+				return new HashMap<String, ImageWrapper>(OfyService.ofy().load().type(ImageWrapper.class).ids(ids));
+			}
+		});
+
+		Map<PhotoSize, Serializable> result = new EnumMap<PhotoSize, Serializable>(PhotoSize.class);
+		for (PhotoSize photoSize : sizes) {
+			ImageWrapper imageWrapper = imageWrappers.get(photoIdAsString + photoSize.asInt());
+			if (imageWrapper != null) {
+				result.put(photoSize, imageWrapper.getImage());
+			}
 		}
+		log.config(LogBuilder.createSystemMessage().addParameter("images read", result.keySet()).toString());
+		return result;
+	}
+
+	/**
+	 * Uses a keys-only query, so no image data is transferred. Such a query is eventually consistent; a stale answer
+	 * at worst leads to an image being written again.
+	 */
+	@Override
+	protected boolean doDoesImageExist(String photoIdAsString, int size) {
+		List<String> ids = new ArrayList<String>();
+		ids.add(photoIdAsString + size);
+		boolean result = !doExistingKeys(ids).isEmpty();
 		log.config(LogBuilder.createSystemMessage().addParameter("does image exist", result).toString());
 		return result;
 	}
 
+	/**
+	 * @see #doDoesImageExist(String, int)
+	 */
+	@Override
+	protected EnumSet<PhotoSize> doExistingSizes(String photoIdAsString) {
+		List<String> ids = new ArrayList<String>();
+		for (PhotoSize photoSize : PhotoSize.values()) {
+			ids.add(photoIdAsString + photoSize.asInt());
+		}
+
+		EnumSet<PhotoSize> result = EnumSet.noneOf(PhotoSize.class);
+		for (Key<ImageWrapper> key : doExistingKeys(ids)) {
+			String sizeAsString = key.getName().substring(photoIdAsString.length());
+			result.add(PhotoSize.getFromInt(Integer.parseInt(sizeAsString)));
+		}
+		log.config(LogBuilder.createSystemMessage().addParameter("existing sizes", result).toString());
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected List<Key<ImageWrapper>> doExistingKeys(List<String> ids) {
+		final List<Key<ImageWrapper>> keys = new ArrayList<Key<ImageWrapper>>();
+		for (String id : ids) {
+			keys.add(Key.create(ImageWrapper.class, id));
+		}
+
+		return ObjectifyService.run(new Work<List<Key<ImageWrapper>>>() {
+			@Override
+			public List<Key<ImageWrapper>> run() {
+				return OfyService.ofy().load().type(ImageWrapper.class).filterKey("in", keys).keys().list();
+			}
+		});
+	}
+
 	/**
 	 * Wrapper class to store {@link Image}s in the Google Datastore with Objectify.
 	 *
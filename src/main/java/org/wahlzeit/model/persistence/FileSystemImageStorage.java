@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SysConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidParameterException;
+import java.util.logging.Logger;
+
+/**
+ * Stores every size of a photo as a file in a local directory, by default the photos directory of the {@link
+ * SysConfig}. Images are written to a temporary file first and then moved into place, so readers never see a partially
+ * written image.
+ */
+public class FileSystemImageStorage extends ImageStorage {
+
+	private static final Logger log = Logger.getLogger(FileSystemImageStorage.class.getName());
+
+	protected static final String FILE_SUFFIX = ".img";
+
+	protected final File rootDir;
+
+	/**
+	 *
+	 */
+	public FileSystemImageStorage() {
+		this(new File(SysConfig.getPhotosDir().asString()));
+	}
+
+	/**
+	 *
+	 */
+	public FileSystemImageStorage(File rootDir) {
+		if (rootDir == null) {
+			throw new IllegalArgumentException("Root directory is null!");
+		}
+		if (!rootDir.isDirectory() && !rootDir.mkdirs()) {
+			throw new IllegalArgumentException("Can not create root directory " + rootDir.getAbsolutePath());
+		}
+		this.rootDir = rootDir;
+	}
+
+	@Override
+	protected void doWriteImage(Serializable image, String photoIdAsString, int size)
+			throws IOException, InvalidParameterException {
+		if (!(image instanceof Image)) {
+			log.warning(LogBuilder.createSystemMessage().
+					addMessage("did not get an Image type to store").
+					addParameter("image type", image.toString()).toString());
+			return;
+		}
+
+		Path target = asFile(photoIdAsString, size).toPath();
+		Path temp = Files.createTempFile(rootDir.toPath(), photoIdAsString, ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.wrap(((Image) image).getImageData());
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} catch (IOException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+		Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		log.config(LogBuilder.createSystemMessage().addMessage("image successfully written").toString());
+	}
+
+	@Override
+	protected Image doReadImage(String photoIdAsString, int size) throws IOException {
+		File file = asFile(photoIdAsString, size);
+		if (!file.isFile()) {
+			log.info(LogBuilder.createSystemMessage().addMessage("does not exist!").toString());
+			return null;
+		}
+
+		byte[] imageData;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			imageData = new byte[buffer.remaining()];
+			buffer.get(imageData);
+		}
+
+		log.config(LogBuilder.createSystemMessage().addMessage("image successfully read").toString());
+		return ImagesServiceFactory.makeImage(imageData);
+	}
+
+	@Override
+	protected boolean doDoesImageExist(String photoIdAsString, int size) {
+		boolean result = asFile(photoIdAsString, size).isFile();
+		log.config(LogBuilder.createSystemMessage().addParameter("does image exist", result).toString());
+		return result;
+	}
+
+	@Override
+	public File getImageFile(String photoIdAsString, int size) {
+		assertValidPhotoId(photoIdAsString);
+		File result = asFile(photoIdAsString, size);
+		return result.isFile() ? result : null;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected File asFile(String photoIdAsString, int size) {
+		return new File(rootDir, photoIdAsString + "-" + size + FILE_SUFFIX);
+	}
+
+	/**
+	 * Photo ids become file names, so they must not leave the root directory.
+	 *
+	 * @methodtype assert
+	 */
+	@Override
+	protected void assertValidPhotoId(String photoId)
+			throws IllegalArgumentException {
+
+		super.assertValidPhotoId(photoId);
+		if (photoId.contains("/") || photoId.contains("\\") || photoId.contains("..")) {
+			throw new IllegalArgumentException("Invalid photoId:" + photoId);
+		}
+	}
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model.persistence;
+
+import org.wahlzeit.model.PhotoSize;
+import org.wahlzeit.services.LogBuilder;
+
+import java.util.logging.Logger;
+
+/**
+ * Abstract super class for caches of encoded image bytes, identified by photo id and size. A cache has a byte budget
+ * and evicts images on its own when the budget is used up, so callers always have to expect a miss.
+ */
+public abstract class ImageCache {
+
+	/**
+	 * Budget of the default instance in bytes, can be overridden with the system property below
+	 */
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+	public static final String MAX_BYTES_PROPERTY = "wahlzeit.imageCache.maxBytes";
+
+	private static final Logger log = Logger.getLogger(ImageCache.class.getName());
+	private static ImageCache instance = null;
+
+	/**
+	 *
+	 */
+	protected long noHits = 0;
+	protected long noMisses = 0;
+	protected long noEvictions = 0;
+
+	/**
+	 * @methodtype get
+	 */
+	public static synchronized ImageCache getInstance() {
+		if (instance == null) {
+			long maxBytes = Long.getLong(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES);
+			log.config(LogBuilder.createSystemMessage().
+					addAction("create default ImageCache").
+					addParameter("max bytes", maxBytes).toString());
+			instance = new OffHeapLruImageCache(maxBytes);
+		}
+		return instance;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public static synchronized void setInstance(ImageCache newInstance) {
+		log.config(LogBuilder.createSystemMessage().
+				addAction("set ImageCache instance").
+				addParameter("instance", newInstance).toString());
+		instance = newInstance;
+	}
+
+	/**
+	 * @return a copy of the cached bytes or null if the image is not cached
+	 * @methodtype get
+	 * @methodproperty wrapper
+	 */
+	public synchronized byte[] get(String photoIdAsString, int size) {
+		assertValidPhotoId(photoIdAsString);
+		PhotoSize.assertIsValidPhotoSizeAsInt(size);
+
+		byte[] result = doGet(asKey(photoIdAsString, size));
+		if (result != null) {
+			noHits++;
+		} else {
+			noMisses++;
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 * @methodproperty hook
+	 */
+	protected abstract byte[] doGet(String key);
+
+	/**
+	 * Caches the bytes of the image, possibly evicting other images. Images that do not fit at all are not cached.
+	 *
+	 * @methodtype command
+	 * @methodproperty wrapper
+	 */
+	public synchronized void put(String photoIdAsString, int size, byte[] imageData) {
+		assertValidPhotoId(photoIdAsString);
+		PhotoSize.assertIsValidPhotoSizeAsInt(size);
+		if (imageData == null) {
+			throw new IllegalArgumentException("Image data is null!");
+		}
+
+		doPut(asKey(photoIdAsString, size), imageData);
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperty hook
+	 */
+	protected abstract void doPut(String key, byte[] imageData);
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void remove(String photoIdAsString, int size) {
+		doRemove(asKey(photoIdAsString, size));
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void removeAll(String photoIdAsString) {
+		for (PhotoSize photoSize : PhotoSize.values()) {
+			doRemove(asKey(photoIdAsString, photoSize.asInt()));
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperty hook
+	 */
+	protected abstract void doRemove(String key);
+
+	/**
+	 * @methodtype command
+	 */
+	public abstract void clear();
+
+	/**
+	 * @methodtype get
+	 */
+	public abstract long getMaxBytes();
+
+	/**
+	 * @return the bytes currently reserved by cached images
+	 * @methodtype get
+	 */
+	public abstract long getUsedBytes();
+
+	/**
+	 * @methodtype get
+	 */
+	public abstract int getNoEntries();
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized long getNoHits() {
+		return noHits;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized long getNoMisses() {
+		return noMisses;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized long getNoEvictions() {
+		return noEvictions;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected String asKey(String photoIdAsString, int size) {
+		return photoIdAsString + size;
+	}
+
+	/**
+	 * @methodtype assert
+	 */
+	protected void assertValidPhotoId(String photoId) {
+		if (photoId == null || "".equals(photoId)) {
+			throw new IllegalArgumentException("Invalid photoId:" + photoId);
+		}
+	}
+}
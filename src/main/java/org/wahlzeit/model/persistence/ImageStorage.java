@@ -3,9 +3,13 @@ package org.wahlzeit.model.persistence;
 import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.services.LogBuilder;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.security.InvalidParameterException;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -75,6 +79,60 @@ public abstract class ImageStorage {
 	protected abstract void doWriteImage(Serializable image, String photoIdAsString, int size)
 			throws IOException, InvalidParameterException;
 
+	/**
+	 * Writes several sizes of one photo at once. Images are written in ascending size; if one can not be stored, the
+	 * larger ones are skipped.
+	 *
+	 * @return the sizes that have been written
+	 * @methodtype command
+	 * @methodproperty wrapper
+	 */
+	public EnumSet<PhotoSize> writeImages(String photoIdAsString, Map<PhotoSize, ? extends Serializable> images)
+			throws IOException {
+
+		assertValidPhotoId(photoIdAsString);
+		if (images == null) {
+			throw new IllegalArgumentException("Images are null!");
+		}
+		for (Serializable image : images.values()) {
+			assertImageNotNull(image);
+		}
+
+		log.config(LogBuilder.createSystemMessage().
+				addAction("write images to storage").
+				addParameter("photo id", photoIdAsString).
+				addParameter("sizes", images.keySet()).toString());
+
+		EnumMap<PhotoSize, Serializable> imagesBySize = new EnumMap<PhotoSize, Serializable>(PhotoSize.class);
+		imagesBySize.putAll(images);
+		return doWriteImages(photoIdAsString, imagesBySize);
+	}
+
+	/**
+	 * Actually writes the images; the default implementation writes them one by one. Override it if the storage can
+	 * write several images in one round trip.
+	 *
+	 * @methodtype command
+	 * @methodproperty hook
+	 */
+	protected EnumSet<PhotoSize> doWriteImages(String photoIdAsString, EnumMap<PhotoSize, Serializable> images)
+			throws IOException {
+
+		EnumSet<PhotoSize> result = EnumSet.noneOf(PhotoSize.class);
+		for (Map.Entry<PhotoSize, Serializable> entry : images.entrySet()) {
+			try {
+				doWriteImage(entry.getValue(), photoIdAsString, entry.getKey().asInt());
+			} catch (ArrayIndexOutOfBoundsException e) {
+				log.warning(LogBuilder.createSystemMessage().
+						addParameter("size", entry.getKey().asString()).
+						addException("Could not store image", e).toString());
+				break;
+			}
+			result.add(entry.getKey());
+		}
+		return result;
+	}
+
 
 	// read methods ----------------------------------------------------------------------------------------------------
 
@@ -107,6 +165,59 @@ public abstract class ImageStorage {
 	protected abstract Serializable doReadImage(String filename, int size)
 			throws IOException;
 
+	/**
+	 * Reads the given sizes of one photo at once. Sizes that are not found are missing in the result.
+	 *
+	 * @methodtype get
+	 * @methodproperty wrapper
+	 */
+	public Map<PhotoSize, Serializable> readImages(String photoIdAsString, EnumSet<PhotoSize> sizes)
+			throws IllegalArgumentException, IOException {
+
+		assertValidPhotoId(photoIdAsString);
+		if (sizes == null) {
+			throw new IllegalArgumentException("Sizes are null!");
+		}
+
+		log.config(LogBuilder.createSystemMessage().
+				addAction("read images from storage").
+				addParameter("photo id", photoIdAsString).
+				addParameter("sizes", sizes).toString());
+
+		return doReadImages(photoIdAsString, sizes);
+	}
+
+	/**
+	 * Actually reads the images; the default implementation reads them one by one. Override it if the storage can read
+	 * several images in one round trip.
+	 *
+	 * @methodtype get
+	 * @methodproperty hook
+	 */
+	protected Map<PhotoSize, Serializable> doReadImages(String photoIdAsString, EnumSet<PhotoSize> sizes)
+			throws IOException {
+
+		Map<PhotoSize, Serializable> result = new EnumMap<PhotoSize, Serializable>(PhotoSize.class);
+		for (PhotoSize photoSize : sizes) {
+			Serializable image = doReadImage(photoIdAsString, photoSize.asInt());
+			if (image != null) {
+				result.put(photoSize, image);
+			}
+		}
+		return result;
+	}
+
+
+	/**
+	 * Returns the file that holds the image if the storage keeps images as plain files, so it can be served without
+	 * loading it into the heap. Returns null otherwise or if the image does not exist.
+	 *
+	 * @methodtype get
+	 */
+	public File getImageFile(String photoIdAsString, int size) {
+		return null;
+	}
+
 
 	// exist method ----------------------------------------------------------------------------------------------------
 
@@ -139,6 +250,41 @@ public abstract class ImageStorage {
 	 */
 	protected abstract boolean doDoesImageExist(String photoIdAsString, int size);
 
+	/**
+	 * Returns all sizes of the photo that exist in the storage
+	 *
+	 * @methodtype get
+	 * @methodproperty wrapper
+	 */
+	public EnumSet<PhotoSize> existingSizes(String photoIdAsString)
+			throws IllegalArgumentException {
+
+		assertValidPhotoId(photoIdAsString);
+
+		log.config(LogBuilder.createSystemMessage().
+				addAction("check which images exist in storage").
+				addParameter("photo id", photoIdAsString).toString());
+
+		return doExistingSizes(photoIdAsString);
+	}
+
+	/**
+	 * Actually checks which sizes exist; the default implementation checks them one by one. Override it if the storage
+	 * can answer this in one round trip.
+	 *
+	 * @methodtype get
+	 * @methodproperty hook
+	 */
+	protected EnumSet<PhotoSize> doExistingSizes(String photoIdAsString) {
+		EnumSet<PhotoSize> result = EnumSet.noneOf(PhotoSize.class);
+		for (PhotoSize photoSize : PhotoSize.values()) {
+			if (doDoesImageExist(photoIdAsString, photoSize.asInt())) {
+				result.add(photoSize);
+			}
+		}
+		return result;
+	}
+
 
 	// assertion methods -----------------------------------------------------------------------------------------------
 
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model.persistence;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An ImageCache that keeps the image bytes outside of the Java heap and evicts the least recently used images.
+ *
+ * The budget is split into fixed-size chunks that are carved from direct ByteBuffer slabs on demand. An image occupies
+ * as many chunks as it needs; evicted chunks go back to a free list, so there is no fragmentation and no compaction.
+ */
+public class OffHeapLruImageCache extends ImageCache {
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+	public static final int SLAB_SIZE = 4 * 1024 * 1024;
+
+	/**
+	 *
+	 */
+	protected final int chunkSize;
+	protected final int chunksPerSlab;
+	protected final int maxChunks;
+
+	/**
+	 * Slabs are allocated lazily, the last one may be smaller than SLAB_SIZE
+	 */
+	protected final ByteBuffer[] slabs;
+
+	/**
+	 * Chunks that have been handed out once and were released again
+	 */
+	protected int[] freeChunks;
+	protected int noFreeChunks = 0;
+
+	/**
+	 * Number of chunks carved from the slabs so far
+	 */
+	protected int noCarvedChunks = 0;
+
+	/**
+	 * In access order, so the eldest entry is the least recently used one
+	 */
+	protected LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	/**
+	 * @methodtype constructor
+	 */
+	public OffHeapLruImageCache(long maxBytes) {
+		this(maxBytes, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public OffHeapLruImageCache(long maxBytes, int chunkSize) {
+		if (chunkSize <= 0 || SLAB_SIZE % chunkSize != 0) {
+			throw new IllegalArgumentException("The chunk size must be a positive divisor of " + SLAB_SIZE);
+		}
+		if (maxBytes < 0 || maxBytes / chunkSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid cache size: " + maxBytes);
+		}
+
+		this.chunkSize = chunkSize;
+		this.chunksPerSlab = SLAB_SIZE / chunkSize;
+		this.maxChunks = (int) (maxBytes / chunkSize);
+		this.slabs = new ByteBuffer[(maxChunks + chunksPerSlab - 1) / chunksPerSlab];
+		this.freeChunks = new int[Math.min(maxChunks, chunksPerSlab)];
+	}
+
+	@Override
+	protected byte[] doGet(String key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+
+		byte[] result = new byte[entry.length];
+		int offset = 0;
+		for (int chunk : entry.chunks) {
+			int length = Math.min(chunkSize, entry.length - offset);
+			getChunkBuffer(chunk).get(result, offset, length);
+			offset += length;
+		}
+		return result;
+	}
+
+	@Override
+	protected void doPut(String key, byte[] imageData) {
+		doRemove(key);
+
+		int noChunks = (imageData.length + chunkSize - 1) / chunkSize;
+		if (noChunks > maxChunks) {
+			return;
+		}
+
+		Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+		while (getNoAvailableChunks() < noChunks) {
+			Entry evicted = eldest.next().getValue();
+			eldest.remove();
+			releaseChunks(evicted);
+			noEvictions++;
+		}
+
+		Entry entry = new Entry(new int[noChunks], imageData.length);
+		int offset = 0;
+		for (int i = 0; i < noChunks; i++) {
+			int chunk = allocateChunk();
+			int length = Math.min(chunkSize, imageData.length - offset);
+			getChunkBuffer(chunk).put(imageData, offset, length);
+			entry.chunks[i] = chunk;
+			offset += length;
+		}
+		entries.put(key, entry);
+	}
+
+	@Override
+	protected void doRemove(String key) {
+		Entry entry = entries.remove(key);
+		if (entry != null) {
+			releaseChunks(entry);
+		}
+	}
+
+	@Override
+	public synchronized void clear() {
+		for (Entry entry : entries.values()) {
+			releaseChunks(entry);
+		}
+		entries.clear();
+	}
+
+	@Override
+	public long getMaxBytes() {
+		return (long) maxChunks * chunkSize;
+	}
+
+	@Override
+	public synchronized long getUsedBytes() {
+		return (long) (noCarvedChunks - noFreeChunks) * chunkSize;
+	}
+
+	@Override
+	public synchronized int getNoEntries() {
+		return entries.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected int getNoAvailableChunks() {
+		return noFreeChunks + (maxChunks - noCarvedChunks);
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected int allocateChunk() {
+		if (noFreeChunks > 0) {
+			return freeChunks[--noFreeChunks];
+		}
+
+		int chunk = noCarvedChunks++;
+		int slab = chunk / chunksPerSlab;
+		if (slabs[slab] == null) {
+			int noSlabChunks = Math.min(chunksPerSlab, maxChunks - slab * chunksPerSlab);
+			slabs[slab] = ByteBuffer.allocateDirect(noSlabChunks * chunkSize);
+		}
+		return chunk;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void releaseChunks(Entry entry) {
+		for (int chunk : entry.chunks) {
+			if (noFreeChunks == freeChunks.length) {
+				int[] newFreeChunks = new int[Math.min(maxChunks, freeChunks.length * 2)];
+				System.arraycopy(freeChunks, 0, newFreeChunks, 0, noFreeChunks);
+				freeChunks = newFreeChunks;
+			}
+			freeChunks[noFreeChunks++] = chunk;
+		}
+	}
+
+	/**
+	 * @return a view of the slab that is positioned at the start of the chunk
+	 * @methodtype get
+	 */
+	protected ByteBuffer getChunkBuffer(int chunk) {
+		ByteBuffer result = slabs[chunk / chunksPerSlab].duplicate();
+		result.position((chunk % chunksPerSlab) * chunkSize);
+		return result;
+	}
+
+	/**
+	 * The chunks holding one image, in order.
+	 */
+	protected static class Entry {
+
+		protected final int[] chunks;
+		protected final int length;
+
+		protected Entry(int[] chunks, int length) {
+			this.chunks = chunks;
+			this.length = length;
+		}
+	}
+}
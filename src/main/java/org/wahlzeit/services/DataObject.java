@@ -20,6 +20,9 @@
 
 package org.wahlzeit.services;
 
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.OnSave;
+
 import java.io.Serializable;
 
 /**
@@ -33,11 +36,27 @@ public abstract class DataObject implements Persistent, Serializable {
 	 */
 	public static final String ID = "id";
 
+	/**
+	 * Name of the property that holds the time of the last save
+	 */
+	public static final String LAST_MODIFIED = "lastModified";
+
 	/**
 	 *
 	 */
 	protected transient int writeCount = 0;
 
+	/**
+	 * Number of changes since the object was created or loaded; unlike the write count, saving does not reset it
+	 */
+	protected transient int changeCount = 0;
+
+	/**
+	 * Time of the last save, so entities that changed since a given time can be queried
+	 */
+	@Index
+	protected long lastModified = 0;
+
 	/**
 	 *
 	 */
@@ -48,15 +67,37 @@ public abstract class DataObject implements Persistent, Serializable {
 	/**
 	 *
 	 */
-	public final void resetWriteCount() {
+	public final synchronized void resetWriteCount() {
 		writeCount = 0;
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public final synchronized int getWriteCount() {
+		return writeCount;
+	}
+
 	/**
 	 *
 	 */
-	public final void incWriteCount() {
+	public final synchronized void resetWriteCount(int noSavedWrites) {
+		writeCount = Math.max(0, writeCount - noSavedWrites);
+	}
+
+	/**
+	 *
+	 */
+	public final synchronized void incWriteCount() {
 		writeCount++;
+		changeCount++;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public final int getChangeCount() {
+		return changeCount;
 	}
 
 	/**
@@ -66,4 +107,19 @@ public abstract class DataObject implements Persistent, Serializable {
 		incWriteCount();
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Called by Objectify before the object is saved
+	 */
+	@OnSave
+	protected void updateLastModified() {
+		lastModified = System.currentTimeMillis();
+	}
+
 }
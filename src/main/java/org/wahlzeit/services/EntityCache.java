@@ -0,0 +1,528 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.memcache.ErrorHandlers;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Read-through cache for entities that {@link ObjectManager} reads by key or by a property query. A bounded near
+ * cache per instance sits in front of a shared tier in memcache, which holds the datastore entities of objects and
+ * the keys that property queries returned.
+ * <p>
+ * Written and deleted objects are removed from both tiers. Cached query results of a kind are dropped by counting up
+ * a generation of the kind that is part of their cache key. Other instances only notice that generation in the
+ * shared tier, so their near cache may return a query result that is at most one time-to-live old.
+ * <p>
+ * Objects read by key are stale for the same time: the near caches of other instances are not told about writes, so
+ * they return an object that is at most one time-to-live old. The shared tier and the near cache of the writing
+ * instance are up to date once the write returns. A read that raced with the write and got the old entity does not
+ * cache it: removed entities can not be added to the shared tier again for a few seconds, and the near cache skips
+ * objects read while an invalidation happened.
+ */
+public class EntityCache {
+
+	private static final Logger log = Logger.getLogger(EntityCache.class.getName());
+
+	/**
+	 * Time to live of cached entries; a kind can override it with the property name followed by "." and the kind. A
+	 * time to live of 0 switches off caching for the kind.
+	 */
+	public static final String TTL_SECONDS_PROPERTY = "wahlzeit.entityCache.ttlSeconds";
+	public static final int DEFAULT_TTL_SECONDS = 600;
+
+	/**
+	 * Number of objects and query results in the near cache
+	 */
+	public static final String MAX_ENTRIES_PROPERTY = "wahlzeit.entityCache.maxEntries";
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+	/**
+	 *
+	 */
+	public static final String MEMCACHE_NAMESPACE = "wahlzeit-entities";
+
+	/**
+	 * Prefixes of the cache keys for entities, query results and generations
+	 */
+	protected static final String ENTITY_PREFIX = "e|";
+	protected static final String QUERY_PREFIX = "q|";
+	protected static final String GENERATION_PREFIX = "g|";
+
+	/**
+	 * How long removed entities can not be added to the shared tier again; longer than a datastore read takes
+	 */
+	protected static final long NO_RE_ADD_MILLIS = 10 * 1000;
+
+	/**
+	 *
+	 */
+	private static EntityCache instance = null;
+
+	/**
+	 * An object or query result of the near cache and when it expires
+	 */
+	protected static class NearEntry {
+		protected final Object value;
+		protected final long expiresAt;
+
+		protected NearEntry(Object value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/**
+	 * Where lookups of a kind were answered
+	 */
+	public static class Statistics {
+		protected final LongAdder noNearHits = new LongAdder();
+		protected final LongAdder noSharedHits = new LongAdder();
+		protected final LongAdder noMisses = new LongAdder();
+
+		public long getNoNearHits() {
+			return noNearHits.sum();
+		}
+
+		public long getNoSharedHits() {
+			return noSharedHits.sum();
+		}
+
+		public long getNoMisses() {
+			return noMisses.sum();
+		}
+
+		/**
+		 * @return the share of lookups answered by one of the tiers, 0 if there were none
+		 */
+		public double getHitRatio() {
+			long noHits = getNoNearHits() + getNoSharedHits();
+			long noLookups = noHits + getNoMisses();
+			return noLookups == 0 ? 0.0 : (double) noHits / noLookups;
+		}
+	}
+
+	/**
+	 * Least recently used entries first
+	 */
+	protected final Map<String, NearEntry> nearCache;
+
+	/**
+	 *
+	 */
+	protected final MemcacheService sharedCache;
+
+	/**
+	 * Generations of the query results in the near cache, by kind
+	 */
+	protected final Map<String, AtomicLong> nearGenerations = new ConcurrentHashMap<String, AtomicLong>();
+
+	/**
+	 * Counts the invalidations, so reads that overlap one do not put what they read into the near cache
+	 */
+	protected final AtomicLong noInvalidations = new AtomicLong();
+
+	/**
+	 *
+	 */
+	protected final Map<String, Statistics> statistics = new ConcurrentHashMap<String, Statistics>();
+
+	/**
+	 *
+	 */
+	protected final Map<String, Integer> ttlSeconds = new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * @methodtype get
+	 */
+	public static synchronized EntityCache getInstance() {
+		if (instance == null) {
+			MemcacheService memcache = MemcacheServiceFactory.getMemcacheService(MEMCACHE_NAMESPACE);
+			memcache.setErrorHandler(ErrorHandlers.getConsistentLogAndContinue(Level.INFO));
+			int maxEntries = Integer.getInteger(MAX_ENTRIES_PROPERTY, DEFAULT_MAX_ENTRIES);
+			log.config(LogBuilder.createSystemMessage().
+					addAction("create default EntityCache").
+					addParameter("max entries", maxEntries).toString());
+			instance = new EntityCache(maxEntries, memcache);
+		}
+		return instance;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public static synchronized void setInstance(EntityCache newInstance) {
+		instance = newInstance;
+	}
+
+	/**
+	 *
+	 */
+	public EntityCache(final int maxEntries, MemcacheService sharedCache) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+		}
+		if (sharedCache == null) {
+			throw new IllegalArgumentException("sharedCache must not be null");
+		}
+
+		this.nearCache = new LinkedHashMap<String, NearEntry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, NearEntry> eldest) {
+				return size() > maxEntries;
+			}
+		};
+		this.sharedCache = sharedCache;
+	}
+
+	/**
+	 * Returns the object with the given key from the first tier that has it, or from the datastore.
+	 *
+	 * @return the object or null if there is no entity with the key
+	 * @methodtype get
+	 */
+	public <E> E getObject(Key key) {
+		List<E> result = getObjects(Collections.singletonList(key));
+		return result.isEmpty() ? null : result.get(0);
+	}
+
+	/**
+	 * Returns the objects with the given keys in this order, leaving out those that do not exist. Keys missing in
+	 * both tiers are read from the datastore in one batch.
+	 *
+	 * @methodtype get
+	 */
+	public <E> List<E> getObjects(List<Key> keys) {
+		Map<Key, E> found = new HashMap<Key, E>();
+		long invalidationsBefore = noInvalidations.get();
+
+		List<Key> remainingKeys = new ArrayList<Key>();
+		for (Key key : keys) {
+			E object = getNear(asEntityKey(key));
+			if (object != null) {
+				getStatistics(key.getKind()).noNearHits.increment();
+				found.put(key, object);
+			} else {
+				remainingKeys.add(key);
+			}
+		}
+
+		if (!remainingKeys.isEmpty()) {
+			Map<String, Key> sharedKeys = new HashMap<String, Key>();
+			for (Key key : remainingKeys) {
+				sharedKeys.put(asEntityKey(key), key);
+			}
+			Map<String, Object> sharedEntities = sharedCache.getAll(sharedKeys.keySet());
+
+			List<Key> missingKeys = new ArrayList<Key>();
+			for (Key key : remainingKeys) {
+				Object entity = sharedEntities.get(asEntityKey(key));
+				if (entity instanceof Entity) {
+					getStatistics(key.getKind()).noSharedHits.increment();
+					E object = OfyService.ofy().load().fromEntity((Entity) entity);
+					putNearUnlessInvalidated(asEntityKey(key), object, key.getKind(), invalidationsBefore);
+					found.put(key, object);
+				} else {
+					missingKeys.add(key);
+				}
+			}
+
+			if (!missingKeys.isEmpty()) {
+				DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+				for (Entity entity : datastore.get(missingKeys).values()) {
+					Key key = entity.getKey();
+					getStatistics(key.getKind()).noMisses.increment();
+					E object = OfyService.ofy().load().fromEntity(entity);
+					putNearUnlessInvalidated(asEntityKey(key), object, key.getKind(), invalidationsBefore);
+					addShared(asEntityKey(key), entity, key.getKind());
+					found.put(key, object);
+				}
+			}
+		}
+
+		List<E> result = new ArrayList<E>(found.size());
+		for (Key key : keys) {
+			E object = found.get(key);
+			if (object != null) {
+				result.add(object);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the objects of the type in the application root whose property has the given value, reading the
+	 * matching keys from the first tier that has them or with a keys-only query.
+	 *
+	 * @param limit the maximum number of objects, 0 for all of them
+	 * @methodtype get
+	 */
+	public <E> List<E> getObjects(Class<E> type, String propertyName, Object value, int limit) {
+		String kind = com.googlecode.objectify.Key.getKind(type);
+		String query = type.getName() + "|" + propertyName + "=" + value + "|" + limit;
+
+		String nearKey = QUERY_PREFIX + kind + "|" + getNearGeneration(kind).get() + "|" + query;
+		List<Key> keys = getNear(nearKey);
+		if (keys != null) {
+			getStatistics(kind).noNearHits.increment();
+			return getObjects(keys);
+		}
+
+		String sharedKey = QUERY_PREFIX + kind + "|" + getSharedGeneration(kind) + "|" + query;
+		Object sharedKeys = sharedCache.get(sharedKey);
+		if (sharedKeys instanceof ArrayList) {
+			getStatistics(kind).noSharedHits.increment();
+			@SuppressWarnings("unchecked")
+			List<Key> result = (List<Key>) sharedKeys;
+			putNear(nearKey, result, kind);
+			return getObjects(result);
+		}
+
+		getStatistics(kind).noMisses.increment();
+		com.googlecode.objectify.cmd.Query<E> datastoreQuery = OfyService.ofy().load().type(type).
+				ancestor(ObjectManager.applicationRootKey).filter(propertyName, value);
+		if (limit > 0) {
+			datastoreQuery = datastoreQuery.limit(limit);
+		}
+		ArrayList<Key> result = new ArrayList<Key>();
+		for (com.googlecode.objectify.Key<E> key : datastoreQuery.keys()) {
+			result.add(key.getRaw());
+		}
+		putNear(nearKey, result, kind);
+		putShared(sharedKey, result, kind);
+		return getObjects(result);
+	}
+
+	/**
+	 * Removes the written or deleted objects from both tiers and drops the cached query results of their kinds.
+	 *
+	 * @methodtype command
+	 */
+	public void invalidate(Collection<?> objects) {
+		Set<String> entityKeys = new HashSet<String>();
+		Set<String> kinds = new HashSet<String>();
+		for (Object object : objects) {
+			Key key = com.googlecode.objectify.Key.create(object).getRaw();
+			entityKeys.add(asEntityKey(key));
+			kinds.add(key.getKind());
+		}
+
+		invalidateKeys(entityKeys, kinds);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void invalidateKeys(Collection<Key> keys) {
+		Set<String> entityKeys = new HashSet<String>();
+		Set<String> kinds = new HashSet<String>();
+		for (Key key : keys) {
+			entityKeys.add(asEntityKey(key));
+			kinds.add(key.getKind());
+		}
+
+		invalidateKeys(entityKeys, kinds);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void invalidateKeys(Set<String> entityKeys, Set<String> kinds) {
+		synchronized (nearCache) {
+			noInvalidations.incrementAndGet();
+			for (String entityKey : entityKeys) {
+				nearCache.remove(entityKey);
+			}
+		}
+		for (String kind : kinds) {
+			getNearGeneration(kind).incrementAndGet();
+		}
+
+		sharedCache.deleteAll(entityKeys, NO_RE_ADD_MILLIS);
+		for (String kind : kinds) {
+			sharedCache.increment(GENERATION_PREFIX + kind, 1, 0L);
+		}
+	}
+
+	/**
+	 * Empties the near cache; the shared tier is left alone as other instances use it.
+	 *
+	 * @methodtype command
+	 */
+	public void clear() {
+		synchronized (nearCache) {
+			nearCache.clear();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Statistics getStatistics(String kind) {
+		return statistics.computeIfAbsent(kind, k -> new Statistics());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoNearEntries() {
+		synchronized (nearCache) {
+			return nearCache.size();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getTtlSeconds(String kind) {
+		return ttlSeconds.computeIfAbsent(kind, k ->
+				Integer.getInteger(TTL_SECONDS_PROPERTY + "." + k,
+						Integer.getInteger(TTL_SECONDS_PROPERTY, DEFAULT_TTL_SECONDS)));
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asString() {
+		LogBuilder result = LogBuilder.createSystemMessage().addMessage("entity cache").
+				addParameter("near entries", getNoNearEntries());
+		for (Map.Entry<String, Statistics> entry : statistics.entrySet()) {
+			result.addParameter("hit ratio of " + entry.getKey(), entry.getValue().getHitRatio());
+		}
+		return result.toString();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T> T getNear(String key) {
+		synchronized (nearCache) {
+			NearEntry entry = nearCache.get(key);
+			if (entry == null) {
+				return null;
+			}
+			if (entry.expiresAt < System.currentTimeMillis()) {
+				nearCache.remove(key);
+				return null;
+			}
+			return (T) entry.value;
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void putNear(String key, Object value, String kind) {
+		int ttl = getTtlSeconds(kind);
+		if (ttl > 0) {
+			NearEntry entry = new NearEntry(value, System.currentTimeMillis() + ttl * 1000L);
+			synchronized (nearCache) {
+				nearCache.put(key, entry);
+			}
+		}
+	}
+
+	/**
+	 * Puts the object into the near cache unless an invalidation happened since the given count was taken, as the
+	 * object may have been read before the write that caused it.
+	 *
+	 * @methodtype command
+	 */
+	protected void putNearUnlessInvalidated(String key, Object value, String kind, long invalidationsBefore) {
+		int ttl = getTtlSeconds(kind);
+		if (ttl > 0) {
+			NearEntry entry = new NearEntry(value, System.currentTimeMillis() + ttl * 1000L);
+			synchronized (nearCache) {
+				if (noInvalidations.get() == invalidationsBefore) {
+					nearCache.put(key, entry);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the entity to the shared tier unless it is there already or was removed just now.
+	 *
+	 * @methodtype command
+	 */
+	protected void addShared(String key, Entity entity, String kind) {
+		int ttl = getTtlSeconds(kind);
+		if (ttl > 0) {
+			sharedCache.put(key, entity, Expiration.byDeltaSeconds(ttl),
+					MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void putShared(String key, Object value, String kind) {
+		int ttl = getTtlSeconds(kind);
+		if (ttl > 0) {
+			sharedCache.put(key, value, Expiration.byDeltaSeconds(ttl));
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected AtomicLong getNearGeneration(String kind) {
+		return nearGenerations.computeIfAbsent(kind, k -> new AtomicLong());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected long getSharedGeneration(String kind) {
+		Object generation = sharedCache.get(GENERATION_PREFIX + kind);
+		return generation instanceof Long ? (Long) generation : 0L;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected String asEntityKey(Key key) {
+		return ENTITY_PREFIX + KeyFactory.keyToString(key);
+	}
+}
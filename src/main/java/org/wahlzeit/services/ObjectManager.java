@@ -20,11 +20,18 @@
 
 package org.wahlzeit.services;
 
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.googlecode.objectify.cmd.Query;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 /**
@@ -38,6 +45,12 @@ public abstract class ObjectManager {
 	 */
 	public static final Key applicationRootKey = KeyFactory.createKey("Application", "Wahlzeit");
 
+	/**
+	 * Number of entities that are read per round trip when streaming entities
+	 */
+	public static final String READ_CHUNK_SIZE_PROPERTY = "wahlzeit.readChunkSize";
+	public static final int DEFAULT_READ_CHUNK_SIZE = 500;
+
 	private static final Logger log = Logger.getLogger(ObjectManager.class.getName());
 
 
@@ -48,11 +61,23 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(type, "type");
 		assertIsNonNullArgument(id, "id");
 
+		if (isCached(type)) {
+			return EntityCache.getInstance().getObject(com.googlecode.objectify.Key.create(type, id).getRaw());
+		}
+
 		log.config(LogBuilder.createSystemMessage().
 				addMessage("Load Type " + type.toString() + " with ID " + id + " from datastore.").toString());
 		return OfyService.ofy().load().type(type).id(id).now();
 	}
 
+	/**
+	 * Whether objects of the type are read through the {@link EntityCache}. Override for types that are written
+	 * without this manager, e.g. in transactions.
+	 */
+	protected boolean isCached(Class<?> type) {
+		return true;
+	}
+
 	/**
 	 *
 	 */
@@ -69,6 +94,10 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(type, "type");
 		assertIsNonNullArgument(id, "id");
 
+		if (isCached(type)) {
+			return EntityCache.getInstance().getObject(com.googlecode.objectify.Key.create(type, id).getRaw());
+		}
+
 		log.config(LogBuilder.createSystemMessage().
 				addMessage("Load Type " + type.toString() + " with ID " + id + " from datastore.").toString());
 		return OfyService.ofy().load().type(type).id(id).now();
@@ -83,6 +112,11 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(parameterName, "parameterName");
 		assertIsNonNullArgument(value, "value");
 
+		if (isCached(type)) {
+			List<E> result = EntityCache.getInstance().getObjects(type, parameterName, value, 1);
+			return result.isEmpty() ? null : result.get(0);
+		}
+
 		log.config(LogBuilder.createSystemMessage().
 				addMessage("Load Type " + type.toString() + " with parameter " +
 						parameterName + " == " + value + " from datastore.").toString());
@@ -106,6 +140,55 @@ public abstract class ObjectManager {
 		result.addAll(objects);
 	}
 
+	/**
+	 * Streams all Entities of the specified type to the consumer, chunk by chunk, so they never have to be held in
+	 * memory at once. Returns the number of entities.
+	 */
+	protected <E> int readObjects(Class<E> type, Consumer<? super E> consumer) {
+		int chunkSize = Integer.getInteger(READ_CHUNK_SIZE_PROPERTY, DEFAULT_READ_CHUNK_SIZE);
+		final int[] noObjects = {0};
+		Consumer<E> countingConsumer = object -> {
+			noObjects[0]++;
+			consumer.accept(object);
+		};
+
+		Cursor cursor = null;
+		do {
+			cursor = readObjectChunk(type, countingConsumer, cursor, chunkSize);
+		} while (cursor != null);
+
+		log.config(LogBuilder.createSystemMessage().
+				addParameter("Datastore: number of streamed objects of type " + type.getName(), noObjects[0]).toString());
+		return noObjects[0];
+	}
+
+	/**
+	 * Reads at most chunkSize Entities of the specified type, starting at the cursor or at the beginning if it is null,
+	 * and hands them to the consumer. Returns the cursor to resume from, or null if all entities have been read.
+	 */
+	protected <E> Cursor readObjectChunk(Class<E> type, Consumer<? super E> consumer, Cursor startCursor,
+										 int chunkSize) {
+		assertIsNonNullArgument(type, "type");
+		assertIsNonNullArgument(consumer, "consumer");
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("chunkSize should be positive");
+		}
+
+		Query<E> query = OfyService.ofy().load().type(type).ancestor(applicationRootKey).limit(chunkSize).
+				chunk(chunkSize);
+		if (startCursor != null) {
+			query = query.startAt(startCursor);
+		}
+
+		int noObjects = 0;
+		QueryResultIterator<E> iterator = query.iterator();
+		while (iterator.hasNext()) {
+			consumer.accept(iterator.next());
+			noObjects++;
+		}
+		return noObjects < chunkSize ? null : iterator.getCursor();
+	}
+
 	/**
 	 * Reads all Entities of the specified type, where the given property matches the wanted value e.g.
 	 * readObject(User.class) to get a list of all clients
@@ -116,6 +199,11 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(propertyName, "propertyName");
 		assertIsNonNullArgument(value, "value");
 
+		if (isCached(type)) {
+			result.addAll(EntityCache.getInstance().getObjects(type, propertyName, value, 0));
+			return;
+		}
+
 		log.info(LogBuilder.createSystemMessage().
 				addMessage("Datastore: Load all Entities of type " + type.toString() + " where parameter "
 						+ propertyName + " = " + value.toString() + " from datastore.").toString());
@@ -127,19 +215,22 @@ public abstract class ObjectManager {
 	}
 
 	/**
-	 * Updates all entities of the given collection in the datastore.
+	 * Updates all entities of the given collection in the datastore, using batched writes.
 	 */
 	protected void updateObjects(Collection<? extends Persistent> collection) {
-		for (Persistent object : collection) {
-			updateObject(object);
-		}
+		writeObjects(collection);
 	}
 
 	/**
-	 * Updates the given entity in the datastore.
+	 * Updates the given entity in the datastore. The write may happen later in the background, see {@link
+	 * WriteBehindQueue}.
 	 */
 	protected void updateObject(Persistent object) {
-		writeObject(object);
+		assertIsNonNullArgument(object, "object");
+
+		if (object.isDirty()) {
+			WriteBehindQueue.getInstance().enqueue(this, object);
+		}
 	}
 
 	/**
@@ -151,15 +242,79 @@ public abstract class ObjectManager {
 		if (object.isDirty()) {
 			log.info(LogBuilder.createSystemMessage().
 					addParameter("Datastore: Write object of type", object).toString());
-			OfyService.ofy().save().entity(object).now();
+			List<Persistent> objects = Collections.singletonList(object);
+			int[] noSavedWrites = saveObjects(objects);
+			invalidateCached(objects);
 			updateDependents(object);
-			object.resetWriteCount();
+			object.resetWriteCount(noSavedWrites[0]);
 		} else {
 			log.info(LogBuilder.createSystemMessage().
 					addParameter("Datastore: No need to update object", object).toString());
 		}
 	}
 
+	/**
+	 * Writes all dirty entities of the collection to the datastore, in batches of at most {@link
+	 * WriteBehindQueue#getMaxBatchSize()} entities.
+	 */
+	protected void writeObjects(Collection<? extends Persistent> collection) {
+		assertIsNonNullArgument(collection, "collection");
+
+		int maxBatchSize = WriteBehindQueue.getInstance().getMaxBatchSize();
+		List<Persistent> batch = new ArrayList<Persistent>(Math.min(maxBatchSize, collection.size()));
+		for (Persistent object : collection) {
+			if (object.isDirty()) {
+				batch.add(object);
+				if (batch.size() == maxBatchSize) {
+					writeBatch(batch);
+					batch.clear();
+				}
+			}
+		}
+		if (!batch.isEmpty()) {
+			writeBatch(batch);
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected void writeBatch(List<Persistent> batch) {
+		log.info(LogBuilder.createSystemMessage().
+				addParameter("Datastore: Write batch of objects", batch.size()).toString());
+		int[] noSavedWrites = saveObjects(batch);
+		invalidateCached(batch);
+		for (int i = 0; i < batch.size(); i++) {
+			updateDependents(batch.get(i));
+			batch.get(i).resetWriteCount(noSavedWrites[i]);
+		}
+	}
+
+	/**
+	 * Saves the objects and returns the write count each had when it was saved. Objects are converted to entities
+	 * while locked, as request threads may change them meanwhile, e.g. while they are written in the background;
+	 * synchronized methods of the objects never interleave with the conversion. Only the writes counted before the
+	 * conversion may be taken back after saving, later ones need another save. Objects without an id, e.g. new tags,
+	 * are saved as they are in the same batch, as Objectify only sets the id allocated by the datastore on the object
+	 * it saves; these objects are new, so no other thread changes them yet.
+	 */
+	protected int[] saveObjects(List<? extends Persistent> objects) {
+		int[] result = new int[objects.size()];
+		List<Object> entities = new ArrayList<Object>(objects.size());
+		for (int i = 0; i < objects.size(); i++) {
+			Persistent object = objects.get(i);
+			synchronized (object) {
+				result[i] = object.getWriteCount();
+				Entity entity = OfyService.ofy().save().toEntity(object);
+				entities.add(entity.getKey().isComplete() ? entity : object);
+			}
+		}
+		if (!entities.isEmpty()) {
+			OfyService.ofy().save().entities(entities).now();
+		}
+		return result;
+	}
+
 	/**
 	 * Updates all dependencies of the object.
 	 */
@@ -175,6 +330,19 @@ public abstract class ObjectManager {
 
 		log.config(LogBuilder.createSystemMessage().addParameter("Datastore: delete entity", object).toString());
 		OfyService.ofy().delete().entity(object).now();
+		invalidateCached(Collections.singletonList(object));
+	}
+
+	/**
+	 * Deletes all given entities from the datastore in one batch.
+	 */
+	protected void deleteObjects(Collection<?> objects) {
+		assertIsNonNullArgument(objects, "objects");
+
+		log.config(LogBuilder.createSystemMessage().
+				addParameter("Datastore: delete number of entities", objects.size()).toString());
+		OfyService.ofy().delete().entities(objects).now();
+		invalidateCached(objects);
 	}
 
 	/**
@@ -192,6 +360,28 @@ public abstract class ObjectManager {
 		List<com.googlecode.objectify.Key<E>> keys = OfyService.ofy().load().type(type).
 				ancestor(applicationRootKey).filter(propertyName, value).keys().list();
 		OfyService.ofy().delete().keys(keys);
+		if (isCached(type)) {
+			List<Key> rawKeys = new ArrayList<Key>(keys.size());
+			for (com.googlecode.objectify.Key<E> key : keys) {
+				rawKeys.add(key.getRaw());
+			}
+			EntityCache.getInstance().invalidateKeys(rawKeys);
+		}
+	}
+
+	/**
+	 * Removes the written or deleted objects from the {@link EntityCache}.
+	 */
+	protected void invalidateCached(Collection<?> objects) {
+		List<Object> cachedObjects = new ArrayList<Object>(objects.size());
+		for (Object object : objects) {
+			if (isCached(object.getClass())) {
+				cachedObjects.add(object);
+			}
+		}
+		if (!cachedObjects.isEmpty()) {
+			EntityCache.getInstance().invalidate(cachedObjects);
+		}
 	}
 
 	/**
@@ -10,6 +10,7 @@ import org.wahlzeit.model.Guest;
 import org.wahlzeit.model.Moderator;
 import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoCase;
+import org.wahlzeit.model.PraiseShard;
 import org.wahlzeit.model.Sailboat;
 import org.wahlzeit.model.SailboatPhoto;
 import org.wahlzeit.model.SailboatType;
@@ -41,6 +42,7 @@ public class OfyService {
 		factory().register(Guest.class);
 		factory().register(PhotoCase.class);
 		factory().register(ImageWrapper.class);
+		factory().register(PraiseShard.class);
 	}
 
 	public static Objectify ofy() {
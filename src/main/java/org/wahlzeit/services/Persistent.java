@@ -41,4 +41,15 @@ public interface Persistent {
 	 */
 	void resetWriteCount();
 
+	/**
+	 * @methodtype get
+	 */
+	int getWriteCount();
+
+	/**
+	 * Takes back the given number of writes, e.g. those counted before the object was saved; writes counted since
+	 * keep the object dirty.
+	 */
+	void resetWriteCount(int noSavedWrites);
+
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+
+/**
+ * An upload that has been written to the spool directory by the {@link UploadSpool}. The file is only read when its
+ * content is requested and has to be deleted once it is not needed anymore.
+ */
+public class SpooledUpload implements Serializable {
+
+	/**
+	 *
+	 */
+	protected final String fileName;
+	protected final File file;
+	protected final long size;
+
+	/**
+	 *
+	 */
+	public SpooledUpload(String fileName, File file, long size) {
+		this.fileName = fileName;
+		this.file = file;
+		this.size = size;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public InputStream openStream() throws IOException {
+		return new FileInputStream(file);
+	}
+
+	/**
+	 * Reads the whole upload into one array of exactly its size
+	 *
+	 * @methodtype get
+	 */
+	public byte[] getBytes() throws IOException {
+		return Files.readAllBytes(file.toPath());
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean exists() {
+		return file.isFile();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void delete() {
+		if (file.exists() && !file.delete()) {
+			file.deleteOnExit();
+		}
+	}
+}
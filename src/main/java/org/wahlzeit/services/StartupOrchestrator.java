@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.apphosting.api.ApiProxy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+/**
+ * Runs the startup phases of Wahlzeit. Every phase names the phases it depends on; phases whose dependencies are done
+ * run concurrently on a bounded pool. The duration of every phase is added to the {@link StartupReport}.
+ */
+public class StartupOrchestrator {
+
+	private static final Logger log = Logger.getLogger(StartupOrchestrator.class.getName());
+
+	/**
+	 *
+	 */
+	public static final String MAX_THREADS_PROPERTY = "wahlzeit.startupThreads";
+	public static final int DEFAULT_MAX_THREADS = 4;
+
+	/**
+	 * The work of one phase
+	 */
+	public interface Action {
+		void run() throws Exception;
+	}
+
+	/**
+	 *
+	 */
+	protected final int maxThreads;
+	protected final Map<String, Phase> phases = new LinkedHashMap<String, Phase>();
+
+	/**
+	 *
+	 */
+	public StartupOrchestrator() {
+		this(Integer.getInteger(MAX_THREADS_PROPERTY, DEFAULT_MAX_THREADS));
+	}
+
+	/**
+	 *
+	 */
+	public StartupOrchestrator(int maxThreads) {
+		if (maxThreads <= 0) {
+			throw new IllegalArgumentException("maxThreads should be positive");
+		}
+		this.maxThreads = maxThreads;
+	}
+
+	/**
+	 * Adds a phase that starts once all of its dependencies have completed.
+	 *
+	 * @methodtype command
+	 */
+	public StartupOrchestrator addPhase(String name, Action action, String... dependencies) {
+		if (name == null || action == null) {
+			throw new IllegalArgumentException("name and action should not be null");
+		}
+		if (phases.containsKey(name)) {
+			throw new IllegalArgumentException("phase " + name + " has already been added");
+		}
+		phases.put(name, new Phase(name, action, Arrays.asList(dependencies)));
+		return this;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean hasPhase(String name) {
+		return phases.containsKey(name);
+	}
+
+	/**
+	 * Runs all phases and waits for them. If a phase fails, the phases that depend on it are skipped and the first
+	 * failure is thrown once all other phases have ended.
+	 *
+	 * @methodtype command
+	 */
+	public void run() throws Exception {
+		List<Phase> orderedPhases = getPhasesInDependencyOrder();
+		final Session session = SessionManager.getThreadLocalSession();
+		long startTime = System.currentTimeMillis();
+
+		ExecutorService executor = Executors.newFixedThreadPool(maxThreads, getThreadFactory());
+		try {
+			Map<String, CompletableFuture<Void>> futures = new HashMap<String, CompletableFuture<Void>>();
+			for (final Phase phase : orderedPhases) {
+				CompletableFuture<?>[] dependencies = new CompletableFuture<?>[phase.dependencies.size()];
+				for (int i = 0; i < dependencies.length; i++) {
+					dependencies[i] = futures.get(phase.dependencies.get(i));
+				}
+				futures.put(phase.name, CompletableFuture.allOf(dependencies).thenRunAsync(() -> runPhase(phase,
+						session), executor));
+			}
+
+			Exception failure = null;
+			for (Phase phase : orderedPhases) {
+				try {
+					futures.get(phase.name).join();
+				} catch (CompletionException e) {
+					if (failure == null) {
+						failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+					}
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		log.info(LogBuilder.createSystemMessage().
+				addMessage("All startup phases completed.").
+				addParameter("number of phases", orderedPhases.size()).
+				addParameter("duration in ms", String.valueOf(System.currentTimeMillis() - startTime)).toString());
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void runPhase(Phase phase, Session session) {
+		long startTime = System.currentTimeMillis();
+		SessionManager.setThreadLocalSession(session);
+		try {
+			phase.action.run();
+		} catch (Exception e) {
+			throw new CompletionException(e);
+		} finally {
+			SessionManager.dropThreadLocalSession();
+		}
+
+		long duration = System.currentTimeMillis() - startTime;
+		StartupReport.getInstance().addPhase(phase.name, duration);
+		log.config(LogBuilder.createSystemMessage().
+				addParameter("startup phase completed", phase.name).
+				addParameter("duration in ms", String.valueOf(duration)).toString());
+	}
+
+	/**
+	 * Sorts the phases so every phase comes after its dependencies.
+	 *
+	 * @methodtype conversion
+	 */
+	protected List<Phase> getPhasesInDependencyOrder() {
+		List<Phase> result = new ArrayList<Phase>(phases.size());
+		Set<String> done = new HashSet<String>();
+		Set<String> visiting = new HashSet<String>();
+		for (Phase phase : phases.values()) {
+			addInDependencyOrder(phase, result, done, visiting);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected void addInDependencyOrder(Phase phase, List<Phase> result, Set<String> done, Set<String> visiting) {
+		if (done.contains(phase.name)) {
+			return;
+		}
+		if (!visiting.add(phase.name)) {
+			throw new IllegalStateException("cyclic dependency of startup phase " + phase.name);
+		}
+		for (String dependency : phase.dependencies) {
+			Phase dependencyPhase = phases.get(dependency);
+			if (dependencyPhase == null) {
+				throw new IllegalStateException("startup phase " + phase.name + " depends on unknown " + dependency);
+			}
+			addInDependencyOrder(dependencyPhase, result, done, visiting);
+		}
+		visiting.remove(phase.name);
+		done.add(phase.name);
+		result.add(phase);
+	}
+
+	/**
+	 * Threads that make API calls on App Engine have to be created by the ThreadManager.
+	 *
+	 * @methodtype get
+	 */
+	protected ThreadFactory getThreadFactory() {
+		if (ApiProxy.getCurrentEnvironment() != null) {
+			return ThreadManager.currentRequestThreadFactory();
+		}
+		return Executors.defaultThreadFactory();
+	}
+
+	/**
+	 * One startup phase
+	 */
+	protected static class Phase {
+
+		protected final String name;
+		protected final Action action;
+		protected final List<String> dependencies;
+
+		protected Phase(String name, Action action, List<String> dependencies) {
+			this.name = name;
+			this.action = action;
+			this.dependencies = dependencies;
+		}
+	}
+}
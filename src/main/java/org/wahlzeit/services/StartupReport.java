@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects what has been loaded during startup and how long it took, so cold start costs become visible in the log.
+ */
+public class StartupReport {
+
+	/**
+	 *
+	 */
+	protected static final StartupReport instance = new StartupReport();
+
+	/**
+	 *
+	 */
+	protected List<Entry> entries = new ArrayList<Entry>();
+
+	/**
+	 * Duration of every startup phase, see {@link StartupOrchestrator}
+	 */
+	protected Map<String, Long> phaseDurations = new LinkedHashMap<String, Long>();
+
+	/**
+	 * @methodtype get
+	 */
+	public static StartupReport getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @param name           What has been loaded, e.g. "photos"
+	 * @param noEntities     The number of loaded entities
+	 * @param durationMillis The time it took
+	 * @methodtype command
+	 */
+	public synchronized void addEntry(String name, int noEntities, long durationMillis) {
+		entries.add(new Entry(name, noEntities, durationMillis));
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void addPhase(String name, long durationMillis) {
+		phaseDurations.put(name, durationMillis);
+	}
+
+	/**
+	 * @return the duration of the phase or -1 if it has not completed
+	 * @methodtype get
+	 */
+	public synchronized long getPhaseDuration(String name) {
+		Long result = phaseDurations.get(name);
+		return result != null ? result : -1;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getNoEntities(String name) {
+		int result = 0;
+		for (Entry entry : entries) {
+			if (entry.name.equals(name)) {
+				result += entry.noEntities;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		phaseDurations.clear();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public synchronized String asString() {
+		StringBuilder builder = new StringBuilder("Startup report:");
+		long totalMillis = 0;
+		for (Entry entry : entries) {
+			builder.append(" ").append(entry.name).append(": ");
+			builder.append(entry.noEntities).append(" in ").append(entry.durationMillis).append(" ms;");
+			totalMillis += entry.durationMillis;
+		}
+		builder.append(" total: ").append(totalMillis).append(" ms");
+		if (!phaseDurations.isEmpty()) {
+			builder.append("; phases:");
+			for (Map.Entry<String, Long> phase : phaseDurations.entrySet()) {
+				builder.append(" ").append(phase.getKey()).append(": ").append(phase.getValue()).append(" ms;");
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * One line of the report.
+	 */
+	protected static class Entry {
+
+		protected final String name;
+		protected final int noEntities;
+		protected final long durationMillis;
+
+		protected Entry(String name, int noEntities, long durationMillis) {
+			this.name = name;
+			this.noEntities = noEntities;
+			this.durationMillis = durationMillis;
+		}
+	}
+}
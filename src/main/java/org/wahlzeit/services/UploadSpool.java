@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Spools uploaded files to the temp directory instead of buffering them on the heap. Uploads that exceed the byte
+ * limit are rejected while they are being read. The copy buffers are pooled, so concurrent uploads do not each
+ * allocate a new one.
+ * <p>
+ * Files of abandoned uploads are deleted by cleanUp once they are older than maxAge. The spool holds at most
+ * maxSpooledBytes; if it is full, old files are cleaned up first, and if that does not help, the upload is rejected.
+ * The spooled bytes are only counted exactly by cleanUp, uploads deleted meanwhile are still counted until then.
+ */
+public class UploadSpool {
+
+	private static final Logger log = Logger.getLogger(UploadSpool.class.getName());
+
+	/**
+	 *
+	 */
+	public static final String MAX_BYTES_PROPERTY = "wahlzeit.upload.maxBytes";
+	public static final String MAX_SPOOLED_BYTES_PROPERTY = "wahlzeit.upload.maxSpooledBytes";
+	public static final String MAX_AGE_PROPERTY = "wahlzeit.upload.maxAgeMillis";
+
+	/**
+	 *
+	 */
+	public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+	public static final long DEFAULT_MAX_SPOOLED_BYTES = 256L * 1024 * 1024;
+	public static final long DEFAULT_MAX_AGE = 2 * 60 * 60 * 1000;
+
+	/**
+	 *
+	 */
+	protected static final int BUFFER_SIZE = 64 * 1024;
+	protected static final int MAX_POOLED_BUFFERS = 16;
+	protected static final String FILE_PREFIX = "upload";
+	protected static final String FILE_SUFFIX = ".tmp";
+
+	/**
+	 *
+	 */
+	private static UploadSpool instance = null;
+
+	/**
+	 *
+	 */
+	protected final File spoolDir;
+	protected final long maxBytes;
+	protected final long maxSpooledBytes;
+	protected final long maxAge;
+	protected final Deque<byte[]> bufferPool = new ArrayDeque<byte[]>();
+
+	/**
+	 * Bytes of the spooled files, and bytes reserved for uploads that are being spooled
+	 */
+	protected final AtomicLong noSpooledBytes = new AtomicLong();
+	protected final AtomicLong noReservedBytes = new AtomicLong();
+
+	/**
+	 *
+	 */
+	public UploadSpool(File spoolDir, long maxBytes) {
+		this(spoolDir, maxBytes, Math.max(maxBytes, DEFAULT_MAX_SPOOLED_BYTES), DEFAULT_MAX_AGE);
+	}
+
+	/**
+	 *
+	 */
+	public UploadSpool(File spoolDir, long maxBytes, long maxSpooledBytes, long maxAge) {
+		if (spoolDir == null) {
+			throw new IllegalArgumentException("Spool directory is null!");
+		}
+		if (maxBytes <= 0 || maxSpooledBytes < maxBytes) {
+			throw new IllegalArgumentException("Byte limit must be positive and not exceed the spool limit!");
+		}
+		if (maxAge <= 0) {
+			throw new IllegalArgumentException("Maximum age must be positive!");
+		}
+		this.spoolDir = spoolDir;
+		this.maxBytes = maxBytes;
+		this.maxSpooledBytes = maxSpooledBytes;
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public static synchronized UploadSpool getInstance() {
+		if (instance == null) {
+			long maxBytes = Long.getLong(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES);
+			instance = new UploadSpool(getDefaultSpoolDir(), maxBytes,
+					Math.max(maxBytes, Long.getLong(MAX_SPOOLED_BYTES_PROPERTY, DEFAULT_MAX_SPOOLED_BYTES)),
+					Long.getLong(MAX_AGE_PROPERTY, DEFAULT_MAX_AGE));
+		}
+		return instance;
+	}
+
+	/**
+	 * Returns the temp directory of the SysConfig if it is writable, otherwise a directory in java.io.tmpdir, e.g.
+	 * on App Engine standard, where the deployed web app is read-only.
+	 *
+	 * @methodtype get
+	 */
+	protected static File getDefaultSpoolDir() {
+		File result = new File(SysConfig.getTempDir().asString());
+		if (isWritable(result)) {
+			return result;
+		}
+		return new File(System.getProperty("java.io.tmpdir"), "wahlzeit-uploads");
+	}
+
+	/**
+	 * Tries to create a file in the directory, as the file permissions do not tell about read-only file systems.
+	 *
+	 * @methodtype boolean-query
+	 */
+	protected static boolean isWritable(File dir) {
+		try {
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				return false;
+			}
+			File probe = File.createTempFile(FILE_PREFIX, ".probe", dir);
+			if (!probe.delete()) {
+				probe.deleteOnExit();
+			}
+			return true;
+		} catch (IOException | SecurityException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public static synchronized void setInstance(UploadSpool newInstance) {
+		instance = newInstance;
+	}
+
+	/**
+	 * Copies the input into a new file of the spool directory and closes the input.
+	 *
+	 * @throws IllegalArgumentException if the input exceeds the byte limit; nothing is left in the spool then
+	 * @throws IOException if the spool is full or can not be written
+	 * @methodtype command
+	 */
+	public SpooledUpload spool(InputStream input, String fileName) throws IOException, IllegalArgumentException {
+		try {
+			reserveBytes();
+		} catch (IOException e) {
+			input.close();
+			throw e;
+		}
+		try {
+			return doSpool(input, fileName);
+		} finally {
+			noReservedBytes.addAndGet(-maxBytes);
+		}
+	}
+
+	/**
+	 * Reserves room for an upload of maxBytes, cleaning up old files if the spool is full.
+	 *
+	 * @methodtype command
+	 */
+	protected void reserveBytes() throws IOException {
+		if (noReservedBytes.addAndGet(maxBytes) + noSpooledBytes.get() <= maxSpooledBytes) {
+			return;
+		}
+		noReservedBytes.addAndGet(-maxBytes);
+		cleanUp();
+		if (noReservedBytes.addAndGet(maxBytes) + noSpooledBytes.get() > maxSpooledBytes) {
+			noReservedBytes.addAndGet(-maxBytes);
+			throw new IOException("Upload spool is full");
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected SpooledUpload doSpool(InputStream input, String fileName) throws IOException {
+		if (!spoolDir.isDirectory() && !spoolDir.mkdirs()) {
+			input.close();
+			throw new IOException("Can not create spool directory " + spoolDir.getAbsolutePath());
+		}
+
+		File file = File.createTempFile(FILE_PREFIX, FILE_SUFFIX, spoolDir);
+		byte[] buffer = borrowBuffer();
+		long noBytes = 0;
+		boolean isComplete = false;
+		try (InputStream in = input; OutputStream output = new FileOutputStream(file)) {
+			for (int bytesRead = in.read(buffer); bytesRead != -1; bytesRead = in.read(buffer)) {
+				noBytes += bytesRead;
+				if (noBytes > maxBytes) {
+					throw new IllegalArgumentException("Upload exceeds the limit of " + maxBytes + " bytes");
+				}
+				output.write(buffer, 0, bytesRead);
+			}
+			isComplete = true;
+		} finally {
+			returnBuffer(buffer);
+			if (!isComplete && !file.delete()) {
+				file.deleteOnExit();
+			}
+		}
+
+		noSpooledBytes.addAndGet(noBytes);
+		log.config(LogBuilder.createSystemMessage().
+				addAction("spool upload").
+				addParameter("file name", fileName).
+				addParameter("bytes", String.valueOf(noBytes)).toString());
+		return new SpooledUpload(fileName, file, noBytes);
+	}
+
+	/**
+	 * Deletes the spooled files older than maxAge, i.e. those of abandoned uploads and expired sessions, and counts
+	 * the bytes of the remaining ones.
+	 *
+	 * @methodtype command
+	 */
+	public synchronized void cleanUp() {
+		File[] files = spoolDir.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		long minLastModified = System.currentTimeMillis() - maxAge;
+		long remainingBytes = 0;
+		int noDeletedFiles = 0;
+		for (File file : files) {
+			String name = file.getName();
+			if (!file.isFile() || !name.startsWith(FILE_PREFIX) || !name.endsWith(FILE_SUFFIX)) {
+				continue;
+			}
+			long noBytes = file.length();
+			if (file.lastModified() < minLastModified && file.delete()) {
+				noDeletedFiles++;
+			} else {
+				remainingBytes += noBytes;
+			}
+		}
+		noSpooledBytes.set(remainingBytes);
+
+		log.config(LogBuilder.createSystemMessage().
+				addAction("clean up upload spool").
+				addParameter("deleted files", String.valueOf(noDeletedFiles)).
+				addParameter("remaining bytes", String.valueOf(remainingBytes)).toString());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoSpooledBytes() {
+		return noSpooledBytes.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public File getSpoolDir() {
+		return spoolDir;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected synchronized byte[] borrowBuffer() {
+		byte[] result = bufferPool.poll();
+		return result != null ? result : new byte[BUFFER_SIZE];
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected synchronized void returnBuffer(byte[] buffer) {
+		if (bufferPool.size() < MAX_POOLED_BUFFERS) {
+			bufferPool.push(buffer);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected synchronized int getNoPooledBuffers() {
+		return bufferPool.size();
+	}
+}
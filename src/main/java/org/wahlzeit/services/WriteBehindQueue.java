@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.apphosting.api.ApiProxy;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.VoidWork;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Collects dirty Persistent objects and writes them in batches from a background thread, so requests do not wait for
+ * the datastore. An object that is queued several times before the next flush is only written once.
+ * <p>
+ * If more than maxPending objects are queued, the queuing thread flushes itself (back-pressure). Without background
+ * threads, e.g. on automatically scaled App Engine instances, every object is written right away.
+ */
+public class WriteBehindQueue {
+
+	private static final Logger log = Logger.getLogger(WriteBehindQueue.class.getName());
+
+	/**
+	 *
+	 */
+	public static final String ENABLED_PROPERTY = "wahlzeit.writeBehind.enabled";
+	public static final String MAX_BATCH_SIZE_PROPERTY = "wahlzeit.writeBehind.maxBatchSize";
+	public static final String FLUSH_INTERVAL_PROPERTY = "wahlzeit.writeBehind.flushIntervalMillis";
+	public static final String MAX_PENDING_PROPERTY = "wahlzeit.writeBehind.maxPending";
+
+	/**
+	 * The datastore accepts at most 500 entities per batch
+	 */
+	public static final int DEFAULT_MAX_BATCH_SIZE = 200;
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+	public static final int DEFAULT_MAX_PENDING = 5000;
+
+	/**
+	 *
+	 */
+	private static WriteBehindQueue instance = null;
+
+	/**
+	 *
+	 */
+	protected final int maxBatchSize;
+	protected final long flushInterval;
+	protected final int maxPending;
+
+	/**
+	 * Pending objects and the manager that writes them
+	 */
+	protected Map<Persistent, ObjectManager> pending = new IdentityHashMap<Persistent, ObjectManager>();
+
+	/**
+	 * Null if objects are written right away
+	 */
+	protected ScheduledExecutorService flusher = null;
+
+	/**
+	 *
+	 */
+	public WriteBehindQueue(int maxBatchSize, long flushInterval, int maxPending) {
+		if (maxBatchSize <= 0 || flushInterval <= 0 || maxPending <= 0) {
+			throw new IllegalArgumentException("Batch size, flush interval and pending limit must be positive!");
+		}
+		this.maxBatchSize = maxBatchSize;
+		this.flushInterval = flushInterval;
+		this.maxPending = maxPending;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public static synchronized WriteBehindQueue getInstance() {
+		if (instance == null) {
+			instance = new WriteBehindQueue(
+					Integer.getInteger(MAX_BATCH_SIZE_PROPERTY, DEFAULT_MAX_BATCH_SIZE),
+					Long.getLong(FLUSH_INTERVAL_PROPERTY, DEFAULT_FLUSH_INTERVAL),
+					Integer.getInteger(MAX_PENDING_PROPERTY, DEFAULT_MAX_PENDING));
+			if (Boolean.getBoolean(ENABLED_PROPERTY)) {
+				instance.start();
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public static synchronized void setInstance(WriteBehindQueue newInstance) {
+		instance = newInstance;
+	}
+
+	/**
+	 * Starts the background flushing. Falls back to writing right away if no background thread can be created.
+	 *
+	 * @methodtype command
+	 */
+	public synchronized void start() {
+		if (flusher != null) {
+			return;
+		}
+		try {
+			ScheduledExecutorService newFlusher = Executors.newSingleThreadScheduledExecutor(getThreadFactory());
+			newFlusher.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					flushInBackground();
+				}
+			}, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+			flusher = newFlusher;
+			log.config(LogBuilder.createSystemMessage().
+					addAction("start write-behind queue").
+					addParameter("flush interval", String.valueOf(flushInterval)).toString());
+		} catch (RuntimeException e) {
+			log.warning(LogBuilder.createSystemMessage().
+					addException("No background thread available, objects are written right away", e).toString());
+		}
+	}
+
+	/**
+	 * Stops the background flushing and writes all pending objects.
+	 *
+	 * @methodtype command
+	 */
+	public void shutDown() {
+		ScheduledExecutorService oldFlusher;
+		synchronized (this) {
+			oldFlusher = flusher;
+			flusher = null;
+		}
+		if (oldFlusher != null) {
+			oldFlusher.shutdown();
+			try {
+				oldFlusher.awaitTermination(flushInterval, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		flush();
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public synchronized boolean isWriteBehind() {
+		return flusher != null;
+	}
+
+	/**
+	 * Queues the object to be written by the manager.
+	 *
+	 * @methodtype command
+	 */
+	public void enqueue(ObjectManager manager, Persistent object) {
+		boolean doFlush;
+		synchronized (this) {
+			pending.put(object, manager);
+			doFlush = flusher == null || pending.size() >= maxPending;
+		}
+		if (doFlush) {
+			flush();
+		}
+	}
+
+	/**
+	 * Writes all pending objects in batches of at most maxBatchSize objects per manager. If writing fails, the
+	 * objects that are still dirty are queued again and the first failure is rethrown.
+	 *
+	 * @methodtype command
+	 */
+	public void flush() {
+		Map<Persistent, ObjectManager> toWrite;
+		synchronized (this) {
+			if (pending.isEmpty()) {
+				return;
+			}
+			toWrite = pending;
+			pending = new IdentityHashMap<Persistent, ObjectManager>();
+		}
+
+		Map<ObjectManager, List<Persistent>> objectsByManager = new IdentityHashMap<ObjectManager, List<Persistent>>();
+		for (Map.Entry<Persistent, ObjectManager> entry : toWrite.entrySet()) {
+			List<Persistent> objects = objectsByManager.get(entry.getValue());
+			if (objects == null) {
+				objects = new ArrayList<Persistent>();
+				objectsByManager.put(entry.getValue(), objects);
+			}
+			objects.add(entry.getKey());
+		}
+
+		RuntimeException failure = null;
+		for (Map.Entry<ObjectManager, List<Persistent>> entry : objectsByManager.entrySet()) {
+			try {
+				entry.getKey().writeObjects(entry.getValue());
+			} catch (RuntimeException e) {
+				requeue(entry.getKey(), entry.getValue());
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Queues the objects that are still dirty again, unless they were queued meanwhile.
+	 *
+	 * @methodtype command
+	 */
+	protected synchronized void requeue(ObjectManager manager, List<Persistent> objects) {
+		for (Persistent object : objects) {
+			if (object.isDirty() && !pending.containsKey(object)) {
+				pending.put(object, manager);
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void flushInBackground() {
+		try {
+			ObjectifyService.run(new VoidWork() {
+				@Override
+				public void vrun() {
+					flush();
+				}
+			});
+		} catch (RuntimeException e) {
+			// keep the flusher alive, the objects that were not written are queued again for the next flush
+			log.warning(LogBuilder.createSystemMessage().addException("Background flush failed", e).toString());
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getNoPending() {
+		return pending.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected ThreadFactory getThreadFactory() {
+		if (ApiProxy.getCurrentEnvironment() != null) {
+			return ThreadManager.backgroundThreadFactory();
+		}
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread result = new Thread(runnable, "write-behind");
+				result.setDaemon(true);
+				return result;
+			}
+		};
+	}
+}
@@ -21,6 +21,7 @@
 package org.wahlzeit.servlets;
 
 import org.wahlzeit.main.ServiceMain;
+import org.wahlzeit.model.PraiseCounter;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.Session;
@@ -87,6 +88,7 @@ public abstract class AbstractServlet extends HttpServlet {
 			displayNullPage(request, response);
 		} else {
 			myGet(request, response);
+			PraiseCounter.getInstance().flushIfDue();
 		}
 
 		SessionManager.dropThreadLocalSession();
@@ -106,6 +108,7 @@ public abstract class AbstractServlet extends HttpServlet {
 			displayNullPage(request, response);
 		} else {
 			myPost(request, response);
+			PraiseCounter.getInstance().flushIfDue();
 		}
 
 		SessionManager.dropThreadLocalSession();
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.servlets;
+
+import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoLeaderboard;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.utils.StringUtil;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Servlet that returns the photo leaderboard as JSON. Takes the optional parameters tag, offset and limit.
+ */
+public class LeaderboardServlet extends HttpServlet {
+
+	private static final Logger log = Logger.getLogger(LeaderboardServlet.class.getName());
+
+	/**
+	 *
+	 */
+	public static final String TAG = "tag";
+	public static final String OFFSET = "offset";
+	public static final String LIMIT = "limit";
+	public static final int DEFAULT_LIMIT = 20;
+
+	/**
+	 * The leaderboard changes with every vote, but a short delay is fine
+	 */
+	protected static final String CACHE_CONTROL = "public, max-age=60";
+
+	/**
+	 * @methodtype command
+	 */
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String tag = request.getParameter(TAG);
+		tag = StringUtil.isNullOrEmptyString(tag) ? null : tag;
+		int offset;
+		int limit;
+		try {
+			offset = getIntParameter(request, OFFSET, 0);
+			limit = getIntParameter(request, LIMIT, DEFAULT_LIMIT);
+		} catch (IllegalArgumentException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+
+		PhotoLeaderboard leaderboard = PhotoLeaderboard.getInstance();
+		limit = Math.min(limit, tag == null ? leaderboard.getSize() : leaderboard.getTagSize());
+		List<Photo> photos = leaderboard.getTopPhotos(tag, offset, limit);
+		log.config(LogBuilder.createSystemMessage().
+				addAction("Provide leaderboard").
+				addParameter("tag", tag).
+				addParameter("number of photos", photos.size()).toString());
+
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", CACHE_CONTROL);
+		response.getWriter().write(asJson(tag, offset, photos));
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected static int getIntParameter(HttpServletRequest request, String name, int defaultValue) {
+		String value = request.getParameter(name);
+		if (StringUtil.isNullOrEmptyString(value)) {
+			return defaultValue;
+		}
+
+		int result;
+		try {
+			result = Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(name + " must be a number");
+		}
+		if (result < 0) {
+			throw new IllegalArgumentException(name + " must not be negative");
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asJson(String tag, int offset, List<Photo> photos) {
+		StringBuilder result = new StringBuilder(64 + photos.size() * 128);
+		result.append("{\"tag\":").append(tag == null ? "null" : asJsonString(tag));
+		result.append(",\"offset\":").append(offset);
+		result.append(",\"photos\":[");
+		int rank = offset;
+		for (Photo photo : photos) {
+			if (rank != offset) {
+				result.append(',');
+			}
+			result.append("{\"rank\":").append(++rank);
+			result.append(",\"id\":").append(asJsonString(photo.getId().asString()));
+			result.append(",\"ownerId\":").append(photo.getOwnerId() == null ? "null" : asJsonString(photo.getOwnerId()));
+			result.append(",\"praise\":").append(photo.getPraise());
+			result.append(",\"noVotes\":").append(photo.getNoVotes());
+			result.append(",\"link\":").append(asJsonString(photo.getId().asString() + ".html"));
+			result.append('}');
+		}
+		result.append("]}");
+		return result.toString();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asJsonString(String value) {
+		StringBuilder result = new StringBuilder(value.length() + 2);
+		result.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				result.append('\\').append(c);
+			} else if (c < 0x20 || c == '<' || c == '>' || c == '&') {
+				result.append(String.format("\\u%04x", (int) c));
+			} else {
+				result.append(c);
+			}
+		}
+		result.append('"');
+		return result.toString();
+	}
+
+}
@@ -21,8 +21,6 @@
 package org.wahlzeit.servlets;
 
 import com.google.api.client.util.Charsets;
-import com.google.appengine.api.images.Image;
-import com.google.appengine.api.images.ImagesServiceFactory;
 import com.google.common.io.CharStreams;
 import org.apache.commons.fileupload.FileItemIterator;
 import org.apache.commons.fileupload.FileItemStream;
@@ -35,12 +33,13 @@ import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.SessionManager;
+import org.wahlzeit.services.SpooledUpload;
+import org.wahlzeit.services.UploadSpool;
 import org.wahlzeit.webparts.WebPart;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -161,12 +160,24 @@ public class MainServlet extends AbstractServlet {
 				String filename = fileItemStream.getName();
 
 				if (!fileItemStream.isFormField()) {
-					InputStream inputStream = fileItemStream.openStream();
-					Image image = getImage(inputStream);
 					User user = (User) us.getClient();
-					user.setUploadedImage(image);
-					result.put("fileName", filename);
-					log.config(LogBuilder.createSystemMessage().addParameter("Uploaded image", filename).toString());
+					try {
+						SpooledUpload upload = UploadSpool.getInstance().spool(fileItemStream.openStream(), filename);
+						user.setUploadedFile(upload);
+						result.put("fileName", filename);
+						log.config(LogBuilder.createSystemMessage().addParameter("Uploaded image", filename).toString());
+					} catch (IllegalArgumentException e) {
+						user.setUploadedFile(null);
+						log.warning(LogBuilder.createSystemMessage().
+								addParameter("Rejected upload", filename).
+								addException("upload too large", e).toString());
+					} catch (IOException e) {
+						// the form handler tells the user that there is no uploaded file
+						user.setUploadedFile(null);
+						log.warning(LogBuilder.createSystemMessage().
+								addParameter("Rejected upload", filename).
+								addException("upload could not be spooled", e).toString());
+					}
 				} else {
 					String key = fileItemStream.getFieldName();
 					InputStream is = fileItemStream.openStream();
@@ -183,24 +194,4 @@ public class MainServlet extends AbstractServlet {
 
 		return result;
 	}
-
-	/**
-	 * Create an Image object from the Input stream.
-	 */
-	private Image getImage(InputStream input) throws IOException {
-		Image image;
-		try {
-			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-			byte[] buffer = new byte[1024 * 1024];
-			int bytesRead = input.read(buffer);
-			while (bytesRead != -1) {
-				outputStream.write(buffer, 0, bytesRead);
-				bytesRead = input.read(buffer);
-			}
-			image = ImagesServiceFactory.makeImage(outputStream.toByteArray());
-		} finally {
-			input.close();
-		}
-		return image;
-	}
 }
@@ -7,6 +7,7 @@ import org.wahlzeit.model.Guest;
 import org.wahlzeit.model.UserManager;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.OfyService;
+import org.wahlzeit.services.UploadSpool;
 
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -34,7 +35,7 @@ public class SessionCleanupServlet extends HttpServlet {
 
 	/**
 	 * Clears all {@link HttpSession}s in the datastore that are expired and if they are guest sessions, deletes the
-	 * corresponding {@link Guest} object, too.
+	 * corresponding {@link Guest} object, too. Other clients only lose the mapping of the expired session.
 	 */
 	private void clearAll(HttpServletResponse response) {
 
@@ -57,9 +58,13 @@ public class SessionCleanupServlet extends HttpServlet {
 				Client client = UserManager.getInstance().getClientByHttpSessionId(sessionId);
 				if (client != null && client instanceof Guest) {
 					UserManager.getInstance().deleteClient(client);
+				} else {
+					UserManager.getInstance().removeHttpSessionIdToClientMapping(sessionId);
 				}
 				OfyService.ofy().delete().entity(httpSessionEntity).now();
 			}
+			// spooled uploads of the expired sessions are abandoned
+			UploadSpool.getInstance().cleanUp();
 			response.setStatus(HttpServletResponse.SC_OK);
 		} catch (Exception e) {
 			log.config(LogBuilder.createSystemMessage().
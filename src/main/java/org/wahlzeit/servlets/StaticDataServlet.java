@@ -1,17 +1,24 @@
 package org.wahlzeit.servlets;
 
-import com.google.appengine.api.images.Image;
 import org.apache.http.HttpStatus;
 import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoManager;
-import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.model.persistence.ImageStorage;
 import org.wahlzeit.services.LogBuilder;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.File;
 import java.io.IOException;
-import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -24,8 +31,30 @@ import java.util.logging.Logger;
  */
 public class StaticDataServlet extends AbstractServlet {
 
+	/**
+	 * Renditions never change for a given photo id and size, so browsers may keep them for a year
+	 */
+	protected static final String IMAGE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+	/**
+	 * Upper bound of the number of ETags kept; one entry takes roughly 150 bytes
+	 */
+	public static final int MAX_ETAGS = 20000;
+
 	Logger log = Logger.getLogger(StaticDataServlet.class.getName());
 
+	/**
+	 * ETags of recently served renditions, so neither the photo nor the image needs to be loaded to answer
+	 * conditional requests
+	 */
+	protected final Map<String, String> eTags = Collections.synchronizedMap(
+			new LinkedHashMap<String, String>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+					return size() > MAX_ETAGS;
+				}
+			});
+
 	@Override
 	public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
 		try {
@@ -40,11 +69,53 @@ public class StaticDataServlet extends AbstractServlet {
 					addParameter("size", size).toString());
 
 			if ("image".equals(type)) {
-				Image image = getImage(photoId, size);
-				if (image != null) {
-					response.getOutputStream().write(image.getImageData());
-					response.getOutputStream().flush();
-					response.setStatus(HttpStatus.SC_OK);
+				String eTagKey = photoId + "-" + size;
+				String eTag = eTags.get(eTagKey);
+				// a known ETag decides If-None-Match on its own, so the photo is only looked up if needed
+				if (eTag != null && isNotModified(request, eTag, -1)) {
+					writeNotModified(response, eTag, -1);
+					return;
+				}
+
+				long lastModified = getImageLastModified(photoId);
+				if (eTag != null && isNotModified(request, eTag, lastModified)) {
+					writeNotModified(response, eTag, lastModified);
+					return;
+				}
+
+				File imageFile = ImageStorage.getInstance().getImageFile(photoId, size);
+				if (imageFile != null) {
+					if (eTag == null) {
+						eTag = createETag(imageFile);
+						eTags.put(eTagKey, eTag);
+					}
+					if (lastModified < 0) {
+						lastModified = imageFile.lastModified();
+					}
+					if (isNotModified(request, eTag, lastModified)) {
+						writeNotModified(response, eTag, lastModified);
+					} else {
+						setCachingHeaders(response, eTag, lastModified);
+						writeFile(imageFile, response);
+					}
+					return;
+				}
+
+				byte[] imageData = PhotoManager.getInstance().getImageData(photoId, size);
+				if (imageData != null) {
+					if (eTag == null) {
+						eTag = createETag(imageData);
+						eTags.put(eTagKey, eTag);
+					}
+					if (isNotModified(request, eTag, lastModified)) {
+						writeNotModified(response, eTag, lastModified);
+					} else {
+						response.setStatus(HttpStatus.SC_OK);
+						setCachingHeaders(response, eTag, lastModified);
+						response.setContentLength(imageData.length);
+						response.getOutputStream().write(imageData);
+						response.getOutputStream().flush();
+					}
 				} else {
 					log.warning(LogBuilder.createSystemMessage().addMessage("image not found").toString());
 					response.setStatus(HttpStatus.SC_NOT_FOUND);
@@ -60,32 +131,122 @@ public class StaticDataServlet extends AbstractServlet {
 		}
 	}
 
+	/**
+	 * Hands the file to the response with FileChannel.transferTo, so the image is not copied into the heap.
+	 *
+	 * @methodtype command
+	 */
+	protected void writeFile(File file, HttpServletResponse response) throws IOException {
+		try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = fileChannel.size();
+			response.setStatus(HttpStatus.SC_OK);
+			response.setContentLength((int) size);
+			WritableByteChannel outChannel = Channels.newChannel(response.getOutputStream());
+			long position = 0;
+			while (position < size) {
+				position += fileChannel.transferTo(position, size - position, outChannel);
+			}
+			response.getOutputStream().flush();
+		}
+	}
+
 	/**
 	 * @methodtype command
+	 */
+	protected void writeNotModified(HttpServletResponse response, String eTag, long lastModified) {
+		response.setStatus(HttpStatus.SC_NOT_MODIFIED);
+		setCachingHeaders(response, eTag, lastModified);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void setCachingHeaders(HttpServletResponse response, String eTag, long lastModified) {
+		response.setHeader("ETag", eTag);
+		response.setHeader("Cache-Control", IMAGE_CACHE_CONTROL);
+		if (lastModified >= 0) {
+			response.setDateHeader("Last-Modified", lastModified);
+		}
+	}
+
+	/**
+	 * If-None-Match takes precedence over If-Modified-Since, see RFC 7232.
 	 *
-	 * Loads image either from the <@link>PhotoManager</@link> or from the <@link>ImageStorage</@link>. If image does
-	 * not exist, null is returned.
+	 * @methodtype boolean-query
 	 */
-	private Image getImage(String photoId, int size) {
-		Image image = null;
+	protected boolean isNotModified(HttpServletRequest request, String eTag, long lastModified) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			for (String candidate : ifNoneMatch.split(",")) {
+				candidate = candidate.trim();
+				if (candidate.startsWith("W/")) {
+					candidate = candidate.substring(2);
+				}
+				if ("*".equals(candidate) || eTag.equals(candidate)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		if (lastModified < 0) {
+			return false;
+		}
+		long ifModifiedSince;
+		try {
+			ifModifiedSince = request.getDateHeader("If-Modified-Since");
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+		// HTTP dates have a resolution of seconds
+		return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected long getImageLastModified(String photoId) {
 		Photo photo = PhotoManager.getInstance().getPhoto(photoId);
-		if (photo != null) {
-			PhotoSize photoSize = PhotoSize.getFromInt(size);
-			image = photo.getImage(photoSize);
+		return photo != null ? photo.getCreationTime() : -1;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected String createETag(File file) throws IOException {
+		MessageDigest digest = getDigest();
+		try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			digest.update(fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size()));
 		}
-		// if not in cache load from Google Cloud Storage
-		if (image == null) {
-			Serializable rawImage = null;
-			try {
-				rawImage = ImageStorage.getInstance().readImage(photoId, size);
-			} catch (IOException e) {
-				log.warning(LogBuilder.createSystemMessage().addException("Problem when reading image.", e).toString());
-			}
-			if (rawImage != null && rawImage instanceof Image) {
-				image = (Image) rawImage;
-			}
+		return asETag(digest.digest());
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected String createETag(byte[] imageData) {
+		return asETag(getDigest().digest(imageData));
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected String asETag(byte[] hash) {
+		StringBuilder result = new StringBuilder(2 * hash.length + 2).append('"');
+		for (byte b : hash) {
+			result.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
 		}
-		return image;
+		return result.append('"').toString();
 	}
-}
 
+	/**
+	 * @methodtype get
+	 */
+	protected MessageDigest getDigest() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("MD5 is not available", e);
+		}
+	}
+}
@@ -31,6 +31,7 @@ import org.junit.runners.Suite;
 		org.wahlzeit.handlers.HandlersTestSuite.class,
 		org.wahlzeit.model.ModelTestSuite.class,
 		org.wahlzeit.services.ServicesTestSuite.class,
+		org.wahlzeit.servlets.ServletsTestSuite.class,
 		org.wahlzeit.utils.UtilsTestSuite.class
 })
 public class AllTests {
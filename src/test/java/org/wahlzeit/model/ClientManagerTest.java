@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.VoidWork;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.wahlzeit.services.EmailAddress;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for the client registry of {@link ClientManager}.
+ */
+public class ClientManagerTest {
+
+	@ClassRule
+	public static RuleChain ruleChain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	@Test
+	public void testNicknamesAreCaseFolded() {
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				new User("clientManagerTest1", "Skipper", "skipper@wahlzeit.org");
+				assertTrue(UserManager.getInstance().isNicknameUsed("sKIPPER"));
+				try {
+					new User("clientManagerTest2", "SKIPPER", "other.skipper@wahlzeit.org");
+					fail("nickname should be used already");
+				} catch (IllegalArgumentException e) {
+					// expected
+				}
+				assertFalse(UserManager.getInstance().hasClientById("clientManagerTest2"));
+			}
+		});
+	}
+
+	@Test
+	public void testChangeNickname() {
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				User user = new User("clientManagerTest3", "Mate", "mate@wahlzeit.org");
+				user.setNickName("MATE");
+				assertEquals("MATE", user.getNickName());
+				assertTrue(UserManager.getInstance().isNicknameUsed("mate"));
+
+				user.setNickName("Bosun");
+				assertFalse(UserManager.getInstance().isNicknameUsed("mate"));
+				assertTrue(UserManager.getInstance().isNicknameUsed("bosun"));
+			}
+		});
+	}
+
+	@Test
+	public void testConcurrentSignUpsWithSameNickname() throws InterruptedException {
+		final int noThreads = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicInteger noSignUps = new AtomicInteger();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < noThreads; i++) {
+			final String id = "clientManagerTestRace" + i;
+			threads.add(new Thread(() -> ObjectifyService.run(new VoidWork() {
+				@Override
+				public void vrun() {
+					try {
+						start.await();
+						new User(id, "Helmsman", id + "@wahlzeit.org");
+						noSignUps.incrementAndGet();
+					} catch (IllegalArgumentException | InterruptedException e) {
+						// lost the race
+					}
+				}
+			})));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(1, noSignUps.get());
+	}
+
+	@Test
+	public void testEmailAddressIndex() {
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				UserManager userManager = UserManager.getInstance();
+				User user = new User("clientManagerTest6", "Navigator", "navigator@wahlzeit.org");
+				assertSame(user, userManager.getUserByEmailAddress("navigator@wahlzeit.org"));
+				assertEquals("clientManagerTest6",
+						userManager.getClientIdByEmailAddress(EmailAddress.getFromString("navigator@wahlzeit.org")));
+				assertFalse(userManager.findEmailAddressIndexInconsistencies().contains("navigator@wahlzeit.org"));
+
+				userManager.deleteClient(user);
+				assertNull(userManager.getClientIdByEmailAddress(EmailAddress.getFromString("navigator@wahlzeit.org")));
+				assertNull(userManager.getUserByEmailAddress("navigator@wahlzeit.org"));
+			}
+		});
+	}
+
+	@Test
+	public void testHttpSessionMappings() {
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				UserManager userManager = UserManager.getInstance();
+				User user = new User("clientManagerTest4", "Cook", "cook@wahlzeit.org");
+				userManager.addHttpSessionIdToClientMapping("session4", user);
+				assertSame(user, userManager.getClientByHttpSessionId("session4"));
+
+				// a new login in the same session replaces the mapping
+				User otherUser = new User("clientManagerTest5", "Purser", "purser@wahlzeit.org");
+				userManager.addHttpSessionIdToClientMapping("session4", otherUser);
+				assertSame(otherUser, userManager.getClientByHttpSessionId("session4"));
+				assertNull(user.getHttpSessionId());
+
+				userManager.removeHttpSessionIdToClientMapping("session4");
+				assertNull(userManager.getClientByHttpSessionId("session4"));
+				assertNull(otherUser.getHttpSessionId());
+				userManager.removeHttpSessionIdToClientMapping("unknownSession");
+			}
+		});
+	}
+}
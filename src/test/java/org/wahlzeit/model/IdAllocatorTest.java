@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link IdAllocator}.
+ */
+public class IdAllocatorTest {
+
+	@Test
+	public void testCountsUpWithoutLessor() {
+		IdAllocator allocator = new IdAllocator(10);
+		allocator.setLastId(41);
+		assertEquals(42, allocator.getNextId());
+		assertEquals(43, allocator.getNextId());
+		assertEquals(43, allocator.getLastId());
+	}
+
+	@Test
+	public void testLeasesBlocks() {
+		final AtomicLong stored = new AtomicLong(100);
+		final AtomicInteger noLeases = new AtomicInteger();
+		IdAllocator allocator = new IdAllocator(3);
+		allocator.setLastId(5);
+		assertEquals(6, allocator.getNextId());
+
+		allocator.setLessor(blockSize -> {
+			noLeases.incrementAndGet();
+			return stored.getAndAdd(blockSize);
+		});
+		assertEquals(101, allocator.getNextId());
+		assertEquals(102, allocator.getNextId());
+		assertEquals(103, allocator.getNextId());
+		assertEquals(1, noLeases.get());
+
+		// another instance leased the next block in the meantime
+		stored.addAndGet(3);
+		assertEquals(107, allocator.getNextId());
+		assertEquals(2, noLeases.get());
+		assertEquals(109, stored.get());
+	}
+
+	@Test
+	public void testConcurrentIdsAreUnique() throws InterruptedException {
+		final AtomicLong stored = new AtomicLong(0);
+		final IdAllocator allocator = new IdAllocator(7);
+		allocator.setLessor(blockSize -> stored.getAndAdd(blockSize));
+
+		final int noThreads = 8;
+		final int noIdsPerThread = 1000;
+		final List<Set<Long>> results = new ArrayList<Set<Long>>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < noThreads; i++) {
+			final Set<Long> ids = new HashSet<Long>();
+			results.add(ids);
+			threads.add(new Thread(() -> {
+				for (int j = 0; j < noIdsPerThread; j++) {
+					ids.add(allocator.getNextId());
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		Set<Long> allIds = new HashSet<Long>();
+		for (Set<Long> ids : results) {
+			allIds.addAll(ids);
+		}
+		assertEquals(noThreads * noIdsPerThread, allIds.size());
+		assertTrue(stored.get() >= noThreads * noIdsPerThread);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsEmptyBlocks() {
+		new IdAllocator(0);
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.datastore.Entity;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.VoidWork;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+import org.wahlzeit.services.OfyService;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link ModelSnapshot}.
+ */
+public class ModelSnapshotTest {
+
+	@ClassRule
+	public static TestRule chain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("wahlzeit", ".snapshot");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file.toPath());
+	}
+
+	@Test
+	public void testWriteAndRead() {
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				try {
+					createSnapshot(System.currentTimeMillis(), "Dschunke", "Kutter").write(file);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+
+				ModelSnapshot snapshot = ModelSnapshot.read(file);
+				assertNotNull(snapshot);
+				List<Entity> entities = snapshot.getEntities(ModelSnapshot.SAILBOAT_TYPES);
+				assertEquals(2, entities.size());
+				SailboatType type = OfyService.ofy().load().fromEntity(entities.get(1));
+				assertEquals("Kutter", type.getName());
+				assertTrue(snapshot.getEntities(ModelSnapshot.PHOTOS).isEmpty());
+			}
+		});
+	}
+
+	@Test
+	public void testReadMissingFile() throws IOException {
+		Files.delete(file.toPath());
+		assertNull(ModelSnapshot.read(file));
+	}
+
+	@Test
+	public void testReadCorruptFile() throws IOException {
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				try {
+					createSnapshot(System.currentTimeMillis(), "Dschunke").write(file);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+
+		// flip the last byte of the last record, just before the checksum of its section
+		try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+			long position = out.length() - 9;
+			out.seek(position);
+			int value = out.read();
+			out.seek(position);
+			out.write(value ^ 0xFF);
+		}
+		assertNull(ModelSnapshot.read(file));
+	}
+
+	@Test
+	public void testReadTruncatedFile() throws IOException {
+		Files.write(file.toPath(), new byte[] {0x57, 0x5A, 0x53, 0x4E, 0, 0, 0, 1, 0});
+		assertNull(ModelSnapshot.read(file));
+	}
+
+	@Test
+	public void testReadChangedObjects() {
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				long now = System.currentTimeMillis();
+				OfyService.ofy().save().entity(new SailboatType("Katamaran")).now();
+
+				ModelSnapshot recent = createSnapshot(now + ModelSnapshot.CLOCK_SKEW_MARGIN_MILLIS - 1);
+				List<SailboatType> changed = recent.readChangedObjects(SailboatType.class);
+				assertEquals(1, changed.size());
+				assertEquals("Katamaran", changed.get(0).getName());
+
+				long later = System.currentTimeMillis() + 2 * ModelSnapshot.CLOCK_SKEW_MARGIN_MILLIS;
+				assertTrue(createSnapshot(later).readChangedObjects(SailboatType.class).isEmpty());
+			}
+		});
+	}
+
+	@Test
+	public void testRestoredPhotosHaveStoredTags() {
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				PhotoManager photoManager = new PhotoManager() {
+				};
+				photoManager.setLazyImageLoading(true);
+				Photo photo = new Photo(PhotoId.getNextId());
+
+				createSnapshot(System.currentTimeMillis()).restorePhoto(photoManager, photo);
+
+				assertTrue(photoManager.doHasPhoto(photo.getId()));
+				assertTrue(photoManager.storedTagPhotoIds.contains(photo.getId().asInt()));
+			}
+		});
+	}
+
+	/**
+	 *
+	 */
+	private ModelSnapshot createSnapshot(long timestamp, String... typeNames) {
+		Map<String, List<Entity>> sections = new LinkedHashMap<String, List<Entity>>();
+		SailboatType[] types = new SailboatType[typeNames.length];
+		for (int i = 0; i < typeNames.length; i++) {
+			types[i] = new SailboatType(typeNames[i]);
+		}
+		sections.put(ModelSnapshot.PHOTOS, Collections.<Entity>emptyList());
+		sections.put(ModelSnapshot.SAILBOAT_TYPES, ModelSnapshot.toEntities(Arrays.asList(types)));
+		return new ModelSnapshot(timestamp, sections);
+	}
+}
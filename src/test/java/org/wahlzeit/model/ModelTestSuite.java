@@ -31,15 +31,27 @@ import org.junit.runners.Suite;
 		org.wahlzeit.model.persistence.PersistanceTestSuite.class,
 		org.wahlzeit.model.AccessRightsTest.class,
 		org.wahlzeit.model.CartesianCoordinateTest.class,
+		org.wahlzeit.model.ClientManagerTest.class,
 		org.wahlzeit.model.FlagReasonTest.class,
 		org.wahlzeit.model.GenderTest.class,
 		org.wahlzeit.model.GuestTest.class,
+		org.wahlzeit.model.IdAllocatorTest.class,
 		org.wahlzeit.model.LocationTest.class,
+		org.wahlzeit.model.ModelSnapshotTest.class,
+		org.wahlzeit.model.PhotoBitmapIndexTest.class,
+		org.wahlzeit.model.PhotoCaseManagerTest.class,
 		org.wahlzeit.model.PhotoFilterTest.class,
+		org.wahlzeit.model.PhotoIdTest.class,
+		org.wahlzeit.model.PhotoLeaderboardTest.class,
+		org.wahlzeit.model.PhotoManagerTest.class,
+		org.wahlzeit.model.PhotoRankingTest.class,
+		org.wahlzeit.model.PhotoUtilTest.class,
+		org.wahlzeit.model.PraiseCounterTest.class,
 		org.wahlzeit.model.SailboatPhotoFactoryTest.class,
 		org.wahlzeit.model.SailboatPhotoManagerTest.class,
 		org.wahlzeit.model.SailboatPhotoTest.class,
 		org.wahlzeit.model.SphericCoordinateTest.class,
+		org.wahlzeit.model.TagIndexTest.class,
 		org.wahlzeit.model.TagsTest.class,
 		org.wahlzeit.model.UserStatusTest.class,
 		org.wahlzeit.model.ValueTest.class
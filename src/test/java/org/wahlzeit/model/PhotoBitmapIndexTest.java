@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.BitSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link PhotoBitmapIndex}.
+ */
+public class PhotoBitmapIndexTest {
+
+	private PhotoBitmapIndex index;
+
+	@Before
+	public void setUp() {
+		index = new PhotoBitmapIndex();
+		index.setStatus(1, PhotoStatus.VISIBLE);
+		index.setStatus(2, PhotoStatus.FLAGGED);
+		index.setStatus(3, PhotoStatus.VISIBLE);
+	}
+
+	@Test
+	public void testDisplayablePhotos() {
+		BitSet displayable = index.getDisplayablePhotos();
+
+		assertEquals(2, displayable.cardinality());
+		assertTrue(displayable.get(1));
+		assertFalse(displayable.get(2));
+		assertTrue(displayable.get(3));
+	}
+
+	@Test
+	public void testStatusChange() {
+		index.setStatus(3, PhotoStatus.VISIBLE.asDeleted(true));
+
+		assertFalse(index.isDisplayable(3));
+		assertFalse(index.getPhotosWithStatus(PhotoStatus.VISIBLE).get(3));
+		assertTrue(index.getPhotosWithStatus(PhotoStatus.DELETED).get(3));
+	}
+
+	@Test
+	public void testRemovePhoto() {
+		index.removePhoto(1);
+
+		assertFalse(index.isDisplayable(1));
+		assertEquals(1, index.getDisplayablePhotos().cardinality());
+	}
+
+	@Test
+	public void testReturnedBitSetsAreCopies() {
+		index.getDisplayablePhotos().clear();
+
+		assertTrue(index.isDisplayable(1));
+	}
+
+	@Test
+	public void testAsBitSet() {
+		BitSet bits = PhotoBitmapIndex.asBitSet(new int[]{4, 7});
+
+		assertEquals(2, bits.cardinality());
+		assertTrue(bits.get(4));
+		assertTrue(bits.get(7));
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.wahlzeit.services.Persistent;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for the moderation queue and flag coalescing of {@link PhotoCaseManager}.
+ */
+public class PhotoCaseManagerTest {
+
+	@ClassRule
+	public static RuleChain ruleChain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	@Test
+	public void testQueueIsOrderedByAscendingAge() {
+		PhotoCaseManager manager = createPhotoCaseManager();
+		PhotoCase oldest = createPhotoCase(1000);
+		PhotoCase newest = createPhotoCase(3000);
+		PhotoCase middle = createPhotoCase(2000);
+		manager.addPhotoCase(oldest);
+		manager.addPhotoCase(newest);
+		manager.addPhotoCase(middle);
+
+		PhotoCase[] cases = manager.getOpenPhotoCasesByAscendingAge();
+		assertEquals(3, cases.length);
+		assertSame(newest, cases[0]);
+		assertSame(middle, cases[1]);
+		assertSame(oldest, cases[2]);
+	}
+
+	@Test
+	public void testPagingWithCursor() {
+		PhotoCaseManager manager = createPhotoCaseManager();
+		List<PhotoCase> expected = new ArrayList<PhotoCase>();
+		for (int i = 0; i < 5; i++) {
+			// same creation time for some cases to exercise the tie break
+			PhotoCase photoCase = createPhotoCase(10000 - (i / 2) * 100);
+			manager.addPhotoCase(photoCase);
+		}
+		for (PhotoCase photoCase : manager.getOpenPhotoCasesByAscendingAge()) {
+			expected.add(photoCase);
+		}
+
+		List<PhotoCase> firstPage = manager.getOpenPhotoCasesByAscendingAge(null, 2);
+		assertEquals(expected.subList(0, 2), firstPage);
+
+		String cursor = PhotoCaseManager.getCursor(firstPage.get(1));
+		assertTrue(manager.hasOpenPhotoCasesAfter(cursor));
+		List<PhotoCase> secondPage = manager.getOpenPhotoCasesByAscendingAge(cursor, 2);
+		assertEquals(expected.subList(2, 4), secondPage);
+
+		cursor = PhotoCaseManager.getCursor(secondPage.get(1));
+		List<PhotoCase> lastPage = manager.getOpenPhotoCasesByAscendingAge(cursor, 2);
+		assertEquals(expected.subList(4, 5), lastPage);
+		assertFalse(manager.hasOpenPhotoCasesAfter(PhotoCaseManager.getCursor(lastPage.get(0))));
+	}
+
+	@Test
+	public void testCursorSurvivesRemovalOfItsCase() {
+		PhotoCaseManager manager = createPhotoCaseManager();
+		PhotoCase first = createPhotoCase(3000);
+		PhotoCase second = createPhotoCase(2000);
+		PhotoCase third = createPhotoCase(1000);
+		manager.addPhotoCase(first);
+		manager.addPhotoCase(second);
+		manager.addPhotoCase(third);
+
+		String cursor = PhotoCaseManager.getCursor(second);
+		manager.removePhotoCase(second);
+
+		assertEquals(2, manager.getNoOpenPhotoCases());
+		List<PhotoCase> page = manager.getOpenPhotoCasesByAscendingAge(cursor, 10);
+		assertEquals(1, page.size());
+		assertSame(third, page.get(0));
+	}
+
+	@Test
+	public void testCursorValidation() {
+		assertTrue(PhotoCaseManager.isValidCursor(""));
+		assertTrue(PhotoCaseManager.isValidCursor(null));
+		assertTrue(PhotoCaseManager.isValidCursor("1234.5"));
+		assertFalse(PhotoCaseManager.isValidCursor("1234"));
+		assertFalse(PhotoCaseManager.isValidCursor("abc.5"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidCursorIsRejected() {
+		createPhotoCaseManager().getOpenPhotoCasesByAscendingAge("not-a-cursor", 10);
+	}
+
+	@Test
+	public void testFlagsOfOnePhotoAreCoalesced() {
+		PhotoCaseManager manager = createPhotoCaseManager();
+		Photo photo = new Photo(PhotoId.getNextId());
+
+		PhotoCase photoCase = manager.flagPhoto(photo, "a@example.com", FlagReason.OFFENSIVE, "first");
+		assertSame(photoCase, manager.flagPhoto(photo, "b@example.com", FlagReason.OFFENSIVE, "second"));
+		assertSame(photoCase, manager.flagPhoto(photo, "a@example.com", FlagReason.COPYRIGHT, "third"));
+
+		assertEquals(1, manager.getNoOpenPhotoCases());
+		assertSame(photoCase, manager.getPhotoCase(photo.getId()));
+		assertSame(photoCase, manager.getPhotoCase(photoCase.getId()));
+		assertEquals(3, photoCase.getNoFlags());
+		assertEquals(2, photoCase.getNoFlags(FlagReason.OFFENSIVE));
+		assertEquals(1, photoCase.getNoFlags(FlagReason.COPYRIGHT));
+		assertEquals(0, photoCase.getNoFlags(FlagReason.OTHER));
+		assertEquals(2, photoCase.getFlaggers().size());
+		assertEquals("a@example.com", photoCase.getFlagger());
+		assertEquals("first", photoCase.getExplanation());
+	}
+
+	@Test
+	public void testDecidedCaseIsNotReopened() {
+		PhotoCaseManager manager = createPhotoCaseManager();
+		Photo photo = new Photo(PhotoId.getNextId());
+
+		PhotoCase first = manager.flagPhoto(photo, "a@example.com", FlagReason.OTHER, "first");
+		first.setDecided();
+		manager.removePhotoCase(first);
+		PhotoCase second = manager.flagPhoto(photo, "b@example.com", FlagReason.OTHER, "second");
+
+		assertNotSame(first, second);
+		assertEquals(1, second.getNoFlags());
+		assertEquals(1, manager.getNoOpenPhotoCases());
+	}
+
+	@Test
+	public void testNotificationsAreDebounced() {
+		PhotoCaseManager manager = createPhotoCaseManager();
+		manager.notificationInterval = 60 * 1000;
+		Photo photo = new Photo(PhotoId.getNextId());
+
+		PhotoCase photoCase = manager.flagPhoto(photo, "a@example.com", FlagReason.OTHER, "first");
+		assertEquals(1, manager.claimNotification(photoCase));
+		manager.flagPhoto(photo, "b@example.com", FlagReason.OTHER, "second");
+		manager.flagPhoto(photo, "c@example.com", FlagReason.OTHER, "third");
+		assertEquals(0, manager.claimNotification(photoCase));
+		assertEquals(2, photoCase.getNoFlagsSinceNotification());
+
+		manager.notificationInterval = 0;
+		assertEquals(2, manager.claimNotification(photoCase));
+		assertEquals(0, manager.claimNotification(photoCase));
+	}
+
+	@Test
+	public void testFlagsWithinIntervalAreNotifiedLater() {
+		PhotoCaseManager manager = createPhotoCaseManager();
+		manager.notificationInterval = 60 * 1000;
+		Photo photo = new Photo(PhotoId.getNextId());
+		Photo otherPhoto = new Photo(PhotoId.getNextId());
+
+		PhotoCase photoCase = manager.flagPhoto(photo, "a@example.com", FlagReason.OTHER, "first");
+		assertEquals(1, manager.claimNotification(photoCase));
+		PhotoCase otherCase = manager.flagPhoto(otherPhoto, "a@example.com", FlagReason.OTHER, "first");
+		assertEquals(1, manager.claimNotification(otherCase));
+		manager.flagPhoto(photo, "b@example.com", FlagReason.OTHER, "second");
+
+		assertEquals(0, manager.notifyModeratorsAboutDueCases(null, ""));
+		assertTrue(notifiedCases.isEmpty());
+
+		manager.notificationInterval = 0;
+		assertEquals(1, manager.notifyModeratorsAboutDueCases(null, ""));
+		assertEquals(1, notifiedCases.size());
+		assertSame(photoCase, notifiedCases.get(0));
+		assertEquals(0, photoCase.getNoFlagsSinceNotification());
+		assertEquals(0, manager.notifyModeratorsAboutDueCases(null, ""));
+	}
+
+	/**
+	 * Cases the moderators were notified about by the managers of this test
+	 */
+	protected final List<PhotoCase> notifiedCases = new ArrayList<PhotoCase>();
+
+	/**
+	 * Creates a manager that keeps its cases in memory only and records notifications instead of sending them.
+	 */
+	protected PhotoCaseManager createPhotoCaseManager() {
+		return new PhotoCaseManager() {
+			@Override
+			public void notifyModerators(PhotoCase photoCase, int noNewFlags, ModelConfig config, String siteUrl) {
+				notifiedCases.add(photoCase);
+			}
+
+			@Override
+			protected void writeObject(Persistent object) {
+				// do nothing
+			}
+
+			@Override
+			protected void updateObject(Persistent object) {
+				// do nothing
+			}
+
+			@Override
+			protected <E> void deleteObject(E object) {
+				// do nothing
+			}
+		};
+	}
+
+	/**
+	 *
+	 */
+	protected PhotoCase createPhotoCase(long createdOn) {
+		PhotoCase result = new PhotoCase(null);
+		result.createdOn = createdOn;
+		return result;
+	}
+
+}
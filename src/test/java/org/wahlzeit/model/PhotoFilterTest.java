@@ -22,6 +22,10 @@ package org.wahlzeit.model;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -46,7 +50,7 @@ public class PhotoFilterTest {
 		assertEquals("", photoFilter.userName);
 		assertEquals(Tags.EMPTY_TAGS, photoFilter.tags);
 
-		assertEquals(0, photoFilter.processedPhotoIds.size());
+		assertEquals(0, photoFilter.getProcessedPhotoIds().size());
 		assertEquals(0, photoFilter.displayablePhotoIds.size());
 	}
 
@@ -73,15 +77,50 @@ public class PhotoFilterTest {
 		photoFilter.displayablePhotoIds.add(new PhotoId(3));
 		assertTrue(photoFilter.displayablePhotoIds.size() == 1);
 
-		photoFilter.processedPhotoIds.add(new PhotoId(2));
-		assertTrue(photoFilter.processedPhotoIds.size() == 1);
+		photoFilter.addProcessedPhoto(new Photo(new PhotoId(2)));
+		assertTrue(photoFilter.getProcessedPhotoIds().size() == 1);
 
 		photoFilter.clear();
 
 		assertEquals("", photoFilter.getUserName());
 		assertEquals(Tags.EMPTY_TAGS, photoFilter.getTags());
 		assertTrue(photoFilter.displayablePhotoIds.isEmpty());
-		assertTrue(photoFilter.processedPhotoIds.isEmpty());
+		assertTrue(photoFilter.getProcessedPhotoIds().isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testProcessedPhotoIsNotDisplayed() {
+		PhotoId processedId = PhotoId.getNextId();
+		PhotoId otherId = PhotoId.getNextId();
+		photoFilter.setDisplayablePhotoIds(new ArrayList<PhotoId>(Arrays.asList(processedId, otherId)));
+		photoFilter.addSkippedPhotoId(processedId);
+
+		photoFilter.addProcessedPhoto(new Photo(processedId));
+
+		assertTrue(photoFilter.isProcessedPhotoId(processedId));
+		assertTrue(photoFilter.getSkippedPhotoIds().isEmpty());
+		for (int i = 0; i < 20; i++) {
+			assertEquals(otherId, photoFilter.getRandomDisplayablePhotoId());
+		}
+		assertEquals(Collections.singletonList(otherId), photoFilter.getDisplayablePhotoIds());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSkippedPhotoIds() {
+		PhotoId firstId = PhotoId.getNextId();
+		PhotoId secondId = PhotoId.getNextId();
+		PhotoId thirdId = PhotoId.getNextId();
+		photoFilter.setSkippedPhotoIds(Arrays.asList(secondId, firstId));
+		photoFilter.addSkippedPhotoId(firstId);
+		photoFilter.addSkippedPhotoId(thirdId);
+
+		assertEquals(Arrays.asList(firstId, secondId, thirdId), photoFilter.getSkippedPhotoIds());
 	}
 
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for the intern table of {@link PhotoId}.
+ */
+public class PhotoIdTest {
+
+	private static final int LAST_ID = 3 * PhotoId.CHUNK_SIZE * PhotoId.CHUNK_SIZE;
+
+	private int oldCurrentId;
+
+	@Before
+	public void setUp() {
+		oldCurrentId = PhotoId.getCurrentIdAsInt();
+		PhotoId.setCurrentIdFromInt(LAST_ID);
+	}
+
+	@After
+	public void tearDown() {
+		PhotoId.setCurrentIdFromInt(oldCurrentId);
+	}
+
+	@Test
+	public void testGetIdFromIntInterns() {
+		PhotoId id = PhotoId.getIdFromInt(42);
+		assertEquals(42, id.asInt());
+		assertSame(id, PhotoId.getIdFromInt(42));
+		assertSame(id, PhotoId.getIdFromString(id.asString()));
+	}
+
+	@Test
+	public void testGetIdFromIntAcrossChunksAndSegments() {
+		int[] values = {1, PhotoId.CHUNK_SIZE - 1, PhotoId.CHUNK_SIZE, PhotoId.CHUNK_SIZE * PhotoId.CHUNK_SIZE,
+				LAST_ID};
+		for (int value : values) {
+			PhotoId id = PhotoId.getIdFromInt(value);
+			assertEquals(value, id.asInt());
+			assertSame(id, PhotoId.getIdFromInt(value));
+		}
+	}
+
+	@Test
+	public void testGetIdFromIntOutOfRange() {
+		assertTrue(PhotoId.getIdFromInt(0).isNullId());
+		assertTrue(PhotoId.getIdFromInt(-1).isNullId());
+	}
+
+	@Test
+	public void testIdsOfOtherInstancesResolve() {
+		int value = LAST_ID + PhotoId.CHUNK_SIZE;
+		PhotoId id = PhotoId.getIdFromInt(value);
+		assertEquals(value, id.asInt());
+		assertEquals(id, PhotoId.getIdFromString(id.asString()));
+		assertEquals(LAST_ID, PhotoId.getCurrentIdAsInt());
+
+		PhotoId.raiseCurrentId(value);
+		PhotoId internedId = PhotoId.getIdFromInt(value);
+		assertEquals(id, internedId);
+		assertSame(internedId, PhotoId.getIdFromInt(value));
+	}
+
+	@Test
+	public void testNextIdIsKnown() {
+		PhotoId id = PhotoId.getNextId();
+		assertEquals(LAST_ID + 1, id.asInt());
+		assertEquals(LAST_ID + 1, PhotoId.getCurrentIdAsInt());
+	}
+
+	@Test
+	public void testConcurrentInterning() throws InterruptedException {
+		final int value = 2 * PhotoId.CHUNK_SIZE * PhotoId.CHUNK_SIZE + 7;
+		final int noThreads = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		final PhotoId[] results = new PhotoId[noThreads];
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < noThreads; i++) {
+			final int index = i;
+			threads.add(new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				results[index] = PhotoId.getIdFromInt(value);
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		for (PhotoId result : results) {
+			assertSame(results[0], result);
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link PhotoLeaderboard}. Every test uses its own tag, as the boards read from the shared photo
+ * cache.
+ */
+public class PhotoLeaderboardTest {
+
+	@Test
+	public void testPhotosAreRankedByPraise() {
+		PhotoLeaderboard leaderboard = new PhotoLeaderboard(10, 10, 3);
+		String tag = "leaderboardRanking";
+		Photo good = createPhoto(tag, 8, 8);
+		Photo best = createPhoto(tag, 10, 10);
+		Photo fair = createPhoto(tag, 5, 5);
+		leaderboard.update(good);
+		leaderboard.update(best);
+		leaderboard.update(fair);
+
+		assertEquals(Arrays.asList(best, good, fair), leaderboard.getTopPhotos(tag, 0, 10));
+		assertEquals(Arrays.asList(good, fair), leaderboard.getTopPhotos(tag, 1, 10));
+		assertEquals(Collections.singletonList(best), leaderboard.getTopPhotos(tag, 0, 1));
+		assertTrue(leaderboard.getTopPhotos("leaderboardUnknownTag", 0, 10).isEmpty());
+	}
+
+	@Test
+	public void testMinimumVotes() {
+		PhotoLeaderboard leaderboard = new PhotoLeaderboard(10, 10, 3);
+		String tag = "leaderboardMinVotes";
+		Photo photo = createPhoto(tag, 10);
+		leaderboard.update(photo);
+		assertTrue(leaderboard.getTopPhotos(tag, 0, 10).isEmpty());
+
+		photo.addToPraise(10);
+		leaderboard.update(photo);
+		assertEquals(Collections.singletonList(photo), leaderboard.getTopPhotos(tag, 0, 10));
+	}
+
+	@Test
+	public void testInvisiblePhotosAreNotRanked() {
+		PhotoLeaderboard leaderboard = new PhotoLeaderboard(10, 10, 1);
+		String tag = "leaderboardInvisible";
+		Photo photo = createPhoto(tag, 10);
+		leaderboard.update(photo);
+		assertEquals(1, leaderboard.getTopPhotos(tag, 0, 10).size());
+
+		photo.setStatus(photo.getStatus().asDeleted(true));
+		leaderboard.update(photo);
+		assertTrue(leaderboard.getTopPhotos(tag, 0, 10).isEmpty());
+	}
+
+	@Test
+	public void testDroppedPhotosMakeBoardStaleUntilRebuilt() {
+		// a tag board of size 1 holds 2 photos
+		PhotoLeaderboard leaderboard = new PhotoLeaderboard(1000, 1, 1);
+		String tag = "leaderboardStale";
+		Photo first = createPhoto(tag, 10);
+		Photo second = createPhoto(tag, 9);
+		Photo third = createPhoto(tag, 8);
+		leaderboard.update(first);
+		leaderboard.update(second);
+		leaderboard.update(third);
+		assertEquals(Collections.singletonList(first), leaderboard.getTopPhotos(tag, 0, 10));
+
+		// the first photo falls below the third one, which the board had to leave out
+		addVotes(first, 1, 5);
+		leaderboard.update(first);
+		assertEquals(Collections.singletonList(second), leaderboard.getTopPhotos(tag, 0, 10));
+		assertFalse(leaderboard.getBoard(tag).isStale(1));
+
+		// now no photo on the board is known to be better than the third one
+		addVotes(second, 1, 5);
+		leaderboard.update(second);
+		assertTrue(leaderboard.getTopPhotos(tag, 0, 10).isEmpty());
+		assertTrue(leaderboard.isStale());
+
+		leaderboard.rebuild();
+		assertEquals(Collections.singletonList(third), leaderboard.getTopPhotos(tag, 0, 10));
+		assertFalse(leaderboard.getBoard(tag).isStale(1));
+	}
+
+	/**
+	 * Creates a cached photo with the tag and the given votes in addition to the initial one.
+	 */
+	protected Photo createPhoto(String tag, int... votes) {
+		Photo result = new Photo(PhotoId.getNextId());
+		result.setTags(new Tags(tag));
+		PhotoManager.getInstance().doAddPhoto(result);
+		for (int vote : votes) {
+			result.addToPraise(vote);
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	protected void addVotes(Photo photo, int vote, int noVotes) {
+		for (int i = 0; i < noVotes; i++) {
+			photo.addToPraise(vote);
+		}
+	}
+
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.VoidWork;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.wahlzeit.services.EntityCache;
+import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.OfyService;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for the photo registry of {@link PhotoManager}.
+ */
+public class PhotoManagerTest {
+
+	@ClassRule
+	public static RuleChain ruleChain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	@Test
+	public void testConcurrentMissesLoadOnce() throws InterruptedException {
+		final PhotoId photoId = PhotoId.getNextId();
+		final AtomicInteger noLoads = new AtomicInteger();
+		final CountDownLatch loadStarted = new CountDownLatch(1);
+		final CountDownLatch finishLoad = new CountDownLatch(1);
+		final PhotoManager photoManager = new PhotoManager() {
+			@Override
+			protected Photo loadPhoto(PhotoId id) {
+				noLoads.incrementAndGet();
+				loadStarted.countDown();
+				try {
+					finishLoad.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return new Photo(id);
+			}
+		};
+
+		final int noThreads = 8;
+		final Photo[] results = new Photo[noThreads];
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < noThreads; i++) {
+			final int index = i;
+			threads.add(new Thread(() -> results[index] = photoManager.getPhotoFromId(photoId)));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+
+		assertTrue(loadStarted.await(10, TimeUnit.SECONDS));
+		// let the other threads miss the photo while it is being loaded
+		Thread.sleep(100);
+		finishLoad.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(1, noLoads.get());
+		assertEquals(1, photoManager.getNoLoads());
+		for (Photo result : results) {
+			assertSame(results[0], result);
+		}
+		assertSame(results[0], photoManager.getPhotoFromId(photoId));
+		assertEquals(noThreads + 1, photoManager.getNoHits() + photoManager.getNoMisses());
+	}
+
+	@Test
+	public void testWaitingThreadsSeeErrorOfLoad() throws InterruptedException {
+		final PhotoId photoId = PhotoId.getNextId();
+		final CountDownLatch loadStarted = new CountDownLatch(1);
+		final CountDownLatch finishLoad = new CountDownLatch(1);
+		final PhotoManager photoManager = new PhotoManager() {
+			@Override
+			protected Photo loadPhoto(PhotoId id) {
+				loadStarted.countDown();
+				try {
+					finishLoad.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				throw new Error("load failed");
+			}
+		};
+
+		final Throwable[] results = new Throwable[2];
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < results.length; i++) {
+			final int index = i;
+			threads.add(new Thread(() -> {
+				try {
+					photoManager.getPhotoFromId(photoId);
+				} catch (Throwable t) {
+					results[index] = t;
+				}
+			}));
+		}
+		threads.get(0).start();
+		assertTrue(loadStarted.await(10, TimeUnit.SECONDS));
+		threads.get(1).start();
+		// let the second thread wait for the load
+		Thread.sleep(100);
+		finishLoad.countDown();
+		for (Thread thread : threads) {
+			thread.join(10 * 1000);
+			assertFalse(thread.isAlive());
+		}
+
+		for (Throwable result : results) {
+			assertEquals("load failed", result.getMessage());
+		}
+	}
+
+	@Test
+	public void testMissingPhotoIsNotCached() {
+		final AtomicInteger noLoads = new AtomicInteger();
+		PhotoManager photoManager = new PhotoManager() {
+			@Override
+			protected Photo loadPhoto(PhotoId id) {
+				noLoads.incrementAndGet();
+				return null;
+			}
+		};
+
+		PhotoId photoId = PhotoId.getNextId();
+		assertNull(photoManager.getPhotoFromId(photoId));
+		assertNull(photoManager.getPhotoFromId(photoId));
+		assertEquals(2, noLoads.get());
+		assertEquals(2, photoManager.getNoMisses());
+	}
+
+	@Test
+	public void testOwnerIndex() {
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				PhotoManager photoManager = PhotoManager.getInstance();
+				Photo photo = new Photo(PhotoId.getNextId());
+				photo.setOwnerId("ownerIndexAlice");
+				photoManager.addPhoto(photo);
+				OfyService.ofy().save().entity(photo).now();
+
+				assertEquals(Collections.singleton(photo), photoManager.findPhotosByOwner("ownerIndexAlice"));
+				assertFalse(photoManager.findOwnerIndexInconsistencies().contains("ownerIndexAlice"));
+
+				photo.setOwnerId("ownerIndexBob");
+				assertTrue(photoManager.findPhotosByOwner("ownerIndexAlice").isEmpty());
+				assertEquals(Collections.singleton(photo), photoManager.findPhotosByOwner("ownerIndexBob"));
+				// the new owner is not saved yet
+				Set<String> inconsistencies = photoManager.findOwnerIndexInconsistencies();
+				assertTrue(inconsistencies.contains("ownerIndexAlice"));
+				assertTrue(inconsistencies.contains("ownerIndexBob"));
+
+				OfyService.ofy().save().entity(photo).now();
+				EntityCache.getInstance().invalidate(Collections.singleton(photo));
+				inconsistencies = photoManager.findOwnerIndexInconsistencies();
+				assertFalse(inconsistencies.contains("ownerIndexAlice"));
+				assertFalse(inconsistencies.contains("ownerIndexBob"));
+			}
+		});
+	}
+
+	@Test
+	public void testPhotosByPraise() {
+		PhotoManager photoManager = PhotoManager.getInstance();
+		List<Photo> photos = new ArrayList<Photo>();
+		for (int i = 0; i < 5; i++) {
+			Photo photo = new Photo(PhotoId.getNextId());
+			photo.setOwnerId("rankingCarol");
+			photo.addToPraise(i);
+			photoManager.doAddPhoto(photo);
+			photos.add(photo);
+		}
+		Photo deleted = photos.get(3);
+		photoManager.setPhotoStatus(deleted, deleted.getStatus().asDeleted(true));
+
+		assertEquals(Arrays.asList(photos.get(4), photos.get(2)), photoManager.getPhotosByPraise("rankingCarol", 0, 2));
+		assertEquals(Arrays.asList(photos.get(1), photos.get(0)), photoManager.getPhotosByPraise("rankingCarol", 1, 2));
+		assertTrue(photoManager.getPhotosByPraise("rankingCarol", 2, 2).isEmpty());
+
+		// votes move the photo within its owner's ranking
+		for (int i = 0; i < 3; i++) {
+			photos.get(0).addToPraise(10);
+		}
+		assertEquals(photos.get(0), photoManager.getPhotosByPraise("rankingCarol", 0, 1).get(0));
+		assertTrue(photoManager.getPhotosByPraise("rankingDave", 0, 10).isEmpty());
+	}
+
+	@Test
+	public void testCompleteOwnerIndexLoadsMissingPhotos() {
+		PhotoManager photoManager = new PhotoManager() {
+			@Override
+			protected Photo loadPhoto(PhotoId id) {
+				Photo result = new Photo(id);
+				result.setOwnerId("rankingErin");
+				return result;
+			}
+		};
+		PhotoId photoId = PhotoId.getNextId();
+		assertTrue(photoManager.getPhotosByPraise("rankingErin", 0, 10).isEmpty());
+
+		photoManager.completeOwnerIndex("rankingErin", Collections.singletonList(photoId));
+
+		List<Photo> photos = photoManager.getPhotosByPraise("rankingErin", 0, 10);
+		assertEquals(1, photos.size());
+		assertEquals(photoId, photos.get(0).getId());
+	}
+
+	@Test
+	public void testAddIfAbsentKeepsCachedPhoto() {
+		PhotoManager photoManager = new PhotoManager();
+		PhotoId photoId = PhotoId.getNextId();
+		Photo cached = new Photo(photoId);
+		photoManager.doAddPhoto(cached);
+
+		assertSame(cached, photoManager.doAddPhotoIfAbsent(new Photo(photoId)));
+		assertSame(cached, photoManager.getPhotoFromId(photoId));
+		assertEquals(1, photoManager.getNoHits());
+	}
+
+	@Test
+	public void testUnchangedTagsAreNotRead() {
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				final AtomicInteger noTagReads = new AtomicInteger();
+				PhotoManager photoManager = new PhotoManager() {
+					@Override
+					protected <E> void readObjects(Collection<E> result, Class<E> type, String propertyName,
+							Object value) {
+						if (type == Tag.class) {
+							noTagReads.incrementAndGet();
+						}
+						super.readObjects(result, type, propertyName, value);
+					}
+				};
+				Photo photo = new Photo(PhotoId.getNextId());
+				photo.setTags(new Tags("sea, lake"));
+				photoManager.addPhoto(photo);
+
+				// the stored tags of a new photo are not known yet
+				photoManager.updateTags(photo);
+				assertEquals(1, noTagReads.get());
+
+				photoManager.updateTags(photo);
+				photo.setTags(new Tags("sea, lake, river"));
+				photoManager.updateTags(photo);
+				assertEquals(1, noTagReads.get());
+
+				// removed tags need the keys of the stored ones
+				photo.setTags(new Tags("sea"));
+				photoManager.updateTags(photo);
+				assertEquals(2, noTagReads.get());
+
+				List<Tag> storedTags = OfyService.ofy().load().type(Tag.class).
+						ancestor(ObjectManager.applicationRootKey).
+						filter(Tag.PHOTO_ID, photo.getId().asString()).list();
+				assertEquals(1, storedTags.size());
+				assertEquals("tg:sea", storedTags.get(0).getText());
+				assertEquals(Collections.singleton("tg:sea"),
+						photoManager.getTagIndex().getConditions(photo.getId().asInt()));
+			}
+		});
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link PhotoRanking}.
+ */
+public class PhotoRankingTest {
+
+	@Test
+	public void testPhotosAreOrderedByPraise() {
+		PhotoRanking ranking = new PhotoRanking();
+		Photo low = createPhoto(2);
+		Photo high = createPhoto(9);
+		Photo middle = createPhoto(5);
+		ranking.update(low);
+		ranking.update(high);
+		ranking.update(middle);
+
+		assertEquals(Arrays.asList(high.getId(), middle.getId(), low.getId()), getRankedIds(ranking));
+		assertEquals(3, ranking.size());
+	}
+
+	@Test
+	public void testUpdateMovesPhoto() {
+		PhotoRanking ranking = new PhotoRanking();
+		Photo first = createPhoto(8);
+		Photo second = createPhoto(6);
+		ranking.update(first);
+		ranking.update(second);
+
+		// 10 votes of 10 lift the second photo above the first one
+		for (int i = 0; i < 10; i++) {
+			second.addToPraise(10);
+		}
+		ranking.update(second);
+
+		assertEquals(Arrays.asList(second.getId(), first.getId()), getRankedIds(ranking));
+		assertEquals(2, ranking.size());
+	}
+
+	@Test
+	public void testTiesAreBrokenByPhotoId() {
+		PhotoRanking ranking = new PhotoRanking();
+		Photo later = createPhoto(4);
+		Photo earlier = new Photo(PhotoId.getIdFromInt(later.getId().asInt() - 1));
+		earlier.addToPraise(4);
+		ranking.update(later);
+		ranking.update(earlier);
+
+		assertEquals(Arrays.asList(earlier.getId(), later.getId()), getRankedIds(ranking));
+	}
+
+	@Test
+	public void testRemove() {
+		PhotoRanking ranking = new PhotoRanking();
+		Photo photo = createPhoto(7);
+		ranking.update(photo);
+		assertTrue(ranking.contains(photo.getId()));
+
+		ranking.remove(photo.getId());
+		assertFalse(ranking.contains(photo.getId()));
+		assertTrue(getRankedIds(ranking).isEmpty());
+	}
+
+	/**
+	 * Creates a photo whose praise is the average of the default praise and the given vote.
+	 */
+	protected Photo createPhoto(int vote) {
+		Photo result = new Photo(PhotoId.getNextId());
+		result.addToPraise(vote);
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	protected List<PhotoId> getRankedIds(PhotoRanking ranking) {
+		return new ArrayList<PhotoId>(ranking.getPhotoIdsByPraise());
+	}
+
+}
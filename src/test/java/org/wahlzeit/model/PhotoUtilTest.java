@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for the image scaling threads of {@link PhotoUtil}.
+ */
+public class PhotoUtilTest {
+
+	@After
+	public void tearDown() {
+		PhotoUtil.shutDown();
+		PhotoUtil.isScalingExecutorAvailable = true;
+	}
+
+	@Test
+	public void testUploadsShareOneBoundedExecutor() {
+		ThreadPoolExecutor executor = PhotoUtil.getScalingExecutor();
+		assertSame(executor, PhotoUtil.getScalingExecutor());
+		assertEquals(PhotoUtil.DEFAULT_MAX_SCALING_THREADS, executor.getMaximumPoolSize());
+		assertEquals(PhotoUtil.DEFAULT_MAX_SCALING_THREADS * PhotoUtil.MAX_QUEUED_SCALINGS_PER_THREAD,
+				executor.getQueue().remainingCapacity());
+	}
+
+	@Test
+	public void testScalingRunsOnSharedThread() throws Exception {
+		final Thread caller = Thread.currentThread();
+		Future<Image> result = PhotoUtil.submitScaling(new Callable<Image>() {
+			@Override
+			public Image call() {
+				assertTrue(Thread.currentThread() != caller);
+				return null;
+			}
+		});
+		assertNull(result.get());
+	}
+
+	@Test
+	public void testScalingRunsInRequestWithoutThreads() throws Exception {
+		PhotoUtil.disableScalingExecutor(PhotoUtil.getScalingExecutor(), new IllegalStateException());
+		assertNull(PhotoUtil.getScalingExecutor());
+
+		final Thread caller = Thread.currentThread();
+		Future<Image> result = PhotoUtil.submitScaling(new Callable<Image>() {
+			@Override
+			public Image call() {
+				assertSame(caller, Thread.currentThread());
+				return null;
+			}
+		});
+		assertTrue(result.isDone());
+		assertNull(result.get());
+	}
+}
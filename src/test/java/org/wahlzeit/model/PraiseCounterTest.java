@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.VoidWork;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Test class for {@link PraiseCounter}.
+ */
+public class PraiseCounterTest {
+
+	@ClassRule
+	public static RuleChain ruleChain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	private PraiseCounter oldCounter;
+	private PraiseCounter counter;
+
+	@Before
+	public void setUp() {
+		oldCounter = PraiseCounter.getInstance();
+		counter = new FlushOnDemandPraiseCounter();
+		PraiseCounter.setInstance(counter);
+	}
+
+	@After
+	public void tearDown() {
+		PraiseCounter.setInstance(oldCounter);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBatchSizeIsLimitedByTransactions() {
+		new PraiseCounter(4, PraiseCounter.MAX_BATCH_SIZE_LIMIT + 1, 1000);
+	}
+
+	@Test
+	public void testShardIds() {
+		PhotoId photoId = new Photo().getId();
+		String shardId = PraiseShard.getShardId(photoId, 3);
+		assertEquals(photoId.asString(), PraiseShard.getPhotoIdFromShardId(shardId));
+	}
+
+	@Test
+	public void testConcurrentVotesAreNotLost() throws InterruptedException {
+		final Photo photo = new Photo();
+		photo.resetWriteCount();
+		final int noThreads = 8;
+		final int noVotesPerThread = 1000;
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < noThreads; i++) {
+			threads.add(new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int j = 0; j < noVotesPerThread; j++) {
+					photo.addToPraise(4);
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		int noVotes = 1 + noThreads * noVotesPerThread;
+		assertEquals(noVotes, photo.getNoVotes());
+		assertEquals((10.0 + 4 * noThreads * noVotesPerThread) / noVotes, photo.getPraise(), 1E-9);
+		assertFalse(photo.isDirty());
+
+		flush(counter);
+		assertEquals(0, counter.getNoPending());
+		assertEquals(0, photo.getPendingNoVotes());
+		assertEquals(noVotes, photo.getNoVotes());
+	}
+
+	@Test
+	public void testVotesOfAllInstancesAreCounted() {
+		final Photo photo = new Photo();
+		final Photo samePhotoElsewhere = new Photo(photo.getId());
+		final PraiseCounter otherCounter = new FlushOnDemandPraiseCounter();
+
+		photo.addToPraise(10);
+		photo.addToPraise(8);
+		flush(counter);
+
+		PraiseCounter.setInstance(otherCounter);
+		samePhotoElsewhere.addToPraise(6);
+		flush(otherCounter);
+		assertEquals(4, samePhotoElsewhere.getNoVotes());
+
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				counter.refresh(Collections.singletonList(photo));
+			}
+		});
+		assertEquals(4, photo.getNoVotes());
+		assertEquals(34.0 / 4, photo.getPraise(), 1E-9);
+		assertEquals(photo.getPraise(), samePhotoElsewhere.getPraise(), 1E-9);
+	}
+
+	@Test
+	public void testPraiseIsReadWhenPhotoIsLoaded() {
+		Photo photo = new Photo();
+		photo.addToPraise(10);
+		photo.addToPraise(8);
+		flush(counter);
+
+		// the photo entity does not include the praise of the shards
+		PhotoManager photoManager = new PhotoManager() {
+			@Override
+			protected Photo loadPhoto(PhotoId id) {
+				return new Photo(id);
+			}
+		};
+		Photo loadedPhoto = photoManager.getPhotoFromId(photo.getId());
+		assertEquals(3, loadedPhoto.getNoVotes());
+		assertEquals(28.0 / 3, loadedPhoto.getPraise(), 1E-9);
+	}
+
+	@Test
+	public void testVotesAreFlushedOnceDue() {
+		PraiseCounter batchingCounter = new PraiseCounter(4, 2, 60 * 1000);
+		PraiseCounter.setInstance(batchingCounter);
+		Photo photo = new Photo();
+		Photo otherPhoto = new Photo();
+
+		photo.addToPraise(10);
+		photo.addToPraise(8);
+		assertFalse(batchingCounter.isFlushDue());
+		assertEquals(1, batchingCounter.getNoPending());
+
+		otherPhoto.addToPraise(6);
+		assertFalse(batchingCounter.isFlushDue());
+		assertEquals(0, batchingCounter.getNoPending());
+		assertEquals(0, photo.getPendingNoVotes());
+		assertEquals(3, photo.getNoVotes());
+	}
+
+	/**
+	 *
+	 */
+	private void flush(final PraiseCounter praiseCounter) {
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				praiseCounter.flush();
+			}
+		});
+	}
+
+	/**
+	 * Leaves pending praise alone until it is flushed explicitly, like a counter flushing in the background
+	 */
+	private static class FlushOnDemandPraiseCounter extends PraiseCounter {
+
+		private FlushOnDemandPraiseCounter() {
+			super(4, MAX_BATCH_SIZE_LIMIT, 1000);
+		}
+
+		@Override
+		protected void flushUnlessFlushing() {
+			// do nothing
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test class for {@link TagIndex}.
+ */
+public class TagIndexTest {
+
+	private TagIndex tagIndex;
+
+	@Before
+	public void setUp() {
+		tagIndex = new TagIndex();
+		tagIndex.setConditions(3, asSet("un:bob", "tg:bob", "tg:sea"));
+		tagIndex.setConditions(1, asSet("un:alice", "tg:alice", "tg:sea"));
+		tagIndex.setConditions(2, asSet("un:bob", "tg:bob", "tg:lake"));
+	}
+
+	@Test
+	public void testGetPhotoIdsIsSorted() {
+		assertArrayEquals(new int[]{1, 3}, tagIndex.getPhotoIds("tg:sea"));
+		assertArrayEquals(new int[]{2, 3}, tagIndex.getPhotoIds("un:bob"));
+		assertArrayEquals(new int[0], tagIndex.getPhotoIds("tg:unknown"));
+	}
+
+	@Test
+	public void testIntersection() {
+		assertArrayEquals(new int[]{3}, tagIndex.getPhotoIdsMatchingAll(Arrays.asList("un:bob", "tg:sea")));
+		assertArrayEquals(new int[]{2, 3}, tagIndex.getPhotoIdsMatchingAll(Collections.singletonList("tg:bob")));
+		assertArrayEquals(new int[0], tagIndex.getPhotoIdsMatchingAll(Arrays.asList("un:alice", "tg:lake")));
+		assertArrayEquals(new int[0], tagIndex.getPhotoIdsMatchingAll(Arrays.asList("tg:sea", "tg:unknown")));
+	}
+
+	@Test
+	public void testSetConditionsReplacesOldOnes() {
+		tagIndex.setConditions(3, asSet("un:bob", "tg:bob", "tg:river"));
+
+		assertArrayEquals(new int[]{1}, tagIndex.getPhotoIds("tg:sea"));
+		assertArrayEquals(new int[]{3}, tagIndex.getPhotoIds("tg:river"));
+		assertEquals(asSet("un:bob", "tg:bob", "tg:river"), tagIndex.getConditions(3));
+	}
+
+	@Test
+	public void testRemovePhoto() {
+		tagIndex.removePhoto(1);
+
+		assertArrayEquals(new int[]{3}, tagIndex.getPhotoIds("tg:sea"));
+		assertArrayEquals(new int[0], tagIndex.getPhotoIds("un:alice"));
+		assertEquals(4, tagIndex.getNoConditions());
+	}
+
+	private static Set<String> asSet(String... values) {
+		return new HashSet<String>(Arrays.asList(values));
+	}
+}
@@ -5,10 +5,14 @@ import com.google.appengine.api.images.ImagesServiceFactory;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.wahlzeit.model.PhotoSize;
 
 import java.io.IOException;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
 
 import static org.junit.Assert.fail;
 
@@ -128,4 +132,38 @@ public abstract class AbstractAdapterTest {
 		exists = imageStorage.doesImageExist("wrong file name", 1);
 		assert !exists;
 	}
+
+	@Test
+	public void testExistingSizes() {
+		assert imageStorage.existingSizes("none").isEmpty();
+
+		try {
+			imageStorage.writeImage(smallTestImage, "some", PhotoSize.THUMB.asInt());
+			imageStorage.writeImage(smallTestImage, "some", PhotoSize.MEDIUM.asInt());
+		} catch (IOException e) {
+			fail("IOException should not be thrown!");
+		}
+
+		assert imageStorage.existingSizes("some").equals(EnumSet.of(PhotoSize.THUMB, PhotoSize.MEDIUM));
+	}
+
+	@Test
+	public void testWriteAndReadImages() {
+		Map<PhotoSize, Image> images = new EnumMap<PhotoSize, Image>(PhotoSize.class);
+		images.put(PhotoSize.THUMB, smallTestImage);
+		images.put(PhotoSize.SMALL, smallTestImage);
+
+		EnumSet<PhotoSize> written = null;
+		Map<PhotoSize, Serializable> read = null;
+		try {
+			written = imageStorage.writeImages("many", images);
+			read = imageStorage.readImages("many", EnumSet.allOf(PhotoSize.class));
+		} catch (IOException e) {
+			fail("IOException should not be thrown!");
+		}
+
+		assert written.equals(images.keySet());
+		assert read.keySet().equals(images.keySet());
+		assert read.get(PhotoSize.THUMB) instanceof Image;
+	}
 }
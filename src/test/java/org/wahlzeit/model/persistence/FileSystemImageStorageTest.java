@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model.persistence;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for {@link FileSystemImageStorage}
+ */
+public class FileSystemImageStorageTest extends AbstractAdapterTest {
+
+	private File rootDir;
+
+
+	@Override
+	protected void storageDependentSetUp() {
+		try {
+			rootDir = Files.createTempDirectory("wahlzeit-photos").toFile();
+		} catch (IOException e) {
+			fail("IOException should not be thrown!");
+		}
+		imageStorage = new FileSystemImageStorage(rootDir);
+	}
+
+	@Override
+	protected void storageDependentTearDown() {
+		File[] files = rootDir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		rootDir.delete();
+	}
+
+
+	@Test
+	public void testGetImageFile() {
+		assertNull(imageStorage.getImageFile("file", 1));
+
+		try {
+			imageStorage.writeImage(smallTestImage, "file", 1);
+		} catch (IOException e) {
+			fail("IOException should not be thrown!");
+		}
+
+		File file = imageStorage.getImageFile("file", 1);
+		assertNotNull(file);
+		assertEquals(smallTestImage.getImageData().length, file.length());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPhotoIdMustNotLeaveRootDir() {
+		imageStorage.doesImageExist("../file", 1);
+	}
+}
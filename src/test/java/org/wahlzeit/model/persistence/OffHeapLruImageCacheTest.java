@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model.persistence;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test class for {@link OffHeapLruImageCache}.
+ */
+public class OffHeapLruImageCacheTest {
+
+	private static final int CHUNK_SIZE = 1024;
+
+	private ImageCache imageCache;
+	private byte[] twoChunkImage;
+
+	@Before
+	public void setUp() {
+		imageCache = new OffHeapLruImageCache(4 * CHUNK_SIZE, CHUNK_SIZE);
+
+		twoChunkImage = new byte[CHUNK_SIZE + 100];
+		for (int i = 0; i < twoChunkImage.length; i++) {
+			twoChunkImage[i] = (byte) i;
+		}
+	}
+
+	@Test
+	public void testPutAndGet() {
+		imageCache.put("x1", 1, twoChunkImage);
+
+		assertArrayEquals(twoChunkImage, imageCache.get("x1", 1));
+		assertNull(imageCache.get("x1", 2));
+		assertEquals(2 * CHUNK_SIZE, imageCache.getUsedBytes());
+		assertEquals(1, imageCache.getNoHits());
+		assertEquals(1, imageCache.getNoMisses());
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		imageCache.put("x1", 1, twoChunkImage);
+		imageCache.put("x2", 1, twoChunkImage);
+		imageCache.get("x1", 1);
+		imageCache.put("x3", 1, twoChunkImage);
+
+		assertArrayEquals(twoChunkImage, imageCache.get("x1", 1));
+		assertNull(imageCache.get("x2", 1));
+		assertArrayEquals(twoChunkImage, imageCache.get("x3", 1));
+		assertEquals(1, imageCache.getNoEvictions());
+		assertEquals(imageCache.getMaxBytes(), imageCache.getUsedBytes());
+	}
+
+	@Test
+	public void testTooLargeImageIsNotCached() {
+		imageCache.put("x1", 1, new byte[5 * CHUNK_SIZE]);
+
+		assertNull(imageCache.get("x1", 1));
+		assertEquals(0, imageCache.getNoEntries());
+	}
+
+	@Test
+	public void testRemoveReleasesChunks() {
+		imageCache.put("x1", 1, twoChunkImage);
+		imageCache.put("x1", 2, twoChunkImage);
+		imageCache.removeAll("x1");
+
+		assertEquals(0, imageCache.getNoEntries());
+		assertEquals(0, imageCache.getUsedBytes());
+	}
+}
@@ -28,7 +28,9 @@ import org.junit.runners.Suite;
  */
 @RunWith(Suite.class)
 @Suite.SuiteClasses(value = {
-		org.wahlzeit.model.persistence.DatastoreAdapterTest.class
+		org.wahlzeit.model.persistence.DatastoreAdapterTest.class,
+		org.wahlzeit.model.persistence.FileSystemImageStorageTest.class,
+		org.wahlzeit.model.persistence.OffHeapLruImageCacheTest.class
 })
 public class PersistanceTestSuite {
 	/*
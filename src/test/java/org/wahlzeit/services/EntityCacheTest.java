@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.VoidWork;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+import org.wahlzeit.model.Tag;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test class for {@link EntityCache}.
+ */
+public class EntityCacheTest {
+
+	@ClassRule
+	public static TestRule chain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	private EntityCache entityCache;
+
+	@Before
+	public void setUp() {
+		entityCache = new EntityCache(100, MemcacheServiceFactory.getMemcacheService("entityCacheTest"));
+	}
+
+	@Test
+	public void testQueryIsAnsweredByBothTiers() {
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				OfyService.ofy().save().entities(Arrays.asList(new Tag("sea", "x1"), new Tag("sail", "x1"),
+						new Tag("harbor", "x2"))).now();
+				EntityCache.Statistics statistics = entityCache.getStatistics("Tag");
+
+				assertEquals(2, entityCache.getObjects(Tag.class, Tag.PHOTO_ID, "x1", 0).size());
+				// one query and two entities were read from the datastore
+				assertEquals(3, statistics.getNoMisses());
+
+				assertEquals(2, entityCache.getObjects(Tag.class, Tag.PHOTO_ID, "x1", 0).size());
+				assertEquals(3, statistics.getNoNearHits());
+
+				entityCache.clear();
+				assertEquals(2, entityCache.getObjects(Tag.class, Tag.PHOTO_ID, "x1", 0).size());
+				assertEquals(3, statistics.getNoSharedHits());
+				assertEquals(0.667, statistics.getHitRatio(), 0.001);
+			}
+		});
+	}
+
+	@Test
+	public void testInvalidateDropsQueryResults() {
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				Tag tag = new Tag("wind", "x3");
+				OfyService.ofy().save().entity(tag).now();
+				assertEquals(1, entityCache.getObjects(Tag.class, Tag.PHOTO_ID, "x3", 0).size());
+
+				Tag newTag = new Tag("waves", "x3");
+				OfyService.ofy().save().entity(newTag).now();
+				entityCache.invalidate(Collections.singletonList(newTag));
+				assertEquals(2, entityCache.getObjects(Tag.class, Tag.PHOTO_ID, "x3", 0).size());
+
+				OfyService.ofy().delete().entity(tag).now();
+				entityCache.invalidate(Collections.singletonList(tag));
+				List<Tag> tags = entityCache.getObjects(Tag.class, Tag.PHOTO_ID, "x3", 0);
+				assertEquals(1, tags.size());
+				assertEquals("waves", tags.get(0).getText());
+				assertNull(entityCache.getObject(Key.create(tag).getRaw()));
+			}
+		});
+	}
+
+	@Test
+	public void testReadsOverlappingAnInvalidationAreNotCached() {
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				Tag tag = new Tag("calm", "x4");
+				OfyService.ofy().save().entity(tag).now();
+				com.google.appengine.api.datastore.Key key = Key.create(tag).getRaw();
+				Entity oldEntity = OfyService.ofy().save().toEntity(tag);
+
+				// a read that started before the write got the old entity
+				long invalidationsBefore = entityCache.noInvalidations.get();
+				entityCache.invalidateKeys(Collections.singletonList(key));
+				int noNearEntries = entityCache.getNoNearEntries();
+				entityCache.putNearUnlessInvalidated(entityCache.asEntityKey(key), tag, "Tag", invalidationsBefore);
+				entityCache.addShared(entityCache.asEntityKey(key), oldEntity, "Tag");
+				assertEquals(noNearEntries, entityCache.getNoNearEntries());
+
+				EntityCache.Statistics statistics = entityCache.getStatistics("Tag");
+				long noMisses = statistics.getNoMisses();
+				assertNotNull(entityCache.getObject(key));
+				assertEquals(noMisses + 1, statistics.getNoMisses());
+			}
+		});
+	}
+
+	@Test
+	public void testZeroTimeToLiveSwitchesOffCaching() {
+		System.setProperty(EntityCache.TTL_SECONDS_PROPERTY + ".Tag", "0");
+		try {
+			final EntityCache uncached = new EntityCache(100, MemcacheServiceFactory.getMemcacheService("uncached"));
+			ObjectifyService.run(new VoidWork() {
+				@Override
+				public void vrun() {
+					OfyService.ofy().save().entity(new Tag("calm", "x4")).now();
+					uncached.getObjects(Tag.class, Tag.PHOTO_ID, "x4", 0);
+					uncached.getObjects(Tag.class, Tag.PHOTO_ID, "x4", 0);
+
+					assertEquals(0, uncached.getNoNearEntries());
+					assertEquals(0, uncached.getStatistics("Tag").getNoNearHits());
+					assertEquals(0, uncached.getStatistics("Tag").getNoSharedHits());
+				}
+			});
+		} finally {
+			System.clearProperty(EntityCache.TTL_SECONDS_PROPERTY + ".Tag");
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsEmptyNearCache() {
+		new EntityCache(0, MemcacheServiceFactory.getMemcacheService("entityCacheTest"));
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.VoidWork;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+import org.wahlzeit.model.Tag;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Test class for the streaming reads of {@link ObjectManager}.
+ */
+public class ObjectManagerTest {
+
+	@ClassRule
+	public static TestRule chain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	private final ObjectManager objectManager = new ObjectManager() {
+	};
+
+	@Test
+	public void testReadObjectsInChunks() {
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				List<Tag> tags = new ArrayList<Tag>();
+				for (int i = 0; i < 7; i++) {
+					tags.add(new Tag("tag" + i, "chunks"));
+				}
+				OfyService.ofy().save().entities(tags).now();
+
+				List<Tag> firstChunk = new ArrayList<Tag>();
+				Cursor cursor = objectManager.readObjectChunk(Tag.class, firstChunk::add, null, 3);
+				assertEquals(3, firstChunk.size());
+				assertNotNull(cursor);
+
+				// resume where the first chunk ended
+				Set<String> texts = new HashSet<String>();
+				for (Tag tag : firstChunk) {
+					texts.add(tag.getText());
+				}
+				while (cursor != null) {
+					cursor = objectManager.readObjectChunk(Tag.class, tag -> texts.add(tag.getText()), cursor, 3);
+				}
+				assertEquals(7, texts.size());
+
+				List<Tag> allTags = new ArrayList<Tag>();
+				assertEquals(7, objectManager.readObjects(Tag.class, allTags::add));
+				assertEquals(7, allTags.size());
+			}
+		});
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testReadObjectChunkRejectsEmptyChunks() {
+		objectManager.readObjectChunk(Tag.class, tag -> {
+		}, null, 0);
+	}
+}
@@ -30,7 +30,12 @@ import org.junit.runners.Suite;
 @Suite.SuiteClasses({
 		org.wahlzeit.services.mailing.EmailServiceTestSuite.class,
 		org.wahlzeit.services.EmailAddressTest.class,
-		org.wahlzeit.services.LogBuilderTest.class
+		org.wahlzeit.services.EntityCacheTest.class,
+		org.wahlzeit.services.LogBuilderTest.class,
+		org.wahlzeit.services.ObjectManagerTest.class,
+		org.wahlzeit.services.StartupOrchestratorTest.class,
+		org.wahlzeit.services.UploadSpoolTest.class,
+		org.wahlzeit.services.WriteBehindQueueTest.class
 })
 public class ServicesTestSuite {
 	/*
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for {@link StartupOrchestrator}.
+ */
+public class StartupOrchestratorTest {
+
+	private List<String> completedPhases;
+
+	@Before
+	public void setUp() {
+		completedPhases = Collections.synchronizedList(new ArrayList<String>());
+		StartupReport.getInstance().clear();
+	}
+
+	@Test
+	public void testRunsDependenciesFirst() throws Exception {
+		StartupOrchestrator orchestrator = new StartupOrchestrator(2);
+		orchestrator.addPhase("c", () -> completedPhases.add("c"), "a", "b");
+		orchestrator.addPhase("a", () -> completedPhases.add("a"));
+		orchestrator.addPhase("b", () -> completedPhases.add("b"), "a");
+
+		orchestrator.run();
+
+		assertEquals(3, completedPhases.size());
+		assertEquals("a", completedPhases.get(0));
+		assertEquals("b", completedPhases.get(1));
+		assertEquals("c", completedPhases.get(2));
+		assertTrue(StartupReport.getInstance().getPhaseDuration("c") >= 0);
+	}
+
+	@Test
+	public void testRunsIndependentPhasesConcurrently() throws Exception {
+		// both phases can only complete if they run at the same time
+		final CountDownLatch latch = new CountDownLatch(2);
+		StartupOrchestrator.Action action = () -> {
+			latch.countDown();
+			if (!latch.await(10, TimeUnit.SECONDS)) {
+				throw new IllegalStateException("phases did not run concurrently");
+			}
+		};
+
+		StartupOrchestrator orchestrator = new StartupOrchestrator(2);
+		orchestrator.addPhase("a", action);
+		orchestrator.addPhase("b", action);
+		orchestrator.run();
+
+		assertEquals(0, latch.getCount());
+	}
+
+	@Test
+	public void testFailureSkipsDependentPhases() {
+		StartupOrchestrator orchestrator = new StartupOrchestrator(2);
+		orchestrator.addPhase("a", () -> {
+			throw new IOException("failed");
+		});
+		orchestrator.addPhase("b", () -> completedPhases.add("b"), "a");
+		orchestrator.addPhase("c", () -> completedPhases.add("c"));
+
+		try {
+			orchestrator.run();
+			fail("IOException expected");
+		} catch (Exception e) {
+			assertTrue(e instanceof IOException);
+		}
+
+		assertFalse(completedPhases.contains("b"));
+		assertTrue(completedPhases.contains("c"));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testRejectsCyclicDependencies() throws Exception {
+		StartupOrchestrator orchestrator = new StartupOrchestrator(2);
+		orchestrator.addPhase("a", () -> completedPhases.add("a"), "b");
+		orchestrator.addPhase("b", () -> completedPhases.add("b"), "a");
+		orchestrator.run();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testRejectsUnknownDependencies() throws Exception {
+		StartupOrchestrator orchestrator = new StartupOrchestrator(2);
+		orchestrator.addPhase("a", () -> completedPhases.add("a"), "unknown");
+		orchestrator.run();
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for {@link UploadSpool}.
+ */
+public class UploadSpoolTest {
+
+	private File spoolDir;
+	private UploadSpool uploadSpool;
+
+	@Before
+	public void setUp() throws IOException {
+		spoolDir = Files.createTempDirectory("wahlzeit-spool").toFile();
+		uploadSpool = new UploadSpool(spoolDir, 100 * 1024);
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = spoolDir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		spoolDir.delete();
+	}
+
+	@Test
+	public void testSpool() throws IOException {
+		byte[] data = new byte[70 * 1024];
+		Arrays.fill(data, (byte) 7);
+
+		SpooledUpload upload = uploadSpool.spool(new ByteArrayInputStream(data), "photo.jpg");
+
+		assertEquals("photo.jpg", upload.getFileName());
+		assertEquals(data.length, upload.getSize());
+		assertArrayEquals(data, upload.getBytes());
+		assertEquals(1, uploadSpool.getNoPooledBuffers());
+
+		upload.delete();
+		assertFalse(upload.exists());
+	}
+
+	@Test
+	public void testSpoolRejectsTooLargeUpload() throws IOException {
+		byte[] data = new byte[100 * 1024 + 1];
+		try {
+			uploadSpool.spool(new ByteArrayInputStream(data), "huge.jpg");
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		assertEquals(0, spoolDir.listFiles().length);
+		assertTrue(uploadSpool.getNoPooledBuffers() > 0);
+	}
+
+	@Test
+	public void testFullSpoolRejectsUpload() throws IOException {
+		UploadSpool smallSpool = new UploadSpool(spoolDir, 10, 20, 60 * 1000);
+		smallSpool.spool(new ByteArrayInputStream(new byte[10]), "first.jpg");
+		smallSpool.spool(new ByteArrayInputStream(new byte[10]), "second.jpg");
+		assertEquals(20, smallSpool.getNoSpooledBytes());
+
+		try {
+			smallSpool.spool(new ByteArrayInputStream(new byte[10]), "third.jpg");
+			fail("IOException expected");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(2, spoolDir.listFiles().length);
+	}
+
+	@Test
+	public void testCleanUpDeletesOldUploads() throws IOException {
+		UploadSpool smallSpool = new UploadSpool(spoolDir, 10, 20, 60 * 1000);
+		SpooledUpload deletedUpload = smallSpool.spool(new ByteArrayInputStream(new byte[10]), "deleted.jpg");
+		SpooledUpload newUpload = smallSpool.spool(new ByteArrayInputStream(new byte[10]), "new.jpg");
+		deletedUpload.delete();
+		File abandoned = File.createTempFile(UploadSpool.FILE_PREFIX, UploadSpool.FILE_SUFFIX, spoolDir);
+		Files.write(abandoned.toPath(), new byte[5]);
+		assertTrue(abandoned.setLastModified(System.currentTimeMillis() - 2 * 60 * 1000));
+
+		smallSpool.cleanUp();
+
+		assertFalse(abandoned.exists());
+		assertTrue(newUpload.exists());
+		assertEquals(10, smallSpool.getNoSpooledBytes());
+
+		// room for another upload again
+		smallSpool.spool(new ByteArrayInputStream(new byte[10]), "next.jpg");
+	}
+}
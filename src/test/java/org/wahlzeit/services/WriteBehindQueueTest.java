@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for {@link WriteBehindQueue}.
+ */
+public class WriteBehindQueueTest {
+
+	private WriteBehindQueue queue;
+	private List<List<Persistent>> writtenBatches;
+	private ObjectManager manager;
+
+	@Before
+	public void setUp() {
+		queue = new WriteBehindQueue(10, 60 * 1000, 3);
+		writtenBatches = new ArrayList<List<Persistent>>();
+		manager = new ObjectManager() {
+			@Override
+			protected void writeObjects(Collection<? extends Persistent> collection) {
+				writtenBatches.add(new ArrayList<Persistent>(collection));
+			}
+		};
+	}
+
+	@After
+	public void tearDown() {
+		queue.shutDown();
+	}
+
+	@Test
+	public void testWritesRightAwayWhenNotStarted() {
+		assertFalse(queue.isWriteBehind());
+
+		queue.enqueue(manager, new DirtyObject());
+
+		assertEquals(1, writtenBatches.size());
+		assertEquals(0, queue.getNoPending());
+	}
+
+	@Test
+	public void testCoalescesObjects() {
+		queue.start();
+		assertTrue(queue.isWriteBehind());
+
+		Persistent object = new DirtyObject();
+		queue.enqueue(manager, object);
+		queue.enqueue(manager, object);
+		queue.enqueue(manager, new DirtyObject());
+		assertEquals(2, queue.getNoPending());
+		assertEquals(0, writtenBatches.size());
+
+		queue.flush();
+		assertEquals(1, writtenBatches.size());
+		assertEquals(2, writtenBatches.get(0).size());
+		assertEquals(0, queue.getNoPending());
+	}
+
+	@Test
+	public void testFlushesWhenTooManyArePending() {
+		queue.start();
+
+		queue.enqueue(manager, new DirtyObject());
+		queue.enqueue(manager, new DirtyObject());
+		assertEquals(0, writtenBatches.size());
+
+		queue.enqueue(manager, new DirtyObject());
+		assertEquals(1, writtenBatches.size());
+		assertEquals(3, writtenBatches.get(0).size());
+	}
+
+	@Test
+	public void testFailedWritesAreQueuedAgain() {
+		ObjectManager failingManager = new ObjectManager() {
+			private boolean hasFailed = false;
+
+			@Override
+			protected void writeObjects(Collection<? extends Persistent> collection) {
+				if (!hasFailed) {
+					hasFailed = true;
+					throw new IllegalStateException("datastore unavailable");
+				}
+			}
+		};
+		queue.start();
+		queue.enqueue(failingManager, new DirtyObject());
+		queue.enqueue(manager, new DirtyObject());
+
+		try {
+			queue.flush();
+			fail("The failure must be rethrown");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals(1, writtenBatches.size());
+		assertEquals(1, queue.getNoPending());
+	}
+
+	@Test
+	public void testShutDownFlushes() {
+		queue.start();
+		queue.enqueue(manager, new DirtyObject());
+
+		queue.shutDown();
+
+		assertFalse(queue.isWriteBehind());
+		assertEquals(1, writtenBatches.size());
+	}
+
+	/**
+	 *
+	 */
+	private static class DirtyObject implements Persistent {
+		@Override
+		public boolean isDirty() {
+			return true;
+		}
+
+		@Override
+		public void incWriteCount() {
+		}
+
+		@Override
+		public void resetWriteCount() {
+		}
+
+		@Override
+		public int getWriteCount() {
+			return 1;
+		}
+
+		@Override
+		public void resetWriteCount(int noSavedWrites) {
+		}
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2018-2019 by Daniel Ziegler
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.servlets;
+
+import org.apache.http.HttpStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wahlzeit.model.persistence.ImageStorage;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test class for {@link StaticDataServlet}.
+ */
+public class StaticDataServletTest {
+
+	private static final String PHOTO_ID = "x1";
+	private static final int SIZE = 1;
+	private static final long LAST_MODIFIED = 1500000000000L;
+
+	private byte[] imageData = "image data".getBytes();
+	private File imageFile;
+	private ImageStorage imageStorage;
+	private TestStaticDataServlet servlet;
+
+	@Before
+	public void setUp() throws IOException {
+		imageFile = File.createTempFile("wahlzeit-image", ".jpg");
+		Files.write(imageFile.toPath(), imageData);
+		imageStorage = mock(ImageStorage.class);
+		when(imageStorage.getImageFile(PHOTO_ID, SIZE)).thenReturn(imageFile);
+		ImageStorage.setInstance(imageStorage);
+		servlet = new TestStaticDataServlet();
+	}
+
+	@After
+	public void tearDown() {
+		ImageStorage.setInstance(null);
+		imageFile.delete();
+	}
+
+	@Test
+	public void testImageIsServedWithETag() throws IOException {
+		TestResponse response = getImage(null, -1);
+
+		verify(response.mock).setStatus(HttpStatus.SC_OK);
+		assertNotNull(getETag());
+		verify(response.mock).setHeader("ETag", getETag());
+		verify(response.mock).setDateHeader("Last-Modified", LAST_MODIFIED);
+		assertArrayEquals(imageData, response.body.toByteArray());
+	}
+
+	@Test
+	public void testMatchingETagIsNotModified() throws IOException {
+		getImage(null, -1);
+		TestResponse response = getImage(getETag(), -1);
+
+		verify(response.mock).setStatus(HttpStatus.SC_NOT_MODIFIED);
+		verify(response.mock).setHeader("ETag", getETag());
+		assertEquals(0, response.body.size());
+		// the known ETag answers the request without looking up the photo or the image
+		assertEquals(1, servlet.noLastModifiedQueries);
+		verify(imageStorage, times(1)).getImageFile(PHOTO_ID, SIZE);
+	}
+
+	@Test
+	public void testWeakAndListedETagsAreNotModified() throws IOException {
+		getImage(null, -1);
+		TestResponse response = getImage("\"other\", W/" + getETag(), -1);
+
+		verify(response.mock).setStatus(HttpStatus.SC_NOT_MODIFIED);
+		assertEquals(0, response.body.size());
+	}
+
+	@Test
+	public void testMismatchedETagIsServed() throws IOException {
+		getImage(null, -1);
+		TestResponse response = getImage("\"other\"", LAST_MODIFIED);
+
+		// If-None-Match takes precedence over If-Modified-Since
+		verify(response.mock).setStatus(HttpStatus.SC_OK);
+		verify(response.mock, never()).setStatus(HttpStatus.SC_NOT_MODIFIED);
+		assertArrayEquals(imageData, response.body.toByteArray());
+	}
+
+	@Test
+	public void testIfModifiedSince() throws IOException {
+		TestResponse response = getImage(null, LAST_MODIFIED + 999);
+		verify(response.mock).setStatus(HttpStatus.SC_NOT_MODIFIED);
+		assertEquals(0, response.body.size());
+
+		response = getImage(null, LAST_MODIFIED - 1000);
+		verify(response.mock).setStatus(HttpStatus.SC_OK);
+		assertArrayEquals(imageData, response.body.toByteArray());
+	}
+
+	@Test
+	public void testETagsAreEvictedWhenFull() throws IOException {
+		for (int i = 0; i < StaticDataServlet.MAX_ETAGS; i++) {
+			servlet.eTags.put("y" + i + "-" + SIZE, "\"" + i + "\"");
+		}
+		// the eldest entry is used again, so it outlives the second one
+		servlet.eTags.get("y0-" + SIZE);
+
+		getImage(null, -1);
+
+		assertEquals(StaticDataServlet.MAX_ETAGS, servlet.eTags.size());
+		assertNotNull(getETag());
+		assertTrue(servlet.eTags.containsKey("y0-" + SIZE));
+		assertFalse(servlet.eTags.containsKey("y1-" + SIZE));
+	}
+
+	/**
+	 *
+	 */
+	protected String getETag() {
+		return servlet.eTags.get(PHOTO_ID + "-" + SIZE);
+	}
+
+	/**
+	 *
+	 */
+	protected TestResponse getImage(String ifNoneMatch, long ifModifiedSince) throws IOException {
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getParameter("type")).thenReturn("image");
+		when(request.getParameter("photoId")).thenReturn(PHOTO_ID);
+		when(request.getParameter("size")).thenReturn(String.valueOf(SIZE));
+		when(request.getHeader("If-None-Match")).thenReturn(ifNoneMatch);
+		when(request.getDateHeader("If-Modified-Since")).thenReturn(ifModifiedSince);
+
+		TestResponse response = new TestResponse();
+		servlet.doGet(request, response.mock);
+		return response;
+	}
+
+	/**
+	 * Mocked response that keeps the body written to it
+	 */
+	protected static class TestResponse {
+
+		protected final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		protected final HttpServletResponse mock = mock(HttpServletResponse.class);
+
+		protected TestResponse() throws IOException {
+			when(mock.getOutputStream()).thenReturn(new ServletOutputStream() {
+				@Override
+				public void write(int b) {
+					body.write(b);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Servlet that does not need the PhotoManager to know when a photo was created
+	 */
+	protected static class TestStaticDataServlet extends StaticDataServlet {
+
+		protected int noLastModifiedQueries = 0;
+
+		@Override
+		protected long getImageLastModified(String photoId) {
+			noLastModifiedQueries++;
+			return LAST_MODIFIED;
+		}
+	}
+}
@@ -1,19 +1,21 @@
 package org.wahlzeit.testEnvironmentProvider;
 
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import org.junit.rules.ExternalResource;
 
 /**
  * Provider for the GAE datastore environment. Necessary for each Unit test that wants to load or store stuff in the
- * datastore.
+ * datastore. Includes memcache, which backs the shared tier of the EntityCache.
  * 
  * @review
  */
 public class LocalDatastoreServiceTestConfigProvider extends ExternalResource {
 
 	private final LocalServiceTestHelper helper =
-			new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+			new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig(),
+					new LocalMemcacheServiceTestConfig());
 
 	@Override
 	protected void before() throws Throwable {